@@ -7,6 +7,7 @@ import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
 import hudson.model.TaskListener;
 import jenkins.security.MasterToSlaveCallable;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.security.GeneralSecurityException;
@@ -20,6 +21,8 @@ public abstract class AbstractPublisherTask<V> extends MasterToSlaveCallable<V,
     protected final String applicationId;
     protected String editId;
     protected PrintStream logger;
+    private String sharedEditId;
+    private CommitModeRecord.Recorder commitModeRecorder;
 
     AbstractPublisherTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId) {
         this.listener = listener;
@@ -46,6 +49,46 @@ public abstract class AbstractPublisherTask<V> extends MasterToSlaveCallable<V,
 
     protected abstract V execute() throws IOException, InterruptedException, UploadException;
 
+    /**
+     * Prepares this task to be executed as part of another task, rather than via {@link #call()}.
+     *
+     * @param editService The API client, which may be shared with other tasks running at the same time.
+     * @param logger Where this task should write its output.
+     */
+    final void attach(AndroidPublisher.Edits editService, PrintStream logger) {
+        this.editService = editService;
+        this.logger = logger;
+    }
+
+    /**
+     * Makes this task use an edit which has already been opened, rather than creating its own.
+     * <p>
+     * In that case, the edit will neither be committed nor deleted by this task, as that's up to whoever opened it.
+     *
+     * @param editId The ID of the edit opened for this task's application, or {@code null} to use a new edit.
+     * @see GooglePlayEditStep
+     */
+    final void useSharedEdit(@Nullable String editId) {
+        this.sharedEditId = editId;
+    }
+
+    /**
+     * Makes this task commit its edit using the mode which recent commits for its application needed, and record
+     * which mode ended up succeeding.
+     *
+     * @param recorder Where to predict and record the commit mode, or {@code null} to always try sending the changes
+     *                 for review first.
+     * @see CommitModeRecord
+     */
+    final void useCommitModeRecord(@Nullable CommitModeRecord.Recorder recorder) {
+        this.commitModeRecorder = recorder;
+    }
+
+    /** @return Whether this task is making changes within an edit which it didn't open itself. */
+    protected final boolean isSharedEdit() {
+        return sharedEditId != null;
+    }
+
     protected final AndroidPublisher.Edits getEditService() throws UploadException {
         return getPublisherClient().edits();
     }
@@ -63,32 +106,65 @@ public abstract class AbstractPublisherTask<V> extends MasterToSlaveCallable<V,
     }
 
     /** Creates a new edit, assigning the {@link #editId}. Any previous edit ID will be lost. */
-    protected final void createEdit(String applicationId) throws IOException {
-        editId = editService.insert(applicationId, null).execute().getId();
+    protected final void createEdit(String applicationId) throws IOException, InterruptedException {
+        if (isSharedEdit()) {
+            logger.println("- Using the edit opened by the enclosing withGooglePlayEdit block");
+            editId = sharedEditId;
+            return;
+        }
+        editId = AsyncPublisherClient.executeBlocking(editService.insert(applicationId, null)).getId();
     }
 
-    protected void commit() throws IOException {
+    /** Discards the current edit, if any, meaning that none of its changes will be applied to Google Play. */
+    protected final void deleteEdit() throws IOException, InterruptedException {
+        if (editId == null) {
+            return;
+        }
+        if (isSharedEdit()) {
+            // The changes made so far will be discarded when the enclosing block fails
+            editId = null;
+            return;
+        }
+        AsyncPublisherClient.executeBlocking(editService.delete(applicationId, editId));
+        editId = null;
+    }
+
+    protected void commit() throws IOException, InterruptedException {
+        if (isSharedEdit()) {
+            logger.println("Changes will be applied to Google Play at the end of the withGooglePlayEdit block");
+            return;
+        }
+        commitEdit(editService, applicationId, editId, logger, commitModeRecorder);
+    }
+
+    /**
+     * Commits the given edit, sending the changes for review if Google Play allows it.
+     *
+     * @param commitModeRecorder Where to predict which commit mode should be tried first, and to record which one
+     *                           succeeded, or {@code null} if we should try sending the changes for review first.
+     */
+    static void commitEdit(AndroidPublisher.Edits editService, String applicationId, String editId,
+                           PrintStream logger, @Nullable CommitModeRecord.Recorder commitModeRecorder)
+            throws IOException, InterruptedException {
         logger.println("Applying changes to Google Play...");
-        boolean cannotBeSentForReview = false;
+        final boolean isPredictedNotSentForReview =
+                commitModeRecorder != null && commitModeRecorder.isChangesNotSentForReviewPredicted();
+        boolean changesNotSentForReview = isPredictedNotSentForReview;
         try {
-            // Try committing and sending the changes for review
-            // TODO: Once we can update to a newer version of the Android Publisher client,
-            //       replace the `set` call with the `setChangesNotSentForReview` method
-            editService.commit(applicationId, editId).set("changesNotSentForReview", false).execute();
-                    //.setChangesNotSentForReview(false)
+            commitEdit(editService, applicationId, editId, changesNotSentForReview);
         } catch (GoogleJsonResponseException e) {
-            // Check whether the commit was rejected because it can't be automatically submitted for review
+            // Check whether the commit was rejected because of whether the changes should be sent for review
+            boolean isModeRejected = false;
             GoogleJsonError details = e.getDetails();
             if (details != null) {
                 String msg = details.getMessage();
-                cannotBeSentForReview = msg != null && msg.contains("changesNotSentForReview");
+                isModeRejected = msg != null && msg.contains("changesNotSentForReview");
             }
 
-            if (cannotBeSentForReview) {
-                // If so, we can retry without sending the changes for review
-                // TODO: Once we can update to a newer version of the Android Publisher client,
-                //       replace the `set` call with the `setChangesNotSentForReview` method
-                editService.commit(applicationId, editId).set("changesNotSentForReview", true).execute();
+            if (isModeRejected) {
+                // If so, we can retry with the other mode
+                changesNotSentForReview = !changesNotSentForReview;
+                commitEdit(editService, applicationId, editId, changesNotSentForReview);
             } else {
                 // The commit failed for another reason, so just rethrow
                 throw e;
@@ -97,9 +173,24 @@ public abstract class AbstractPublisherTask<V> extends MasterToSlaveCallable<V,
 
         // If committing didn't throw an exception, everything worked fine
         logger.println("Changes were successfully applied to Google Play");
-        if (cannotBeSentForReview) {
+        if (changesNotSentForReview && isPredictedNotSentForReview) {
+            logger.println("- However, as was required for recent commits, these changes need to be manually " +
+                    "submitted for review via the Google Play Console");
+        } else if (changesNotSentForReview) {
             logger.println("- However, it has indicated that these changes need to be manually submitted for review via the Google Play Console");
         }
+        if (commitModeRecorder != null) {
+            final boolean isPredicted = changesNotSentForReview == isPredictedNotSentForReview;
+            logger.printf("- %s%n", commitModeRecorder.recordCommit(changesNotSentForReview, isPredicted));
+        }
+    }
+
+    private static void commitEdit(AndroidPublisher.Edits editService, String applicationId, String editId,
+                                   boolean changesNotSentForReview) throws IOException, InterruptedException {
+        // TODO: Once we can update to a newer version of the Android Publisher client,
+        //       replace the `set` call with the `setChangesNotSentForReview` method
+        AsyncPublisherClient.executeBlocking(editService.commit(applicationId, editId)
+                .set("changesNotSentForReview", changesNotSentForReview));
     }
 
     /** @return The name of the credential being used. */
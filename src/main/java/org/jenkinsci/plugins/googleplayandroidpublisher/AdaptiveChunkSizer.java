@@ -0,0 +1,153 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.googleapis.media.MediaHttpUploaderProgressListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static hudson.Functions.humanReadableByteSize;
+
+/**
+ * Adjusts the chunk size of a resumable upload based on the throughput measured for each chunk uploaded so far.
+ * <p>
+ * Small chunks mean many round trips on a fast connection, while large chunks mean that a lot of data has to be sent
+ * again if a chunk fails on a slow or unreliable connection. So we start with a modest chunk size, and aim for each
+ * chunk to take roughly {@link #TARGET_CHUNK_SECONDS} to upload. Chunks which had to be retried, or which were slowed
+ * down by a flaky connection, show up as a drop in throughput, which causes the following chunks to be smaller.
+ */
+final class AdaptiveChunkSizer implements MediaHttpUploaderProgressListener {
+
+    /** Google Play requires chunk sizes to be a multiple of this, i.e. 256 KiB. */
+    static final int MIN_CHUNK_SIZE = MediaHttpUploader.MINIMUM_CHUNK_SIZE;
+
+    /** The largest chunk size we'll use, as a multiple of {@link #MIN_CHUNK_SIZE}. */
+    static final int MAX_CHUNK_SIZE = 256 * MIN_CHUNK_SIZE;
+
+    /** The chunk size used before we know anything about the connection. */
+    static final int INITIAL_CHUNK_SIZE = 8 * MIN_CHUNK_SIZE;
+
+    /** How long we'd like each chunk to take to upload. */
+    static final int TARGET_CHUNK_SECONDS = 8;
+
+    private final LongSupplier nanoTime;
+    private final List<Integer> chunkSizes = new ArrayList<>();
+    private int chunkSize = INITIAL_CHUNK_SIZE;
+    private long startTime = -1;
+    private long chunkStartTime;
+    private long bytesUploaded;
+    private long elapsedNanos;
+
+    AdaptiveChunkSizer() {
+        this(System::nanoTime);
+    }
+
+    AdaptiveChunkSizer(LongSupplier nanoTime) {
+        this.nanoTime = nanoTime;
+    }
+
+    /** Configures the given uploader to use this sizer, if the request is a resumable upload. */
+    void attach(MediaHttpUploader uploader) {
+        if (uploader == null) {
+            return;
+        }
+        uploader.setChunkSize(chunkSize);
+        uploader.setProgressListener(this);
+    }
+
+    @Override
+    public void progressChanged(MediaHttpUploader uploader) {
+        switch (uploader.getUploadState()) {
+            case INITIATION_COMPLETE:
+                onUploadStarted();
+                break;
+            case MEDIA_IN_PROGRESS:
+            case MEDIA_COMPLETE:
+                onChunkUploaded(uploader.getNumBytesUploaded());
+                uploader.setChunkSize(chunkSize);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Should be called once the upload session has been created, i.e. just before the first chunk is sent. */
+    void onUploadStarted() {
+        startTime = nanoTime.getAsLong();
+        chunkStartTime = startTime;
+    }
+
+    /**
+     * Should be called after each chunk has been uploaded, and updates the size to be used for the next chunk.
+     *
+     * @param totalBytesUploaded The total number of bytes which the server has received so far.
+     */
+    void onChunkUploaded(long totalBytesUploaded) {
+        if (startTime == -1) {
+            onUploadStarted();
+        }
+        final long now = nanoTime.getAsLong();
+        final long chunkBytes = totalBytesUploaded - bytesUploaded;
+        final long chunkNanos = now - chunkStartTime;
+        chunkSizes.add(chunkSize);
+        bytesUploaded = totalBytesUploaded;
+        elapsedNanos = now - startTime;
+        chunkStartTime = now;
+
+        // We can't tell anything about the throughput if we somehow didn't measure any time passing
+        if (chunkBytes <= 0 || chunkNanos <= 0) {
+            return;
+        }
+
+        // Grow gradually, in case this chunk was just lucky, but shrink immediately if the connection is struggling
+        final double idealSize = (double) chunkBytes * TimeUnit.SECONDS.toNanos(TARGET_CHUNK_SECONDS) / chunkNanos;
+        final double nextSize = Math.min(idealSize, 2.0 * chunkSize);
+        chunkSize = roundToAllowedSize(nextSize);
+    }
+
+    /** @return The chunk size which should be used for the next chunk. */
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    /** @return The sizes of all the chunks uploaded so far, in order. */
+    List<Integer> getChunkSizes() {
+        return chunkSizes;
+    }
+
+    /** @return The average upload throughput so far, in megabytes per second, or zero if nothing was measured. */
+    double getMegabytesPerSecond() {
+        if (elapsedNanos <= 0) {
+            return 0;
+        }
+        return (bytesUploaded / (1024.0 * 1024.0)) / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /** @return A human-readable summary of the chunk sizes used and the throughput, or {@code null} if none. */
+    String getSummary() {
+        if (chunkSizes.isEmpty()) {
+            return null;
+        }
+
+        // Only list each chunk size when it changes, to keep this short
+        final List<String> sizes = new ArrayList<>();
+        int previous = -1;
+        for (int size : chunkSizes) {
+            if (size != previous) {
+                sizes.add(humanReadableByteSize(size));
+                previous = size;
+            }
+        }
+        return String.format(Locale.ENGLISH, "%d chunk(s) of %s at %.1f MB/s",
+                chunkSizes.size(), String.join(" → ", sizes), getMegabytesPerSecond());
+    }
+
+    private static int roundToAllowedSize(double size) {
+        final long multiples = (long) (size / MIN_CHUNK_SIZE);
+        return (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, multiples * MIN_CHUNK_SIZE));
+    }
+
+}
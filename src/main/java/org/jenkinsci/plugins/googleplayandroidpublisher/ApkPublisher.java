@@ -19,6 +19,8 @@ import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.jenkinsci.Symbol;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AppFileFormat;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AppFileMetadata;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.GradleOutputIndex;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.UploadFile;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
@@ -31,12 +33,17 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.function.BiConsumer;
 import java.util.regex.Matcher;
 import java.util.stream.Collectors;
@@ -45,14 +52,17 @@ import java.util.zip.ZipException;
 import static hudson.Util.fixEmptyAndTrim;
 import static hudson.Util.join;
 import static hudson.Util.tryParseNumber;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.MAX_RELEASE_NOTES_LENGTH;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.OBB_FILE_REGEX;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.OBB_FILE_TYPE_MAIN;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.PERCENTAGE_FORMATTER;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.TRACK_NAME_INTERNAL_APP_SHARING;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.REGEX_LANGUAGE;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.REGEX_VARIABLE;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.SUPPORTED_LANGUAGES;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getRelativeFileName;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.readGradleOutputMetadata;
 
 /** Uploads Android application files to the Google Play Developer Console. */
 public class ApkPublisher extends GooglePlayPublisher {
@@ -66,8 +76,16 @@ public class ApkPublisher extends GooglePlayPublisher {
     private String releaseName;
     private String rolloutPercentage;
     private RecentChanges[] recentChangeList;
+    private String releaseNotesDirectory;
     private String inAppUpdatePriority;
     private String additionalVersionCodes;
+    private boolean allowMultipleApplicationIds;
+    private String maxParallelApplications;
+    private boolean requireAllApplicationsSucceed;
+    private boolean allowMultipleInternalAppSharingFiles;
+    private boolean dryRun;
+    private boolean deferDeobfuscationFileUploads;
+    private boolean useGradleOutputMetadata;
 
     // This field was used before AAB support was introduced; it will be migrated to `filesPattern` for Freestyle jobs
     @Deprecated private transient String apkFilesPattern;
@@ -188,6 +206,70 @@ public class ApkPublisher extends GooglePlayPublisher {
         return fixEmptyAndTrim(additionalVersionCodes);
     }
 
+    @DataBoundSetter
+    public void setAllowMultipleApplicationIds(boolean allowMultipleApplicationIds) {
+        this.allowMultipleApplicationIds = allowMultipleApplicationIds;
+    }
+
+    public boolean getAllowMultipleApplicationIds() {
+        return allowMultipleApplicationIds;
+    }
+
+    @DataBoundSetter
+    public void setMaxParallelApplications(String maxParallelApplications) {
+        this.maxParallelApplications = maxParallelApplications;
+    }
+
+    @Nullable
+    public String getMaxParallelApplications() {
+        return fixEmptyAndTrim(maxParallelApplications);
+    }
+
+    @DataBoundSetter
+    public void setRequireAllApplicationsSucceed(boolean requireAllApplicationsSucceed) {
+        this.requireAllApplicationsSucceed = requireAllApplicationsSucceed;
+    }
+
+    public boolean getRequireAllApplicationsSucceed() {
+        return requireAllApplicationsSucceed;
+    }
+
+    @DataBoundSetter
+    public void setAllowMultipleInternalAppSharingFiles(boolean allowMultipleInternalAppSharingFiles) {
+        this.allowMultipleInternalAppSharingFiles = allowMultipleInternalAppSharingFiles;
+    }
+
+    public boolean getAllowMultipleInternalAppSharingFiles() {
+        return allowMultipleInternalAppSharingFiles;
+    }
+
+    @DataBoundSetter
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    public boolean getDryRun() {
+        return dryRun;
+    }
+
+    @DataBoundSetter
+    public void setDeferDeobfuscationFileUploads(boolean deferDeobfuscationFileUploads) {
+        this.deferDeobfuscationFileUploads = deferDeobfuscationFileUploads;
+    }
+
+    public boolean getDeferDeobfuscationFileUploads() {
+        return deferDeobfuscationFileUploads;
+    }
+
+    @DataBoundSetter
+    public void setUseGradleOutputMetadata(boolean useGradleOutputMetadata) {
+        this.useGradleOutputMetadata = useGradleOutputMetadata;
+    }
+
+    public boolean getUseGradleOutputMetadata() {
+        return useGradleOutputMetadata;
+    }
+
     @DataBoundSetter
     public void setReleaseName(String releaseName) {
         this.releaseName = releaseName;
@@ -249,6 +331,16 @@ public class ApkPublisher extends GooglePlayPublisher {
         return recentChangeList;
     }
 
+    @DataBoundSetter
+    public void setReleaseNotesDirectory(String releaseNotesDirectory) {
+        this.releaseNotesDirectory = releaseNotesDirectory;
+    }
+
+    @Nullable
+    public String getReleaseNotesDirectory() {
+        return fixEmptyAndTrim(releaseNotesDirectory);
+    }
+
     @DataBoundSetter
     public void setInAppUpdatePriority(@Nullable String priorityStr) {
         this.inAppUpdatePriority = priorityStr;
@@ -339,6 +431,21 @@ public class ApkPublisher extends GooglePlayPublisher {
         return expand(getInAppUpdatePriority());
     }
 
+    @Nullable
+    private String getExpandedMaxParallelApplicationsString() throws IOException, InterruptedException {
+        return expand(getMaxParallelApplications());
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+    private int getExpandedMaxParallelApplications() throws IOException, InterruptedException {
+        String maxStr = getExpandedMaxParallelApplicationsString();
+        if (maxStr == null) {
+            return DescriptorImpl.defaultMaxParallelApplications;
+        }
+        return tryParseNumber(maxStr, -1).intValue();
+    }
+
     @SuppressWarnings("ConstantConditions")
     @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
     private Integer getExpandedInAppUpdatePriority() throws IOException, InterruptedException {
@@ -389,6 +496,12 @@ public class ApkPublisher extends GooglePlayPublisher {
                     getExpandedAdditionalVersionCodesString()));
         }
 
+        // Check whether the number of applications to process in parallel is valid
+        if (allowMultipleApplicationIds && getExpandedMaxParallelApplications() < 1) {
+            errors.add(String.format("'%s' is not a valid number of applications to process in parallel",
+                    getExpandedMaxParallelApplicationsString()));
+        }
+
         // Print accumulated errors
         if (!errors.isEmpty()) {
             logger.println("Cannot upload to Google Play:");
@@ -423,6 +536,17 @@ public class ApkPublisher extends GooglePlayPublisher {
             return true;
         }
 
+        // Expand the configuration once, as it's used both when validating it, and when publishing
+        expandAll(getGoogleCredentialsId(), getFilesPattern(), getTrackName(), getReleaseName(),
+                getRolloutPercentage(), getInAppUpdatePriority(), getAdditionalVersionCodes(),
+                getMaxParallelApplications(), getDeobfuscationFilesPattern(), getNativeDebugSymbolFilesPattern(),
+                getExpansionFilesPattern(), getReleaseNotesDirectory());
+        if (recentChangeList != null) {
+            for (RecentChanges r : recentChangeList) {
+                expandAll(r.language, r.text);
+            }
+        }
+
         // Check that the job has been configured correctly
         if (!isConfigValid(logger)) {
             return false;
@@ -436,13 +560,18 @@ public class ApkPublisher extends GooglePlayPublisher {
             return false;
         }
 
+        // Read the metadata written by Gradle, if desired, so that those app files don't need to be parsed
+        final Map<String, AppFileMetadata> gradleMetadata = useGradleOutputMetadata
+                ? readGradleOutputMetadata(logger, workspace, relativePaths) : Collections.emptyMap();
+
         // Get the full remote path in the workspace for each filename
         final List<UploadFile> validFiles = new ArrayList<>();
         for (String path : relativePaths) {
             FilePath file = workspace.child(path);
             try {
-                // Attempt to parse the file as an Android app
-                UploadFile uploadFile = new UploadFile(file);
+                // Attempt to parse the file as an Android app, unless Gradle has already told us what it contains
+                AppFileMetadata metadata = gradleMetadata.get(path);
+                UploadFile uploadFile = metadata == null ? new UploadFile(file) : new UploadFile(file, metadata);
                 validFiles.add(uploadFile);
             } catch (ZipException e) {
                 // If the file is empty or not a zip file, we don't need to dump the whole stacktrace
@@ -460,8 +589,9 @@ public class ApkPublisher extends GooglePlayPublisher {
             }
         }
 
-        // If there are multiple matches, but internal app sharing was chosen, then we can't continue
-        if (isInternalAppSharingTrack() && validFiles.size() > 1) {
+        // If there are multiple matches, but internal app sharing was chosen, then we can't continue, unless that's
+        // allowed; in that case, each file is uploaded independently, e.g. one per product flavour
+        if (isInternalAppSharingTrack() && validFiles.size() > 1 && !allowMultipleInternalAppSharingFiles) {
             logger.println("Internal app sharing was selected, which requires a single app file, but multiple were found:");
             for (UploadFile file : validFiles) {
                 logger.printf("  - %s%n", getRelativeFileName(workspace, file.getFilePath()));
@@ -469,10 +599,11 @@ public class ApkPublisher extends GooglePlayPublisher {
             return false;
         }
 
-        // If there are multiple matches, ensure that all have the same application ID
+        // If there are multiple matches, ensure that all have the same application ID, unless that's allowed
         final Set<String> applicationIds = validFiles.stream()
-                .map(UploadFile::getApplicationId).collect(Collectors.toSet());
-        if (applicationIds.size() != 1) {
+                .map(UploadFile::getApplicationId).collect(Collectors.toCollection(TreeSet::new));
+        final boolean isMultipleApplications = applicationIds.size() > 1;
+        if (isMultipleApplications && !allowMultipleApplicationIds) {
             logger.println(String.format("Multiple files matched the pattern '%s', " +
                             "but they have inconsistent application IDs:", filesPattern));
             for (String id : applicationIds) {
@@ -482,6 +613,18 @@ public class ApkPublisher extends GooglePlayPublisher {
             return false;
         }
 
+        // Each application's files will be uploaded separately, so additional version codes can't be used
+        final List<Long> additionalVersionCodes = getExpandedAdditionalVersionCodes();
+        if (isMultipleApplications && !additionalVersionCodes.isEmpty()) {
+            logger.println("Additional version codes cannot be included when uploading files with multiple " +
+                    "application IDs:");
+            for (String id : applicationIds) {
+                logger.print("  - ");
+                logger.println(id);
+            }
+            return false;
+        }
+
         // If both APKs and bundles were found, then prefer the bundles.
         // e.g. a release job may build a bundle for upload, but also build a fat APK for archiving,
         // or testing, etc. (though really the user should configure `apkFilesPattern` more sensibly)
@@ -499,108 +642,545 @@ public class ApkPublisher extends GooglePlayPublisher {
 
         // Process the obfuscation mapping filename(s) which match the pattern after variable expansion
         final String mappingFilesPattern = getExpandedDeobfuscationFilesPattern();
-        boolean mappingFileSuccess = processMappingFiles(logger, workspace, validFiles, relativePaths,
-                mappingFilesPattern,"ProGuard mapping", UploadFile::setMappingFile);
+        boolean mappingFileSuccess = processMappingFiles(logger, workspace, validFiles,
+                mappingFilesPattern, "ProGuard mapping", UploadFile::setMappingFile);
         if (!mappingFileSuccess) {
             return false;
         }
 
         // Process the native debug symbol filename(s) which match the pattern after variable expansion
         final String nativeDebugSymbolFilesPattern = getExpandedNativeDebugSymbolFilesPattern();
-        boolean symbolFileSuccess = processMappingFiles(logger, workspace, validFiles, relativePaths,
+        boolean symbolFileSuccess = processMappingFiles(logger, workspace, validFiles,
                 nativeDebugSymbolFilesPattern, "native symbols", UploadFile::setNativeDebugSymbolFile);
         if (!symbolFileSuccess) {
             return false;
         }
 
-        final String applicationId = applicationIds.iterator().next();
+        // Group the app files by application ID; usually there will only be one
+        final Map<String, List<UploadFile>> filesByApplicationId = validFiles.stream()
+                .collect(Collectors.groupingBy(UploadFile::getApplicationId, TreeMap::new, Collectors.toList()));
 
         // Find the expansion filename(s) which match the pattern after variable expansion
-        final Map<Long, ExpansionFileSet> expansionFiles = new TreeMap<>();
-        final String expansionPattern = getExpandedExpansionFilesPattern();
-        if (expansionPattern != null) {
-            List<String> expansionPaths = workspace.act(new FindFilesTask(expansionPattern));
-
-            // Check that the expansion files found apply to the app files to be uploaded
-            for (String path : expansionPaths) {
-                FilePath file = workspace.child(path);
-
-                // Check that the filename is in the right format
-                Matcher matcher = OBB_FILE_REGEX.matcher(file.getName());
-                if (!matcher.matches()) {
-                    logger.println(String.format("Expansion file '%s' doesn't match the required naming scheme", path));
-                    return false;
-                }
+        final Map<String, Map<Long, ExpansionFileSet>> expansionFiles =
+                findExpansionFiles(logger, workspace, filesByApplicationId);
+        if (expansionFiles == null) {
+            return false;
+        }
 
-                // We can only associate expansion files with the application ID we're going to upload
-                final String appId = matcher.group(3);
-                if (!applicationId.equals(appId)) {
-                    logger.println(String.format("Expansion filename '%s' doesn't match the application ID to be "
-                            + "uploaded: %s", path, applicationId));
-                    return false;
-                }
+        // Gather the release notes for each application, which may need to be read from the workspace
+        final Map<String, RecentChanges[]> releaseNotes = getReleaseNotes(logger, workspace, filesByApplicationId);
+        if (releaseNotes == null) {
+            return false;
+        }
+
+        // Google Play rejects files which were uploaded before, so fail now if we already know that's the case
+        if (!isInternalAppSharingTrack() && !checkForKnownDuplicates(logger, workspace, validFiles)) {
+            return false;
+        }
 
-                // We can only associate expansion files with version codes we're going to upload
-                final long versionCode = Long.parseLong(matcher.group(2));
-                final Set<Long> versionCodes = validFiles.stream()
-                        .map(UploadFile::getVersionCode).collect(Collectors.toSet());
-                if (!versionCodes.contains(versionCode)) {
-                    logger.println(String.format("Expansion filename '%s' doesn't match the versionCode of any of "
-                            + "APK(s) to be uploaded: %s", path, join(versionCodes, ", ")));
-                    return false;
+        // If this is a dry run, we've done everything we can without contacting Google Play
+        if (dryRun) {
+            return printDryRunPlan(logger, workspace, filesByApplicationId, expansionFiles, additionalVersionCodes,
+                    releaseNotes);
+        }
+
+        // Upload the file(s) from the workspace
+        try {
+            GoogleRobotCredentials credentials = getCredentialsHandler().getServiceAccountCredentials(run.getParent());
+            if (isInternalAppSharingTrack()) {
+                return uploadToInternalAppSharing(run, workspace, listener, credentials, validFiles);
+            }
+
+            final List<ApkUploadTask> tasks = new ArrayList<>();
+            final Set<String> deferredApplicationIds = new TreeSet<>();
+            final ExpansionFileRecord expansionFileRecord = ExpansionFileRecord.get();
+            for (Map.Entry<String, List<UploadFile>> entry : filesByApplicationId.entrySet()) {
+                final String applicationId = entry.getKey();
+
+                // Let the upload task, which may run on an agent, find and record uploads of identical expansion files
+                final Map<Long, ExpansionFileSet> appExpansionFiles = expansionFiles.get(applicationId);
+                final Map<String, Long> knownExpansionFiles = appExpansionFiles.isEmpty() ? Collections.emptyMap()
+                        : expansionFileRecord.getUploadedFiles(applicationId);
+                final ExpansionFileRecord.Recorder expansionFileRecorder = appExpansionFiles.isEmpty() ? null
+                        : workspace.getChannel().export(ExpansionFileRecord.Recorder.class,
+                                expansionFileRecord.createRecorder(applicationId));
+
+                // Within a withGooglePlayEdit block, the release won't be applied until the block completes,
+                // so there's no point in deferring the deobfuscation file uploads
+                final String sharedEditId = getSharedEditId(applicationId);
+                final boolean deferUploads = deferDeobfuscationFileUploads && sharedEditId == null;
+                if (deferUploads) {
+                    deferredApplicationIds.add(applicationId);
                 }
 
-                // File looks good, so add it to the fileset for this version code
-                final String type = matcher.group(1).toLowerCase(Locale.ENGLISH);
-                ExpansionFileSet fileSet = expansionFiles.get(versionCode);
-                if (fileSet == null) {
-                    fileSet = new ExpansionFileSet();
-                    expansionFiles.put(versionCode, fileSet);
+                final ApkUploadTask task = new ApkUploadTask(listener, credentials, applicationId, workspace,
+                        entry.getValue(), appExpansionFiles, usePreviousExpansionFilesIfMissing,
+                        getCanonicalTrackName(), getExpandedReleaseName(), getExpandedRolloutPercentage(),
+                        releaseNotes.get(applicationId), getExpandedInAppUpdatePriority(), additionalVersionCodes,
+                        knownExpansionFiles, expansionFileRecorder, deferUploads,
+                        workspace.getChannel().export(AppFileCache.Recorder.class,
+                                AppFileCache.get().createRecorder(applicationId)));
+                task.useSharedEdit(sharedEditId);
+                task.useCommitModeRecord(CommitModeRecord.get().createRecorder(applicationId, workspace.getChannel()));
+                tasks.add(task);
+            }
+
+            // Apply the release(s), noting which applications were successfully updated
+            final Set<String> committedApplicationIds = new TreeSet<>();
+            final boolean isPublished;
+            if (tasks.size() == 1) {
+                isPublished = workspace.act(tasks.get(0));
+                if (isPublished) {
+                    committedApplicationIds.add(tasks.get(0).applicationId);
                 }
-                if (type.equals(OBB_FILE_TYPE_MAIN)) {
-                    fileSet.setMainFile(file);
-                } else {
-                    fileSet.setPatchFile(file);
+            } else {
+                isPublished = publishMultipleApplications(run, workspace, logger, listener, credentials, tasks,
+                        committedApplicationIds);
+            }
+
+            // Now that the release is live, upload the deobfuscation files, if that was postponed
+            for (String applicationId : committedApplicationIds) {
+                if (deferredApplicationIds.contains(applicationId)) {
+                    uploadDeobfuscationFiles(run, workspace, logger, listener, credentials, applicationId,
+                            filesByApplicationId.get(applicationId));
                 }
             }
+            return isPublished;
+        } catch (UploadException e) {
+            logger.println(String.format("Upload failed: %s", getPublisherErrorMessage(e)));
+            logger.println("No changes have been applied to the Google Play account");
+        }
+        return false;
+    }
 
-            // If there are patch files, make sure that each has a main file, or "use previous if missing" is enabled
-            for (ExpansionFileSet fileSet : expansionFiles.values()) {
-                if (!usePreviousExpansionFilesIfMissing && fileSet.getPatchFile() != null
-                        && fileSet.getMainFile() == null) {
-                    logger.println(String.format("Patch expansion file '%s' was provided, but no main expansion file " +
-                            "was provided, and the option to reuse a pre-existing expansion file was " +
-                            "disabled.%nGoogle Play requires that each APK with a patch file also has a main " +
-                            "file.", fileSet.getPatchFile().getName()));
-                    return false;
+    /**
+     * Uploads the given files to internal app sharing, re-using the download URL of any file for which an identical
+     * file was recently uploaded.
+     * <p>
+     * Each URL is attached to the build so that subsequent steps can make use of it. If only some of the files could
+     * be uploaded, the build is marked as unstable.
+     */
+    private boolean uploadToInternalAppSharing(Run<?, ?> run, FilePath workspace, TaskListener listener,
+            GoogleRobotCredentials credentials, List<UploadFile> appFiles)
+            throws IOException, InterruptedException, UploadException {
+        final PrintStream logger = listener.getLogger();
+        final InternalAppSharingCache cache = InternalAppSharingCache.get();
+        if (requireAllApplicationsSucceed && appFiles.size() > 1) {
+            logger.println("Note: Each file is uploaded to internal app sharing independently, so the " +
+                    "'requireAllApplicationsSucceed' option has no effect here");
+        }
+
+        // Find the files which have already been uploaded
+        final Map<UploadFile, InternalAppSharingCache.Artifact> artifacts = new HashMap<>();
+        final List<UploadFile> filesToUpload = new ArrayList<>();
+        for (UploadFile appFile : appFiles) {
+            final InternalAppSharingCache.Artifact artifact =
+                    cache.get(appFile.getApplicationId(), appFile.getSha256Hash());
+            if (artifact == null) {
+                filesToUpload.add(appFile);
+                continue;
+            }
+            logger.printf("A file identical to %s was already uploaded to internal app sharing on Google Play at " +
+                    "%s:%n", getRelativeFileName(workspace, appFile.getFilePath()), new Date(artifact.getUploadedAt()));
+            logger.println(artifact.getDownloadUrl());
+            artifacts.put(appFile, artifact);
+        }
+
+        // Upload the rest, noting which succeeded
+        if (!filesToUpload.isEmpty()) {
+            final List<InternalAppSharingCache.Artifact> uploaded = workspace.act(new InternalAppSharingUploadTask(
+                    listener, credentials, workspace, filesToUpload));
+            for (int i = 0; i < filesToUpload.size(); i++) {
+                final UploadFile appFile = filesToUpload.get(i);
+                final InternalAppSharingCache.Artifact artifact = uploaded.get(i);
+                if (artifact != null) {
+                    cache.put(appFile.getApplicationId(), appFile.getSha256Hash(), artifact);
+                    artifacts.put(appFile, artifact);
                 }
             }
         }
 
-        // Upload the file(s) from the workspace
+        // Attach the URLs to the build, identifying each file by its build variant, or otherwise by its path
+        final Map<String, String> urlsByVariant = new TreeMap<>();
+        for (UploadFile appFile : appFiles) {
+            final InternalAppSharingCache.Artifact artifact = artifacts.get(appFile);
+            if (artifact == null) {
+                continue;
+            }
+            final String relativePath = getRelativeFileName(workspace, appFile.getFilePath());
+            final String variant = GradleOutputIndex.getVariantName(relativePath);
+            final String name = variant == null || urlsByVariant.containsKey(variant) ? relativePath : variant;
+            urlsByVariant.put(name, artifact.getDownloadUrl());
+            run.addAction(new InternalAppSharingAction(appFile.getApplicationId(), appFile.getVersionCode(),
+                    variant, artifact.getDownloadUrl()));
+        }
+        if (appFiles.size() > 1) {
+            logger.println("Internal app sharing URLs:");
+            urlsByVariant.forEach((name, url) -> logger.printf("- %s: %s%n", name, url));
+            logger.println();
+        }
+
+        if (artifacts.isEmpty()) {
+            logger.println("No files were uploaded to internal app sharing");
+            return false;
+        }
+        if (artifacts.size() < appFiles.size()) {
+            logger.printf("Only %d of %d files were uploaded to internal app sharing%n", artifacts.size(),
+                    appFiles.size());
+            run.setResult(Result.UNSTABLE);
+        }
+        return true;
+    }
+
+    /**
+     * Checks the given app files against those which earlier builds have seen on Google Play.
+     *
+     * @return {@code false} if any of the files is known to exist already, meaning that it can't be uploaded.
+     */
+    private static boolean checkForKnownDuplicates(PrintStream logger, FilePath workspace, List<UploadFile> appFiles)
+            throws IOException, InterruptedException {
+        final AppFileCache appFileCache = AppFileCache.get();
+        boolean hasDuplicates = false;
+        for (UploadFile appFile : appFiles) {
+            final String applicationId = appFile.getApplicationId();
+            if (!appFileCache.contains(applicationId)) {
+                continue;
+            }
+            final Long versionCode = appFileCache.findVersionCode(applicationId, appFile.getSha1Hash());
+            if (versionCode == null) {
+                continue;
+            }
+            if (!hasDuplicates) {
+                logger.println("These files already exist in the Google Play account, so cannot be uploaded again:");
+                hasDuplicates = true;
+            }
+            logger.printf("- %s (versionCode %d)%n", getRelativeFileName(workspace, appFile.getFilePath()),
+                    versionCode);
+        }
+        return !hasDuplicates;
+    }
+
+    /** Uploads files for multiple applications in one go, marking the build unstable if only some succeed. */
+    private boolean publishMultipleApplications(
+        Run<?, ?> run, FilePath workspace, PrintStream logger, TaskListener listener,
+        GoogleRobotCredentials credentials, List<ApkUploadTask> tasks, Set<String> committedApplicationIds
+    ) throws IOException, InterruptedException, UploadException {
+        final List<MultiAppTask.AppResult> results = workspace.act(new MultiAppTask(listener, credentials, tasks,
+                getExpandedMaxParallelApplications(), requireAllApplicationsSucceed));
+        for (MultiAppTask.AppResult result : results) {
+            if (result.isCommitted()) {
+                committedApplicationIds.add(result.applicationId);
+            }
+        }
+        return MultiAppTask.handleResults(run, logger, results);
+    }
+
+    /**
+     * Uploads the deobfuscation files for an application whose release has already been applied, marking the build
+     * as unstable if any could not be uploaded, as the release itself has succeeded.
+     */
+    private void uploadDeobfuscationFiles(
+        Run<?, ?> run, FilePath workspace, PrintStream logger, TaskListener listener,
+        GoogleRobotCredentials credentials, String applicationId, List<UploadFile> appFiles
+    ) throws IOException, InterruptedException {
+        final boolean hasFiles = appFiles.stream()
+                .anyMatch(it -> it.getMappingFile() != null || it.getNativeDebugSymbolFile() != null);
+        if (!hasFiles) {
+            return;
+        }
+
+        logger.println();
+        List<String> failures;
         try {
-            GoogleRobotCredentials credentials = getCredentialsHandler().getServiceAccountCredentials(run.getParent());
-            AbstractPublisherTask<Boolean> task;
+            final DeobfuscationFileUploadTask task = new DeobfuscationFileUploadTask(listener, credentials,
+                    applicationId, workspace, appFiles);
+            task.useCommitModeRecord(CommitModeRecord.get().createRecorder(applicationId, workspace.getChannel()));
+            failures = workspace.act(task);
+        } catch (UploadException e) {
+            failures = Collections.singletonList(getPublisherErrorMessage(e));
+        }
+        if (failures.isEmpty()) {
+            return;
+        }
+
+        logger.printf("The release for %s was applied, but these deobfuscation files could not be uploaded:%n",
+                applicationId);
+        for (String failure : failures) {
+            logger.printf("- %s%n", failure);
+        }
+        run.setResult(Result.UNSTABLE);
+    }
+
+    /**
+     * Gathers the release notes for each application: those configured for this job and, if a release notes directory
+     * has been configured, those found there for the highest version code being uploaded for each application.
+     * <p>
+     * Notes read from the directory are checked here, so that any problems are found before an edit is opened.
+     *
+     * @return The release notes for each application ID, or {@code null} if they could not be read or are invalid.
+     */
+    @Nullable
+    private Map<String, RecentChanges[]> getReleaseNotes(
+        PrintStream logger, FilePath workspace, Map<String, List<UploadFile>> filesByApplicationId
+    ) throws IOException, InterruptedException {
+        final RecentChanges[] configuredNotes = getExpandedRecentChangesList();
+        final String directory = expand(getReleaseNotesDirectory());
+        final Map<String, RecentChanges[]> releaseNotes = new TreeMap<>();
+        if (directory == null || isInternalAppSharingTrack()) {
+            filesByApplicationId.keySet().forEach(applicationId -> releaseNotes.put(applicationId, configuredNotes));
+            return releaseNotes;
+        }
+
+        // Read the notes for all applications from the workspace at once
+        final Map<String, Long> versionCodes = new TreeMap<>();
+        filesByApplicationId.forEach((applicationId, files) -> versionCodes.put(applicationId,
+                files.stream().mapToLong(UploadFile::getVersionCode).max().orElse(0)));
+        final Map<Long, Map<String, String>> notesByVersionCode =
+                workspace.act(new ReadReleaseNotesTask(directory, versionCodes.values()));
+        if (notesByVersionCode == null) {
+            logger.println(String.format("The release notes directory '%s' could not be found", directory));
+            return null;
+        }
+
+        final List<String> problems = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : versionCodes.entrySet()) {
+            // Release notes configured for this job take precedence over those in the directory
+            final Map<String, String> directoryNotes = new TreeMap<>(notesByVersionCode.get(entry.getValue()));
+            final List<RecentChanges> notes = new ArrayList<>();
+            if (configuredNotes != null) {
+                for (RecentChanges changes : configuredNotes) {
+                    notes.add(changes);
+                    if (changes != null && changes.language != null) {
+                        directoryNotes.remove(changes.language);
+                    }
+                }
+            }
+            directoryNotes.forEach((language, text) -> notes.add(new RecentChanges(language, text)));
+            logger.println(String.format("Found release notes in %d language(s) for %s version code %d in '%s'",
+                    directoryNotes.size(), entry.getKey(), entry.getValue(), directory));
+
+            final RecentChanges[] appNotes = notes.toArray(new RecentChanges[0]);
+            problems.addAll(checkReleaseNotes(appNotes, new TreeSet<>()));
+            releaseNotes.put(entry.getKey(), appNotes);
+        }
+
+        if (!problems.isEmpty()) {
+            logger.println("The release notes cannot be used, as Google Play would reject them:");
+            for (String problem : problems) {
+                logger.print("- ");
+                logger.println(problem);
+            }
+            return null;
+        }
+        return releaseNotes;
+    }
+
+    /**
+     * Checks the given release notes against the languages and length allowed by Google Play.
+     *
+     * @param languages Receives the language of each of the release notes.
+     * @return A description of each problem found.
+     */
+    private static List<String> checkReleaseNotes(RecentChanges[] recentChanges, Set<String> languages) {
+        final List<String> problems = new ArrayList<>();
+        final List<String> supportedLanguages = Arrays.asList(SUPPORTED_LANGUAGES);
+        for (RecentChanges changes : recentChanges) {
+            if (changes == null) {
+                continue;
+            }
+            if (changes.language == null) {
+                problems.add("Release notes were given without a language");
+                continue;
+            }
+            if (!supportedLanguages.contains(changes.language)) {
+                problems.add(String.format("Release notes language '%s' is not supported by Google Play",
+                        changes.language));
+            }
+            if (!languages.add(changes.language)) {
+                problems.add(String.format("Release notes were given more than once for language '%s'",
+                        changes.language));
+            }
+            if (changes.text != null && changes.text.length() > MAX_RELEASE_NOTES_LENGTH) {
+                problems.add(String.format("Release notes for language '%s' are %d characters long, but " +
+                        "Google Play allows at most %d", changes.language, changes.text.length(),
+                        MAX_RELEASE_NOTES_LENGTH));
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Logs the changes that would be made to Google Play, based on the files found in the workspace, and checks the
+     * configured release notes, since Google Play would otherwise only reject them once the files had been uploaded.
+     *
+     * @return {@code true} if no problems were found.
+     */
+    private boolean printDryRunPlan(
+        PrintStream logger, FilePath workspace, Map<String, List<UploadFile>> filesByApplicationId,
+        Map<String, Map<Long, ExpansionFileSet>> expansionFiles, List<Long> additionalVersionCodes,
+        Map<String, RecentChanges[]> releaseNotes
+    ) throws IOException, InterruptedException {
+        final List<String> problems = new ArrayList<>();
+        logger.println("Dry run: no edit will be created, and no changes will be made to Google Play");
+        logger.println();
+
+        for (Map.Entry<String, List<UploadFile>> entry : filesByApplicationId.entrySet()) {
+            final String applicationId = entry.getKey();
+            final List<UploadFile> appFiles = entry.getValue();
             if (isInternalAppSharingTrack()) {
-                UploadFile appFile = validFiles.get(0);
-                task = new InternalAppSharingUploadTask(listener, credentials, applicationId, workspace, appFile);
+                logger.printf("Would upload to Internal App Sharing for application ID: %s%n", applicationId);
             } else {
-                task = new ApkUploadTask(listener, credentials, applicationId, workspace, validFiles,
-                        expansionFiles, usePreviousExpansionFilesIfMissing, getCanonicalTrackName(), getExpandedReleaseName(),
-                        getExpandedRolloutPercentage(), getExpandedRecentChangesList(), getExpandedInAppUpdatePriority(),
-                        getExpandedAdditionalVersionCodes());
+                logger.printf("Would upload %d file(s) to release track '%s' for application ID: %s%n",
+                        appFiles.size(), getCanonicalTrackName(), applicationId);
             }
-            return workspace.act(task);
-        } catch (UploadException e) {
-            logger.println(String.format("Upload failed: %s", getPublisherErrorMessage(e)));
-            logger.println("No changes have been applied to the Google Play account");
+            for (UploadFile appFile : appFiles) {
+                final String fileType = (appFile.getFileFormat() == AppFileFormat.BUNDLE) ? "AAB" : "APK";
+                logger.printf("         %s file: %s%n", fileType, getRelativeFileName(workspace, appFile.getFilePath()));
+                logger.printf("       SHA-1 hash: %s%n", appFile.getSha1Hash());
+                logger.printf("      versionCode: %d%n", appFile.getVersionCode());
+                logger.printf("      versionName: %s%n", appFile.getVersionName());
+                if (appFile.getMappingFile() != null) {
+                    logger.printf(" ProGuard mapping: %s%n", getRelativeFileName(workspace, appFile.getMappingFile()));
+                }
+                if (appFile.getNativeDebugSymbolFile() != null) {
+                    logger.printf("   Native symbols: %s%n",
+                            getRelativeFileName(workspace, appFile.getNativeDebugSymbolFile()));
+                }
+                final ExpansionFileSet fileSet = expansionFiles.get(applicationId).get(appFile.getVersionCode());
+                if (fileSet != null && fileSet.getMainFile() != null) {
+                    logger.printf("   Main expansion: %s%n", getRelativeFileName(workspace, fileSet.getMainFile()));
+                }
+                if (fileSet != null && fileSet.getPatchFile() != null) {
+                    logger.printf("  Patch expansion: %s%n", getRelativeFileName(workspace, fileSet.getPatchFile()));
+                }
+                logger.println();
+            }
+            if (isInternalAppSharingTrack()) {
+                continue;
+            }
+
+            // Describe the release that would be created
+            final List<Long> versionCodes = appFiles.stream()
+                    .map(UploadFile::getVersionCode).collect(Collectors.toCollection(ArrayList::new));
+            versionCodes.addAll(additionalVersionCodes);
+            final String releaseName = ApkUploadTask.expandReleaseName(getExpandedReleaseName(), appFiles);
+            final Integer priority = getExpandedInAppUpdatePriority();
+            logger.printf("- Version codes:   %s%n", join(versionCodes, ", "));
+            logger.printf("- Staged rollout:  %s%%%n", PERCENTAGE_FORMATTER.format(getExpandedRolloutPercentage()));
+            logger.printf("- Update priority: %s%n", priority == null ? "(default)" : priority);
+            logger.printf("- Release name:    %s%n", releaseName == null ? "(default)" : releaseName);
+            logger.println();
         }
-        return false;
+
+        // Check the release notes, as Google Play would only reject these at the point of assigning the release.
+        // Unless they were read from a directory, every application shares the same release notes
+        final Set<RecentChanges[]> checkedReleaseNotes = new HashSet<>();
+        for (Map.Entry<String, RecentChanges[]> entry : releaseNotes.entrySet()) {
+            final RecentChanges[] recentChanges = entry.getValue();
+            if (recentChanges == null || isInternalAppSharingTrack() || !checkedReleaseNotes.add(recentChanges)) {
+                continue;
+            }
+            final Set<String> languages = new TreeSet<>();
+            problems.addAll(checkReleaseNotes(recentChanges, languages));
+            final String languageList = languages.isEmpty() ? "(none)" : join(languages, ", ");
+            if (getReleaseNotesDirectory() == null) {
+                logger.printf("Release notes:     %s%n%n", languageList);
+            } else {
+                logger.printf("Release notes for %s: %s%n%n", entry.getKey(), languageList);
+            }
+        }
+
+        if (!problems.isEmpty()) {
+            logger.println("Dry run found problems which would cause the upload to fail:");
+            for (String problem : problems) {
+                logger.print("- ");
+                logger.println(problem);
+            }
+            return false;
+        }
+        logger.println("Dry run complete; no changes have been applied to the Google Play account");
+        return true;
+    }
+
+    /**
+     * Finds the expansion files matching the configured pattern, and associates them with the app files to upload.
+     *
+     * @return The expansion files for each application ID and version code, or {@code null} if there was an error.
+     */
+    @Nullable
+    private Map<String, Map<Long, ExpansionFileSet>> findExpansionFiles(
+        PrintStream logger, FilePath workspace, Map<String, List<UploadFile>> filesByApplicationId
+    ) throws IOException, InterruptedException {
+        final Map<String, Map<Long, ExpansionFileSet>> expansionFiles = new TreeMap<>();
+        for (String applicationId : filesByApplicationId.keySet()) {
+            expansionFiles.put(applicationId, new TreeMap<>());
+        }
+
+        final String expansionPattern = getExpandedExpansionFilesPattern();
+        if (expansionPattern == null) {
+            return expansionFiles;
+        }
+        List<String> expansionPaths = workspace.act(new FindFilesTask(expansionPattern));
+
+        // Check that the expansion files found apply to the app files to be uploaded
+        for (String path : expansionPaths) {
+            FilePath file = workspace.child(path);
+
+            // Check that the filename is in the right format
+            Matcher matcher = OBB_FILE_REGEX.matcher(file.getName());
+            if (!matcher.matches()) {
+                logger.println(String.format("Expansion file '%s' doesn't match the required naming scheme", path));
+                return null;
+            }
+
+            // We can only associate expansion files with the application ID(s) we're going to upload
+            final String appId = matcher.group(3);
+            final List<UploadFile> appFiles = filesByApplicationId.get(appId);
+            if (appFiles == null) {
+                logger.println(String.format("Expansion filename '%s' doesn't match the application ID to be "
+                        + "uploaded: %s", path, join(filesByApplicationId.keySet(), ", ")));
+                return null;
+            }
+
+            // We can only associate expansion files with version codes we're going to upload
+            final long versionCode = Long.parseLong(matcher.group(2));
+            final Set<Long> versionCodes = appFiles.stream()
+                    .map(UploadFile::getVersionCode).collect(Collectors.toSet());
+            if (!versionCodes.contains(versionCode)) {
+                logger.println(String.format("Expansion filename '%s' doesn't match the versionCode of any of "
+                        + "APK(s) to be uploaded: %s", path, join(versionCodes, ", ")));
+                return null;
+            }
+
+            // File looks good, so add it to the fileset for this version code
+            final String type = matcher.group(1).toLowerCase(Locale.ENGLISH);
+            ExpansionFileSet fileSet = expansionFiles.get(appId).computeIfAbsent(versionCode,
+                    it -> new ExpansionFileSet());
+            if (type.equals(OBB_FILE_TYPE_MAIN)) {
+                fileSet.setMainFile(file);
+            } else {
+                fileSet.setPatchFile(file);
+            }
+        }
+
+        // If there are patch files, make sure that each has a main file, or "use previous if missing" is enabled
+        for (Map<Long, ExpansionFileSet> fileSets : expansionFiles.values()) {
+            for (ExpansionFileSet fileSet : fileSets.values()) {
+                if (!usePreviousExpansionFilesIfMissing && fileSet.getPatchFile() != null
+                        && fileSet.getMainFile() == null) {
+                    logger.println(String.format("Patch expansion file '%s' was provided, but no main expansion " +
+                            "file was provided, and the option to reuse a pre-existing expansion file was " +
+                            "disabled.%nGoogle Play requires that each APK with a patch file also has a main " +
+                            "file.", fileSet.getPatchFile().getName()));
+                    return null;
+                }
+            }
+        }
+        return expansionFiles;
     }
 
     private boolean processMappingFiles(
-        PrintStream logger, FilePath workspace,
-        List<UploadFile> validFiles, List<String> relativePaths, @Nullable String mappingFilesPattern,
+        PrintStream logger, FilePath workspace, List<UploadFile> validFiles, @Nullable String mappingFilesPattern,
         String mappingFileTypeName, BiConsumer<UploadFile, FilePath> appFileAssigner
     ) throws IOException, InterruptedException {
         if (mappingFilesPattern == null) {
@@ -614,43 +1194,73 @@ public class ApkPublisher extends GooglePlayPublisher {
             return false;
         }
 
-        // Attempt to associate app files with their corresponding mapping file
+        // If there is only one mapping file, associate it with each of the app files
         if (relativeMappingPaths.size() == 1) {
-            // If there is only one mapping file, associate it with each of the app files
             FilePath mappingFile = workspace.child(relativeMappingPaths.get(0));
             for (UploadFile appFile : validFiles) {
                 appFileAssigner.accept(appFile, mappingFile);
             }
-        } else if (relativeMappingPaths.size() == validFiles.size()) {
-            // If there are multiple mapping files, this usually means that there is one per dimension;
-            // the folder structure will typically look like this for the app files and their mapping files:
-            //
-            // - build/outputs/apk/dimension_one/release/app-release.apk
-            // - build/outputs/apk/dimension_two/release/app-release.apk
-            // - build/outputs/mapping/dimension_one/release/mapping.txt
-            // - build/outputs/mapping/dimension_two/release/mapping.txt
-            //
-            // i.e. an app file and its mapping file don't share the same path prefix, but as the directories are named
-            // by dimension, we assume that the order of the output of both FindFileTasks here will be the same
-            //
-            // We use this assumption here to associate the individual mapping files with the discovered app files
+            return true;
+        }
+
+        // If there are multiple mapping files, this usually means that there is one per build variant;
+        // the folder structure will typically look like this for the app files and their mapping files:
+        //
+        // - build/outputs/apk/dimension_one/release/app-release.apk
+        // - build/outputs/apk/dimension_two/release/app-release.apk
+        // - build/outputs/mapping/dimension_oneRelease/mapping.txt
+        // - build/outputs/mapping/dimension_twoRelease/mapping.txt
+        //
+        // i.e. an app file and its mapping file don't share the same path prefix, but the directories are named
+        // by module and variant, so we index the mapping files by those, and look up each app file in the index
+        final GradleOutputIndex index = new GradleOutputIndex(relativeMappingPaths);
+        if (index.getUnindexedPaths().size() == relativeMappingPaths.size()
+                && relativeMappingPaths.size() == validFiles.size()) {
+            // None of the files are in Gradle's output directories, so fall back to associating them in order
+            logger.printf("The %s files are not in Gradle build variant directories, so they will be associated " +
+                    "with the AAB/APKs in the order in which they were found%n", mappingFileTypeName);
             for (int i = 0, n = validFiles.size(); i < n; i++) {
-                FilePath mappingFile = workspace.child(relativeMappingPaths.get(i));
-                validFiles.get(i).setMappingFile(mappingFile);
+                appFileAssigner.accept(validFiles.get(i), workspace.child(relativeMappingPaths.get(i)));
             }
-        } else {
-            // If, for some reason, the number of app files don't match, we won't deal with this situation
-            logger.printf("There are %d AAB/APKs to be uploaded, but %d %s files were found matching " +
-                            "the pattern '%s':%n",
+            return true;
+        }
+
+        final List<String> unmatchedAppFiles = new ArrayList<>();
+        for (UploadFile appFile : validFiles) {
+            final String appFilePath = getRelativeFileName(workspace, appFile.getFilePath());
+            final String mappingPath = index.findMatch(appFilePath);
+            if (mappingPath == null) {
+                unmatchedAppFiles.add(appFilePath);
+            } else {
+                appFileAssigner.accept(appFile, workspace.child(mappingPath));
+            }
+        }
+
+        // If any app file is missing its mapping file, we won't guess which one to use
+        if (!unmatchedAppFiles.isEmpty()) {
+            logger.printf("There are %d AAB/APKs to be uploaded, but not all of them could be associated with one " +
+                    "of the %d %s files found matching the pattern '%s':%n",
                     validFiles.size(), relativeMappingPaths.size(), mappingFileTypeName, mappingFilesPattern);
-            for (String path : relativePaths) {
-                logger.printf("- %s%n", path);
+            for (String path : unmatchedAppFiles) {
+                logger.printf("- No %s file for the build variant of: %s%n", mappingFileTypeName, path);
             }
-            for (String path : relativeMappingPaths) {
-                logger.printf("- %s%n", path);
+            for (String path : index.getAmbiguousPaths()) {
+                logger.printf("- Multiple %s files for the same build variant: %s%n", mappingFileTypeName, path);
+            }
+            for (String path : index.getUnindexedPaths()) {
+                logger.printf("- Not in a Gradle build variant directory: %s%n", path);
             }
             return false;
         }
+
+        // Let the user know if any of the files found won't be used
+        final List<String> unusedPaths = new ArrayList<>(index.getUnmatchedPaths());
+        unusedPaths.addAll(index.getAmbiguousPaths());
+        unusedPaths.addAll(index.getUnindexedPaths());
+        for (String path : unusedPaths) {
+            logger.printf("Ignoring %s file, as it doesn't belong to any of the AAB/APKs to be uploaded: %s%n",
+                    mappingFileTypeName, path);
+        }
         return true;
     }
 
@@ -741,8 +1351,9 @@ public class ApkPublisher extends GooglePlayPublisher {
 
             public FormValidation doCheckText(@QueryParameter String value) {
                 value = fixEmptyAndTrim(value);
-                if (value != null && value.length() > 500) {
-                    return FormValidation.error("Recent changes text must be 500 characters or fewer");
+                if (value != null && value.length() > MAX_RELEASE_NOTES_LENGTH) {
+                    return FormValidation.error(String.format("Recent changes text must be %d characters or fewer",
+                            MAX_RELEASE_NOTES_LENGTH));
                 }
                 return FormValidation.ok();
             }
@@ -755,6 +1366,7 @@ public class ApkPublisher extends GooglePlayPublisher {
     @Extension
     public static final class DescriptorImpl extends GooglePlayBuildStepDescriptor<Publisher> {
         public static final String defaultFilesPattern = "**/build/outputs/**/*.aab, **/build/outputs/**/*.apk";
+        public static final int defaultMaxParallelApplications = 4;
 
         public String getDisplayName() {
             return "Upload Android AAB/APKs to Google Play";
@@ -1,7 +1,5 @@
 package org.jenkinsci.plugins.googleplayandroidpublisher;
 
-import com.google.api.client.googleapis.json.GoogleJsonResponseException;
-import com.google.api.client.http.FileContent;
 import com.google.api.services.androidpublisher.model.Apk;
 import com.google.api.services.androidpublisher.model.Bundle;
 import com.google.api.services.androidpublisher.model.ExpansionFile;
@@ -11,22 +9,28 @@ import com.google.api.services.androidpublisher.model.Track;
 import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
 import hudson.FilePath;
 import hudson.model.TaskListener;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AppFileFormat;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.UploadFile;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import static hudson.Functions.humanReadableByteSize;
 import static hudson.Util.join;
@@ -36,9 +40,10 @@ import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.DEOBFUS
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.DEOBFUSCATION_FILE_TYPE_PROGUARD;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.OBB_FILE_TYPE_MAIN;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.OBB_FILE_TYPE_PATCH;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.ExistingAppFiles.FIELDS_TRACK_NAMES;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getRelativeFileName;
 
-class ApkUploadTask extends TrackPublisherTask<Boolean> {
+class ApkUploadTask extends TrackPublisherTask {
 
     private final FilePath workspace;
     private final List<UploadFile> appFilesToUpload;
@@ -49,12 +54,20 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
     private final List<Long> existingVersionCodes;
     private long latestMainExpansionFileVersionCode;
     private long latestPatchExpansionFileVersionCode;
+    private final Map<String, Long> knownExpansionFiles;
+    private final Set<Long> versionCodesWithNewExpansionFiles = new HashSet<>();
+    private final ExpansionFileRecord.Recorder expansionFileRecorder;
+    private final AppFileCache.Recorder appFileRecorder;
+    private final boolean deferDeobfuscationFileUploads;
+    private final long uploadStallTimeoutMillis = MonitoredUpload.getStallTimeoutMillis();
 
     // TODO: Could be renamed
     ApkUploadTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId,
                   FilePath workspace, List<UploadFile> appFilesToUpload, Map<Long, ExpansionFileSet> expansionFiles,
                   boolean usePreviousExpansionFilesIfMissing, String trackName, String releaseName, double rolloutPercentage,
-                  ApkPublisher.RecentChanges[] recentChangeList, Integer inAppUpdatePriority, List<Long> additionalVersionCodes) {
+                  ApkPublisher.RecentChanges[] recentChangeList, Integer inAppUpdatePriority, List<Long> additionalVersionCodes,
+                  Map<String, Long> knownExpansionFiles, @Nullable ExpansionFileRecord.Recorder expansionFileRecorder,
+                  boolean deferDeobfuscationFileUploads, @Nullable AppFileCache.Recorder appFileRecorder) {
         super(listener, credentials, applicationId, trackName, releaseName, rolloutPercentage, inAppUpdatePriority);
         this.workspace = workspace;
         this.appFilesToUpload = appFilesToUpload;
@@ -63,9 +76,14 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
         this.recentChangeList = recentChangeList;
         this.additionalVersionCodes = additionalVersionCodes;
         this.existingVersionCodes = new ArrayList<>();
+        this.knownExpansionFiles = new HashMap<>(knownExpansionFiles);
+        this.expansionFileRecorder = expansionFileRecorder;
+        this.deferDeobfuscationFileUploads = deferDeobfuscationFileUploads;
+        this.appFileRecorder = appFileRecorder;
     }
 
-    protected Boolean execute() throws IOException, InterruptedException {
+    @Override
+    boolean prepareRelease() throws IOException, InterruptedException {
         // Open an edit via the Google Play API, thereby ensuring that our credentials etc. are working
         logger.println(String.format("Authenticating to Google Play API...%n" +
                         "- Credential:     %s%n" +
@@ -74,42 +92,23 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
 
         // Before doing anything else, verify that the desired track exists
         // TODO: Refactor this and the weird class hierarchy
-        List<Track> tracks = editService.tracks().list(applicationId, editId).execute().getTracks();
-        String canonicalTrackName = tracks.stream()
-            .filter(it -> it.getTrack().equalsIgnoreCase(trackName))
-            .map(Track::getTrack)
-            .findFirst()
-            .orElse(null);
-        if (canonicalTrackName == null) {
-            // If you ask Google Play for the list of tracks, it won't include any which don't yet have a release…
-            // TODO: I don't yet know whether Google Play also ignores built-in tracks, if they have no releases;
-            //       but we can make things a little bit smoother by avoiding doing this check for built-in track names,
-            //       and ensuring we use the lowercase track name for those
-            String msgFormat = "Release track '%s' could not be found on Google Play%n" +
-                "- This may be because this track does not yet have any releases, so we will continue… %n" +
-                "- Note: Custom track names are case-sensitive; double-check your configuration, if this build fails%n";
-            logger.println(String.format(msgFormat, trackName));
-        } else {
-            // Track names are case-sensitive, so override the user-provided value from the job config
-            trackName = canonicalTrackName;
+        // Meanwhile, start fetching information about the app files that already exist on Google Play
+        final CompletableFuture<ExistingAppFiles> existingAppFilesFuture =
+                ExistingAppFiles.fetchAsync(editService, applicationId, editId);
+        try {
+            List<Track> tracks = ExistingAppFiles.listTracks(editService, applicationId, editId, FIELDS_TRACK_NAMES);
+            applyCanonicalTrackName(tracks);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            existingAppFilesFuture.cancel(true);
+            throw e;
         }
-
-        // Fetch information about the app files that already exist on Google Play
-        Set<String> existingAppFileHashes = new HashSet<>();
-        List<Bundle> existingBundles = editService.bundles().list(applicationId, editId).execute().getBundles();
-        if (existingBundles != null) {
-            for (Bundle bundle : existingBundles) {
-                existingVersionCodes.add((long) bundle.getVersionCode());
-                existingAppFileHashes.add(bundle.getSha1());
-            }
-        }
-        List<Apk> existingApks = editService.apks().list(applicationId, editId).execute().getApks();
-        if (existingApks != null) {
-            for (Apk apk : existingApks) {
-                existingVersionCodes.add((long) apk.getVersionCode());
-                existingAppFileHashes.add(apk.getBinary().getSha1());
-            }
+        final ExistingAppFiles existingAppFiles = AsyncPublisherClient.await(existingAppFilesFuture);
+        recordExistingAppFiles(appFileRecorder, existingAppFiles);
+        for (long versionCode : existingAppFiles.getVersionCodes()) {
+            existingVersionCodes.add(versionCode);
         }
+        logger.printf("Found %d existing app file(s) on Google Play (%s received)%n%n",
+                existingVersionCodes.size(), humanReadableByteSize(existingAppFiles.getResponseBytes()));
 
         // Upload each of the files
         logger.printf("Uploading %d file(s) with application ID: %s%n%n", appFilesToUpload.size(), applicationId);
@@ -123,30 +122,30 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
             logger.printf("       SHA-1 hash: %s%n", appFile.getSha1Hash());
             logger.printf("      versionCode: %d%n", appFile.getVersionCode());
             logger.printf("      versionName: %s%n", appFile.getVersionName());
-            logger.printf("    minSdkVersion: %s%n", appFile.getMinSdkVersion());
+            if (appFile.getMinSdkVersion() != null) {
+                logger.printf("    minSdkVersion: %s%n", appFile.getMinSdkVersion());
+            }
 
             // Check whether this file already exists on the server (i.e. uploading it would fail)
-            for (String hash : existingAppFileHashes) {
-                if (hash.toLowerCase(Locale.ROOT).equals(appFile.getSha1Hash())) {
-                    logger.printf(" %n");
-                    logger.println("This file already exists in the Google Play account; it cannot be uploaded again");
-                    return false;
-                }
+            if (existingAppFiles.containsHash(appFile.getSha1Hash())) {
+                logger.printf(" %n");
+                logger.println("This file already exists in the Google Play account; it cannot be uploaded again");
+                return false;
             }
 
             // If not, we can upload the file
             File fileToUpload = new File(appFile.getFilePath().getRemote());
-            FileContent fileContent = new FileContent("application/octet-stream", fileToUpload);
             final long uploadedVersionCode;
             if (fileFormat == AppFileFormat.BUNDLE) {
-                Bundle uploadedBundle = editService.bundles().upload(applicationId, editId, fileContent)
-                        // Prevent Google Play error when uploading large bundles
-                        .setAckBundleInstallationWarning(true)
-                        .execute();
+                Bundle uploadedBundle = executeUpload(fileToUpload, content ->
+                        editService.bundles().upload(applicationId, editId, content)
+                                // Prevent Google Play error when uploading large bundles
+                                .setAckBundleInstallationWarning(true));
                 uploadedVersionCode = uploadedBundle.getVersionCode();
                 uploadedVersionCodes.add(uploadedVersionCode);
             } else {
-                Apk uploadedApk = editService.apks().upload(applicationId, editId, fileContent).execute();
+                Apk uploadedApk = executeUpload(fileToUpload, content ->
+                        editService.apks().upload(applicationId, editId, content));
                 uploadedVersionCode = uploadedApk.getVersionCode();
                 uploadedVersionCodes.add(uploadedVersionCode);
             }
@@ -188,9 +187,6 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
         assignAppFilesToTrack(
             trackName, rolloutFraction, uploadedVersionCodes, inAppUpdatePriority, expandedReleaseName, releaseNotes
         );
-
-        // Commit the changes, which will throw an exception if there is a problem
-        commit();
         return true;
     }
 
@@ -205,16 +201,24 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
         final String relativeFileName = getRelativeFileName(workspace, mappingFile);
         if (mappingFile.length() == 0) {
             logger.printf(" Ignoring empty %s file: %s%n", mappingFileTypeName, relativeFileName);
+        } else if (deferDeobfuscationFileUploads) {
+            logger.printf(" %16s: %s (to be uploaded once the release has been applied)%n", mappingFileTypeName,
+                    relativeFileName);
         } else {
             logger.printf(" %16s: %s%n", mappingFileTypeName, relativeFileName);
-            FileContent mapping = new FileContent("application/octet-stream", new File(mappingFile.getRemote()));
-            editService.deobfuscationfiles().upload(applicationId, editId, Math.toIntExact(versionCode),
-                    mappingFileTypeId, mapping).execute();
+            executeUpload(new File(mappingFile.getRemote()), content -> editService.deobfuscationfiles()
+                    .upload(applicationId, editId, Math.toIntExact(versionCode), mappingFileTypeId, content));
         }
     }
 
+    /** Uploads a file, logging its progress, and restarting the upload if it stalls. */
+    private <T> T executeUpload(File file, MonitoredUpload.RequestFactory<T> requestFactory)
+            throws IOException, InterruptedException {
+        return MonitoredUpload.execute(logger, file, uploadStallTimeoutMillis, requestFactory);
+    }
+
     /** Applies the appropriate expansion file to each given APK version. */
-    private void handleExpansionFiles(Collection<Long> uploadedVersionCodes) throws IOException {
+    private void handleExpansionFiles(Collection<Long> uploadedVersionCodes) throws IOException, InterruptedException {
         // Ensure that the version codes are sorted in ascending order, as this allows us to
         // upload an expansion file with the lowest version, and re-use it for subsequent APKs
         SortedSet<Long> sortedVersionCodes = new TreeSet<>(uploadedVersionCodes);
@@ -224,26 +228,49 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
             fetchLatestExpansionFileVersionCodes();
         }
 
-        // Upload or apply the expansion files for each APK we've uploaded
+        // Upload or apply the expansion files for each APK we've uploaded; uploads happen immediately, while
+        // references to existing expansion files are collected, and sent together once all uploads are done
+        final RequestBatch referenceUpdates = new RequestBatch();
         for (long versionCode : sortedVersionCodes) {
             ExpansionFileSet fileSet = expansionFiles.get(versionCode);
             FilePath mainFile = fileSet == null ? null : fileSet.getMainFile();
             FilePath patchFile = fileSet == null ? null : fileSet.getPatchFile();
 
             logger.println(String.format("Handling expansion files for versionCode %d", versionCode));
-            applyExpansionFile(versionCode, OBB_FILE_TYPE_MAIN, mainFile, usePreviousExpansionFilesIfMissing);
-            applyExpansionFile(versionCode, OBB_FILE_TYPE_PATCH, patchFile, usePreviousExpansionFilesIfMissing);
+            applyExpansionFile(versionCode, OBB_FILE_TYPE_MAIN, mainFile, usePreviousExpansionFilesIfMissing,
+                    referenceUpdates);
+            applyExpansionFile(versionCode, OBB_FILE_TYPE_PATCH, patchFile, usePreviousExpansionFilesIfMissing,
+                    referenceUpdates);
             logger.printf(" %n");
         }
+        referenceUpdates.execute();
     }
 
     /** Applies an expansion file to an APK, whether from a given file, or by using previously-uploaded file. */
-    private void applyExpansionFile(long versionCode, String type, FilePath filePath, boolean usePreviousIfMissing)
-            throws IOException {
-        // If there was a file provided, simply upload it
+    private void applyExpansionFile(long versionCode, String type, FilePath filePath, boolean usePreviousIfMissing,
+                                    RequestBatch referenceUpdates) throws IOException, InterruptedException {
+        // If there was a file provided, upload it, unless an identical file has been uploaded before
         if (filePath != null) {
+            final File file = new File(filePath.getRemote());
+            final String key;
+            try (FileInputStream content = new FileInputStream(file)) {
+                key = ExpansionFileRecord.getKey(type, DigestUtils.sha256Hex(content), file.length());
+            }
+            final Long identicalVersionCode = knownExpansionFiles.get(key);
+            if (identicalVersionCode != null && (existingVersionCodes.contains(identicalVersionCode)
+                    || versionCodesWithNewExpansionFiles.contains(identicalVersionCode))) {
+                logger.println(String.format("- Applying identical %s expansion file from APK %d instead of " +
+                        "uploading: %s", type, identicalVersionCode, filePath.getName()));
+                ExpansionFile fileRef = new ExpansionFile().setReferencesVersion(Math.toIntExact(identicalVersionCode));
+                referenceUpdates.queue(editService.expansionfiles()
+                        .update(applicationId, editId, Math.toIntExact(versionCode), type, fileRef));
+                setLatestExpansionFileVersionCode(type, identicalVersionCode);
+                return;
+            }
+
             logger.println(String.format("- Uploading new %s expansion file: %s", type, filePath.getName()));
             uploadExpansionFile(versionCode, type, filePath);
+            recordExpansionFileUpload(key, versionCode);
             return;
         }
 
@@ -262,7 +289,8 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
             logger.println(String.format("- Applying %s expansion file from previous APK: %d", type,
                     latestVersionCodeWithExpansion));
             ExpansionFile fileRef = new ExpansionFile().setReferencesVersion(Math.toIntExact(latestVersionCodeWithExpansion));
-            editService.expansionfiles().update(applicationId, editId, Math.toIntExact(versionCode), type, fileRef).execute();
+            referenceUpdates.queue(editService.expansionfiles()
+                    .update(applicationId, editId, Math.toIntExact(versionCode), type, fileRef));
             return;
         }
 
@@ -271,24 +299,62 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
     }
 
     /** Determines whether there are already-existing APKs for this app which have expansion files associated. */
-    private void fetchLatestExpansionFileVersionCodes() throws IOException {
-        // Find the latest APK with a main expansion file, and the latest with a patch expansion file
-        latestMainExpansionFileVersionCode = fetchLatestExpansionFileVersionCode(OBB_FILE_TYPE_MAIN);
-        latestPatchExpansionFileVersionCode = fetchLatestExpansionFileVersionCode(OBB_FILE_TYPE_PATCH);
+    private void fetchLatestExpansionFileVersionCodes() throws IOException, InterruptedException {
+        latestMainExpansionFileVersionCode = -1;
+        latestPatchExpansionFileVersionCode = -1;
+
+        // Find the latest APK with a main expansion file, and the latest with a patch expansion file,
+        // i.e. check the version codes in descending order
+        final List<Long> newestVersionCodes = existingVersionCodes.stream()
+                .distinct()
+                .sorted(Comparator.reverseOrder())
+                .collect(Collectors.toList());
+
+        // Look up both types of expansion file for a number of APKs at once, until we've found each type
+        final int chunkSize = RequestBatch.MAX_REQUESTS_PER_BATCH / 2;
+        for (int i = 0, n = newestVersionCodes.size(); i < n; i += chunkSize) {
+            final boolean needsMain = latestMainExpansionFileVersionCode == -1;
+            final boolean needsPatch = latestPatchExpansionFileVersionCode == -1;
+            if (!needsMain && !needsPatch) {
+                break;
+            }
+
+            final RequestBatch batch = new RequestBatch();
+            final Map<Long, RequestBatch.Item<ExpansionFile>> mainFiles = new LinkedHashMap<>();
+            final Map<Long, RequestBatch.Item<ExpansionFile>> patchFiles = new LinkedHashMap<>();
+            for (long versionCode : newestVersionCodes.subList(i, Math.min(i + chunkSize, n))) {
+                if (needsMain) {
+                    mainFiles.put(versionCode, batch.queueAllowingNotFound(editService.expansionfiles()
+                            .get(applicationId, editId, Math.toIntExact(versionCode), OBB_FILE_TYPE_MAIN)));
+                }
+                if (needsPatch) {
+                    patchFiles.put(versionCode, batch.queueAllowingNotFound(editService.expansionfiles()
+                            .get(applicationId, editId, Math.toIntExact(versionCode), OBB_FILE_TYPE_PATCH)));
+                }
+            }
+            batch.execute();
+
+            if (needsMain) {
+                latestMainExpansionFileVersionCode = findLatestExpansionFileVersionCode(mainFiles);
+            }
+            if (needsPatch) {
+                latestPatchExpansionFileVersionCode = findLatestExpansionFileVersionCode(patchFiles);
+            }
+        }
     }
 
-    /** @return The version code of the newest APK which has an expansion file of this type, else {@code -1}. */
-    private long fetchLatestExpansionFileVersionCode(String type) throws IOException {
-        // Find the latest APK with an expansion file, i.e. sort version codes in descending order
-        SortedSet<Long> newestVersionCodes = new TreeSet<>((a, b) -> ((int) (b - a)));
-        newestVersionCodes.addAll(existingVersionCodes);
-        for (long versionCode : newestVersionCodes) {
-            ExpansionFile file = getExpansionFile(versionCode, type);
+    /**
+     * @param files The expansion file API info for each APK, if any, in descending version code order.
+     * @return The version code of the newest APK which has an expansion file of this type, else {@code -1}.
+     */
+    private static long findLatestExpansionFileVersionCode(Map<Long, RequestBatch.Item<ExpansionFile>> files) {
+        for (Map.Entry<Long, RequestBatch.Item<ExpansionFile>> entry : files.entrySet()) {
+            ExpansionFile file = entry.getValue().get();
             if (file == null) {
                 continue;
             }
             if (file.getFileSize() != null && file.getFileSize() > 0) {
-                return versionCode;
+                return entry.getKey();
             }
             if (file.getReferencesVersion() != null && file.getReferencesVersion() > 0) {
                 return file.getReferencesVersion();
@@ -299,44 +365,49 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
         return -1;
     }
 
-    /** @return The expansion file API info for the given criteria, or {@code null} if no such file exists. */
-    private ExpansionFile getExpansionFile(long versionCode, String type) throws IOException {
-        try {
-            return editService.expansionfiles().get(applicationId, editId, Math.toIntExact(versionCode), type).execute();
-        } catch (GoogleJsonResponseException e) {
-            // A 404 response from the API means that there is no such expansion file/reference
-            if (e.getStatusCode() == 404) {
-                return null;
-            }
-            throw e;
-        }
-    }
-
     /**
      * Uploads the given file as an certain type expansion file, associating it with a given APK.
      *
      * @return The expansion file API response.
      */
     private ExpansionFilesUploadResponse uploadExpansionFile(long versionCode, String type, FilePath filePath)
-            throws IOException {
+            throws IOException, InterruptedException {
         // Upload the file
-        FileContent file = new FileContent("application/octet-stream", new File(filePath.getRemote()));
-        ExpansionFilesUploadResponse response = editService.expansionfiles()
-                .upload(applicationId, editId, Math.toIntExact(versionCode), type, file).execute();
+        ExpansionFilesUploadResponse response = executeUpload(new File(filePath.getRemote()), content -> editService
+                .expansionfiles().upload(applicationId, editId, Math.toIntExact(versionCode), type, content));
 
         // Keep track of the now-latest APK with an expansion file, so we can associate the
         // same expansion file with subsequent APKs that were uploaded in this session
+        setLatestExpansionFileVersionCode(type, versionCode);
+        versionCodesWithNewExpansionFiles.add(versionCode);
+
+        return response;
+    }
+
+    private void setLatestExpansionFileVersionCode(String type, long versionCode) {
         if (type.equals(OBB_FILE_TYPE_MAIN)) {
             latestMainExpansionFileVersionCode = versionCode;
         } else {
             latestPatchExpansionFileVersionCode = versionCode;
         }
+    }
 
-        return response;
+    /** Remembers the uploaded file, so that identical files in this or future builds can refer to it. */
+    private void recordExpansionFileUpload(String key, long versionCode) {
+        knownExpansionFiles.put(key, versionCode);
+        if (expansionFileRecorder == null) {
+            return;
+        }
+        try {
+            expansionFileRecorder.recordUpload(key, versionCode);
+        } catch (RuntimeException e) {
+            // This only means that a future build may upload the same file again
+            logger.println(String.format("- Failed to record the uploaded expansion file: %s", e.getMessage()));
+        }
     }
 
     @Nullable
-    private static String expandReleaseName(@Nullable String releaseName, @Nonnull List<UploadFile> appFilesToUpload) {
+    static String expandReleaseName(@Nullable String releaseName, @Nonnull List<UploadFile> appFilesToUpload) {
         if (releaseName == null) {
             return null;
         }
@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the version codes and SHA-1 hashes of the app files which builds have seen on Google Play, per application.
+ * <p>
+ * Google Play doesn't allow app files to be deleted once they've been uploaded, so an entry here never becomes wrong;
+ * it can only be incomplete. That means it can be used to reject duplicate uploads, or to confirm that version codes
+ * exist, before opening an edit or uploading anything, but not to conclude that a file <em>doesn't</em> exist.
+ * <p>
+ * The cache is kept in memory on the Jenkins controller, for a limited number of the most recently used applications.
+ */
+final class AppFileCache {
+
+    /** How many applications to remember; the least recently used are forgotten first. */
+    private static final int MAX_APPLICATIONS = 32;
+
+    private static final AppFileCache INSTANCE = new AppFileCache();
+
+    /** The SHA-1 hash of each known app file, by version code, by application ID. */
+    private final Map<String, Map<Long, String>> filesByApplicationId =
+            new LinkedHashMap<String, Map<Long, String>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<Long, String>> eldest) {
+                    return size() > MAX_APPLICATIONS;
+                }
+            };
+
+    private AppFileCache() {
+        // Singleton
+    }
+
+    static AppFileCache get() {
+        return INSTANCE;
+    }
+
+    /** Makes sure that app files seen by a previous Jenkins instance in this JVM aren't used, e.g. when testing. */
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    @SuppressWarnings("unused")
+    public static void onStartup() {
+        INSTANCE.clear();
+    }
+
+    /** Forgets all of the known app files. */
+    synchronized void clear() {
+        filesByApplicationId.clear();
+    }
+
+    /** @return Whether any app files are known for the given application. */
+    synchronized boolean contains(String applicationId) {
+        return filesByApplicationId.containsKey(applicationId);
+    }
+
+    /** @return The version codes known to exist for the given application. */
+    synchronized Set<Long> getVersionCodes(String applicationId) {
+        final Map<Long, String> files = filesByApplicationId.get(applicationId);
+        return files == null ? Collections.emptySet() : new HashSet<>(files.keySet());
+    }
+
+    /** @return The version code of the known app file with the given SHA-1 hash, or {@code null} if not known. */
+    synchronized Long findVersionCode(String applicationId, String sha1) {
+        final Map<Long, String> files = filesByApplicationId.get(applicationId);
+        if (files == null) {
+            return null;
+        }
+        for (Map.Entry<Long, String> entry : files.entrySet()) {
+            if (sha1.equals(entry.getValue())) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /** @return A recorder which adds entries for the given application; this may be exported to a build agent. */
+    Recorder createRecorder(String applicationId) {
+        return (versionCodes, sha1Hashes) -> record(applicationId, versionCodes, sha1Hashes);
+    }
+
+    private synchronized void record(String applicationId, long[] versionCodes, String[] sha1Hashes) {
+        final Map<Long, String> files = filesByApplicationId.computeIfAbsent(applicationId, it -> new HashMap<>());
+        for (int i = 0; i < versionCodes.length; i++) {
+            files.put(versionCodes[i], sha1Hashes[i]);
+        }
+    }
+
+    /** Records the app files which exist on Google Play; calls from a build agent are sent to the controller. */
+    public interface Recorder {
+        /** @param sha1Hashes The lowercase hex SHA-1 hash of the file with the version code at the same index. */
+        void recordAppFiles(long[] versionCodes, String[] sha1Hashes);
+    }
+
+}
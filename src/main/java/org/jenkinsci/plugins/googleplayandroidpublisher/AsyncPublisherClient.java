@@ -0,0 +1,256 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes Google Play API requests — whether for edits or Internal App Sharing — asynchronously, so that independent
+ * requests can overlap, with a uniform policy for retries and timeouts.
+ * <p>
+ * Requests which the caller would only wait for straight away should be sent via {@link #executeBlocking} instead,
+ * which applies the same retry policy on the calling thread.
+ * <p>
+ * Requests are run on a bounded pool of threads shared by all tasks running in this JVM. Only individual API requests
+ * should be run via this class; work which itself waits for requests to complete must not, as it could otherwise
+ * starve the pool.
+ * <p>
+ * File uploads run on a separate, unbounded pool instead, since an upload which is abandoned after stalling may keep
+ * its thread blocked on the connection until the HTTP read timeout expires, and it must not hold up other requests.
+ */
+final class AsyncPublisherClient {
+
+    private static final Logger LOGGER = Logger.getLogger(AsyncPublisherClient.class.getName());
+
+    /** The maximum number of requests which may be running at once in this JVM. */
+    static final int MAX_CONCURRENT_REQUESTS = 16;
+
+    /** How often a request which failed due to a temporary server or network error will be attempted in total. */
+    static final int MAX_ATTEMPTS = 3;
+
+    /** How long to wait before retrying a failed request for the first time; this doubles for each further attempt. */
+    private static final long INITIAL_RETRY_DELAY_MILLIS = 1000;
+
+    /** How long a request, other than a file upload, may take before it's abandoned. */
+    private static final long REQUEST_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final ExecutorService EXECUTOR =
+            newExecutor("GooglePlayPublisher.AsyncPublisherClient", MAX_CONCURRENT_REQUESTS);
+
+    private static final ExecutorService UPLOADS =
+            Executors.newCachedThreadPool(newThreadFactory("GooglePlayPublisher.AsyncPublisherClient.upload"));
+
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "GooglePlayPublisher.AsyncPublisherClient.timeout"));
+
+    private AsyncPublisherClient() {
+        // Static utility class
+    }
+
+    /**
+     * Starts executing the given request in the background.
+     * <p>
+     * Cancelling the returned future will interrupt the request, if it's still running.
+     */
+    static <T> CompletableFuture<T> execute(AbstractGoogleClientRequest<T> request) {
+        return submit(request, request::execute);
+    }
+
+    /**
+     * Executes the given request on the calling thread, retrying if a temporary error occurs.
+     * <p>
+     * Unlike requests started via {@link #execute}, this isn't limited by the request timeout, as with any other
+     * synchronous request.
+     */
+    static <T> T executeBlocking(AbstractGoogleClientRequest<T> request) throws IOException, InterruptedException {
+        return executeWithRetries(request, request::execute);
+    }
+
+    /**
+     * Starts executing the given request in the background, without parsing the response into a model object.
+     *
+     * @param reader Reads the result from the raw response; the response will be disconnected afterwards.
+     */
+    static <T> CompletableFuture<T> executeUnparsed(AbstractGoogleClientRequest<?> request,
+                                                    ResponseReader<T> reader) {
+        return submit(request, () -> {
+            HttpResponse response = request.executeUnparsed();
+            try {
+                return reader.read(response);
+            } finally {
+                response.disconnect();
+            }
+        });
+    }
+
+    private static <T> CompletableFuture<T> submit(AbstractGoogleClientRequest<?> request, RequestCall<T> call) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final Future<?> running = (isUpload(request) ? UPLOADS : EXECUTOR).submit(() -> {
+            try {
+                result.complete(executeWithRetries(request, call));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        // Uploads can legitimately take a long time, and are already limited by the HTTP read timeout
+        final ScheduledFuture<?> timeout = isUpload(request) ? null : TIMEOUTS.schedule(() -> {
+            result.completeExceptionally(new TimeoutException(String.format("Google Play API request timed out " +
+                    "after %d seconds", TimeUnit.MILLISECONDS.toSeconds(REQUEST_TIMEOUT_MILLIS))));
+        }, REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        // Once the result is known, there's no need to continue, whether the request was cancelled or timed out
+        result.whenComplete((value, error) -> {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            if (error != null) {
+                running.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Waits for the given request to complete, passing on any exception thrown by the request itself.
+     * <p>
+     * If the calling thread is interrupted, e.g. because the build was aborted, the request will be cancelled.
+     */
+    static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("Google Play API request was cancelled");
+        }
+    }
+
+    /**
+     * Waits up to the given time for the given request to complete, as with {@link #await(CompletableFuture)}.
+     *
+     * @throws TimeoutException If the request is still running; it will not be cancelled.
+     */
+    static <T> T await(CompletableFuture<T> future, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException, TimeoutException {
+        try {
+            return future.get(timeout, unit);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("Google Play API request was cancelled");
+        }
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /** Executes the given request on the calling thread, retrying if a temporary error occurs. */
+    private static <T> T executeWithRetries(AbstractGoogleClientRequest<?> request, RequestCall<T> call)
+            throws IOException, InterruptedException {
+        long delayMillis = INITIAL_RETRY_DELAY_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.call();
+            } catch (IOException e) {
+                if (attempt == MAX_ATTEMPTS || !isRetryable(request, e) || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                LOGGER.log(Level.FINE, String.format("Retrying %s %s after attempt %d failed",
+                        request.getRequestMethod(), request.getUriTemplate(), attempt), e);
+            }
+            Thread.sleep(delayMillis);
+            delayMillis *= 2;
+        }
+    }
+
+    /** @return Whether the given request failed temporarily, and it's safe to send it again. */
+    private static boolean isRetryable(AbstractGoogleClientRequest<?> request, IOException e) {
+        // Only requests which have no further effect when repeated can be retried; uploads are resumed by the client
+        final String method = request.getRequestMethod();
+        if (isUpload(request) || !("GET".equals(method) || "PUT".equals(method) || "DELETE".equals(method))) {
+            return false;
+        }
+        if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+            return false;
+        }
+        if (e instanceof HttpResponseException) {
+            final int status = ((HttpResponseException) e).getStatusCode();
+            return status == 429 || status >= 500;
+        }
+        // Otherwise it was a network error
+        return true;
+    }
+
+    private static boolean isUpload(AbstractGoogleClientRequest<?> request) {
+        return request.getMediaHttpUploader() != null;
+    }
+
+    /**
+     * Creates a bounded pool of daemon threads, using virtual threads if the Java runtime supports them.
+     *
+     * @param name The prefix for the names of the threads.
+     * @param maxThreads How many tasks may run in parallel.
+     */
+    static ExecutorService newExecutor(String name, int maxThreads) {
+        return Executors.newFixedThreadPool(maxThreads, newThreadFactory(name));
+    }
+
+    private static ThreadFactory newThreadFactory(String name) {
+        // Virtual threads were added in Java 21, so they can only be accessed via reflection here
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Method setName = builderClass.getMethod("name", String.class, long.class);
+            final Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(setName.invoke(builder, name + "-", 0L));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Otherwise fall back to platform threads
+            return new NamingThreadFactory(new DaemonThreadFactory(), name);
+        }
+    }
+
+    /** Reads the result of a request from its raw HTTP response. */
+    interface ResponseReader<T> {
+        T read(HttpResponse response) throws IOException;
+    }
+
+    private interface RequestCall<T> {
+        T call() throws IOException;
+    }
+
+}
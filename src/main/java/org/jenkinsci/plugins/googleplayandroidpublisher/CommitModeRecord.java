@@ -0,0 +1,133 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.remoting.VirtualChannel;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers, per application, whether recent commits needed the changes not to be sent for review, so that the next
+ * commit can be attempted in the mode which is likely to be accepted first, saving a rejected commit request.
+ * <p>
+ * Google Play rejects a commit which would send changes for review if the app requires them to be submitted manually,
+ * e.g. because a previous update was rejected, and that state tends to last for many commits. However, committing
+ * without sending changes for review also succeeds when it's not required, leaving the changes unsent. So that mode is
+ * only predicted once several consecutive commits have needed it, and sending changes for review is tried again
+ * periodically, so that changes aren't left unsent for longer than necessary once the app's state changes.
+ * <p>
+ * The record is kept in memory on the Jenkins controller, for a limited number of the most recently used applications.
+ */
+final class CommitModeRecord {
+
+    /** How many applications to remember; the least recently used are forgotten first. */
+    private static final int MAX_APPLICATIONS = 32;
+
+    /** How many of the most recent commits to include when reporting how often the prediction was right. */
+    private static final int MAX_COMMITS = 10;
+
+    /** How many consecutive commits must have needed manual review before that's predicted for the next commit. */
+    static final int MIN_CONSECUTIVE_MANUAL_REVIEWS = 3;
+
+    /** After every this many consecutive commits needing manual review, the next commit tries sending for review. */
+    static final int RECHECK_INTERVAL = 10;
+
+    private static final CommitModeRecord INSTANCE = new CommitModeRecord();
+
+    /** What's known about recent commits, by application ID. */
+    private final Map<String, Entry> entriesByApplicationId =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_APPLICATIONS;
+                }
+            };
+
+    private CommitModeRecord() {
+        // Singleton
+    }
+
+    static CommitModeRecord get() {
+        return INSTANCE;
+    }
+
+    /** Makes sure that commits made by a previous Jenkins instance in this JVM aren't used, e.g. when testing. */
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    @SuppressWarnings("unused")
+    public static void onStartup() {
+        INSTANCE.clear();
+    }
+
+    /**
+     * @param applicationId The application whose edits will be committed.
+     * @param channel The channel to the agent on which the task will run, or {@code null} if it runs on the controller.
+     * @return A way to predict the commit mode for the given application, and to record the actual outcome.
+     */
+    Recorder createRecorder(String applicationId, @Nullable VirtualChannel channel) {
+        final Recorder recorder = new Recorder() {
+            @Override
+            public boolean isChangesNotSentForReviewPredicted() {
+                return predict(applicationId);
+            }
+
+            @Override
+            public String recordCommit(boolean changesNotSentForReview, boolean isPredicted) {
+                return record(applicationId, changesNotSentForReview, isPredicted);
+            }
+        };
+        return channel == null ? recorder : channel.export(Recorder.class, recorder);
+    }
+
+    /** Forgets everything known about recent commits. */
+    synchronized void clear() {
+        entriesByApplicationId.clear();
+    }
+
+    private synchronized boolean predict(String applicationId) {
+        final Entry entry = entriesByApplicationId.get(applicationId);
+        if (entry == null) {
+            return false;
+        }
+        final int consecutive = entry.consecutiveNotSentForReview;
+        return consecutive >= MIN_CONSECUTIVE_MANUAL_REVIEWS && consecutive % RECHECK_INTERVAL != 0;
+    }
+
+    private synchronized String record(String applicationId, boolean changesNotSentForReview, boolean isPredicted) {
+        final Entry entry = entriesByApplicationId.computeIfAbsent(applicationId, it -> new Entry());
+        entry.consecutiveNotSentForReview = changesNotSentForReview ? entry.consecutiveNotSentForReview + 1 : 0;
+        entry.predictions.addLast(isPredicted);
+        if (entry.predictions.size() > MAX_COMMITS) {
+            entry.predictions.removeFirst();
+        }
+
+        final long hits = entry.predictions.stream().filter(it -> it).count();
+        return String.format("Commit mode was predicted correctly for %d of the last %d commits of this application",
+                hits, entry.predictions.size());
+    }
+
+    private static final class Entry {
+        /** How many of the most recent commits in a row were made without sending the changes for review. */
+        int consecutiveNotSentForReview;
+
+        /** Whether the commit mode was predicted correctly for each recent commit, oldest first. */
+        final Deque<Boolean> predictions = new ArrayDeque<>();
+    }
+
+    /** Predicts and records the outcome of commits; calls from a build agent are sent to the controller. */
+    public interface Recorder {
+        /** @return Whether the next commit should first be attempted without sending the changes for review. */
+        boolean isChangesNotSentForReviewPredicted();
+
+        /**
+         * @param changesNotSentForReview Whether the commit succeeded without sending the changes for review.
+         * @param isPredicted Whether the commit succeeded in the mode which was attempted first.
+         * @return A summary of how often the commit mode was predicted correctly for recent commits.
+         */
+        String recordCommit(boolean changesNotSentForReview, boolean isPredicted);
+    }
+
+}
@@ -24,6 +24,9 @@ public class Constants {
     /** Expansion file type: patch */
     static final String OBB_FILE_TYPE_PATCH = "patch";
 
+    /** The maximum length of the release notes for each language. */
+    static final int MAX_RELEASE_NOTES_LENGTH = 500;
+
     /** Formatter that only displays decimal places when necessary. */
     static final DecimalFormat PERCENTAGE_FORMATTER = new DecimalFormat("#.####");
 
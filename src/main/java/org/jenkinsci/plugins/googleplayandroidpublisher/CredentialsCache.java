@@ -0,0 +1,162 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import org.acegisecurity.Authentication;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers which Google Play credential each ID refers to, for a given item and authentication, so that resolving a
+ * credential doesn't require looking up and searching through every credential visible to the item each time.
+ * <p>
+ * The cache is cleared whenever any configuration is saved, as that includes changes to credentials stored globally,
+ * in folders, or per-user. Entries also expire after a while, in case credentials are provided from elsewhere.
+ */
+final class CredentialsCache {
+
+    private static final Logger LOGGER = Logger.getLogger(CredentialsCache.class.getName());
+
+    /** How long an entry may be used before the credentials are looked up again, even if nothing has been saved. */
+    private static final long MAX_AGE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    /** How many entries to keep; if this is exceeded, the cache is simply cleared. */
+    private static final int MAX_ENTRIES = 1000;
+
+    private static final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private CredentialsCache() {
+    }
+
+    /**
+     * @param id The credential ID.
+     * @param item The item which the credential is being resolved for.
+     * @param auth The authentication used to look up credentials for the item.
+     * @param lookup Finds the credential with the given ID if it's not cached, returning {@code null} if there is none;
+     *               this result is not cached.
+     * @return The credential with the given ID, or {@code null} if the item can't see such a credential.
+     */
+    @Nullable
+    static GoogleRobotCredentials get(String id, Item item, Authentication auth,
+                                      Supplier<GoogleRobotCredentials> lookup) {
+        final Key key = new Key(item.getFullName(), auth.getName(), id);
+        final Entry cached = entries.get(key);
+        final long now = System.nanoTime();
+        if (cached != null && now - cached.createdAt < MAX_AGE_NANOS) {
+            hits.incrementAndGet();
+            return cached.credentials;
+        }
+
+        misses.incrementAndGet();
+        final GoogleRobotCredentials credentials = lookup.get();
+        if (credentials == null) {
+            // Credentials can be added without anything being saved, so don't remember that this one was missing
+            entries.remove(key);
+            return null;
+        }
+        if (entries.size() >= MAX_ENTRIES) {
+            entries.clear();
+        }
+        entries.put(key, new Entry(credentials, now));
+        return credentials;
+    }
+
+    /** Forgets all cached credentials. */
+    static void invalidate() {
+        entries.clear();
+    }
+
+    /** @return The number of lookups answered from the cache, and those which weren't, plus the current size. */
+    static Map<String, Long> getStatistics() {
+        final Map<String, Long> stats = new HashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("entries", (long) entries.size());
+        return stats;
+    }
+
+    /** Clears the caches whenever configuration is saved, which includes credential stores. */
+    @Extension
+    public static final class InvalidationListener extends SaveableListener {
+        @Initializer(after = InitMilestone.PLUGINS_STARTED)
+        public static void onStartup() {
+            // Nothing from a previous Jenkins instance in the same JVM should be used, e.g. when testing
+            invalidate();
+            CredentialsValidationCache.invalidate();
+            TrackNameCache.invalidate();
+        }
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            // Build records are saved very frequently, and have nothing to do with credentials
+            if (o instanceof Run) {
+                return;
+            }
+            // Any credential's validity, or what it has access to, may also have changed
+            CredentialsValidationCache.invalidate();
+            TrackNameCache.invalidate();
+            if (entries.isEmpty()) {
+                return;
+            }
+            invalidate();
+            LOGGER.log(Level.FINE, "Cleared cached Google Play credentials after {0} was saved; statistics: {1}",
+                    new Object[] { file, getStatistics() });
+        }
+    }
+
+    private static final class Key {
+        private final String itemName;
+        private final String authName;
+        private final String credentialsId;
+
+        Key(String itemName, String authName, String credentialsId) {
+            this.itemName = itemName;
+            this.authName = authName;
+            this.credentialsId = credentialsId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return itemName.equals(other.itemName) && authName.equals(other.authName)
+                    && credentialsId.equals(other.credentialsId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(itemName, authName, credentialsId);
+        }
+    }
+
+    private static final class Entry {
+        private final GoogleRobotCredentials credentials;
+        private final long createdAt;
+
+        Entry(GoogleRobotCredentials credentials, long createdAt) {
+            this.credentials = credentials;
+            this.createdAt = createdAt;
+        }
+    }
+
+}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Supplier;
 
 import static hudson.Util.fixEmptyAndTrim;
 
@@ -89,19 +90,23 @@ public class CredentialsHandler {
         }
 
         // As per the Credentials Plugin docs: https://github.com/jenkinsci/credentials-plugin/blob/2f9bf725/docs/consumer.adoc#listing-available-credentials-matching-some-specific-set-of-criteria
-        Authentication auth = item instanceof Queue.Task ? Tasks.getAuthenticationOf((Queue.Task) item) : ACL.SYSTEM;
         return CredentialsProvider.lookupCredentials(
-            GoogleRobotCredentials.class, item, auth, ImmutableList.of(requirement)
+            GoogleRobotCredentials.class, item, getAuthentication(item), ImmutableList.of(requirement)
         );
     }
 
     /** @return The Google Play-compatible credentials matching the given ID, if any, visible to the given item. */
     @Nullable
-    private static GoogleRobotCredentials getById(String id, Item item) {
-        return getCredentials(item).stream()
+    static GoogleRobotCredentials getById(String id, Item item) {
+        final Supplier<GoogleRobotCredentials> lookup = () -> getCredentials(item).stream()
             .filter(it -> it.getId().equals(id))
             .findFirst()
             .orElse(null);
+        return item == null ? lookup.get() : CredentialsCache.get(id, item, getAuthentication(item), lookup);
+    }
+
+    private static Authentication getAuthentication(Item item) {
+        return item instanceof Queue.Task ? Tasks.getAuthenticationOf((Queue.Task) item) : ACL.SYSTEM;
     }
 
 }
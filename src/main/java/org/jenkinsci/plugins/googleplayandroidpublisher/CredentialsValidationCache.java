@@ -0,0 +1,148 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.model.Item;
+import hudson.util.FormValidation;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Validates Google Play credentials for configuration forms in the background, remembering the result for a while.
+ * <p>
+ * Loading a credential can involve contacting Google, so rather than doing that on the request thread each time the
+ * form is checked, each credential is validated once at a time, and the form shows that the check is in progress until
+ * the result is available.
+ */
+final class CredentialsValidationCache {
+
+    /** How long to remember that a credential is valid. */
+    private static final long VALID_TTL_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    /** How long to remember that a credential is invalid; this is shorter, as the user is probably fixing it. */
+    private static final long INVALID_TTL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /** How long to remember connectivity problems, which are likely to be short-lived. */
+    private static final long WARNING_TTL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /** How long a form check waits for a new validation, so that quick results are shown immediately. */
+    private static final long WAIT_MILLIS = 500;
+
+    /** How many entries to keep; if this is exceeded, the cache is simply cleared. */
+    private static final int MAX_ENTRIES = 500;
+
+    private static final ExecutorService EXECUTOR =
+            AsyncPublisherClient.newExecutor("GooglePlayPublisher.CredentialsValidation", 4);
+
+    private static final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    private CredentialsValidationCache() {
+    }
+
+    /**
+     * @return The result of validating the given credential for the given item, or a message saying that the check is
+     *         still in progress.
+     */
+    static FormValidation validate(Item item, String credentialsId) {
+        if (entries.size() >= MAX_ENTRIES) {
+            entries.clear();
+        }
+
+        // Start validating, unless the same credential is already being validated, or was validated recently
+        final Key key = new Key(item.getFullName(), credentialsId);
+        final long now = System.nanoTime();
+        final Entry entry = entries.compute(key, (k, existing) ->
+                existing != null && !existing.isExpired(now) ? existing : new Entry(item, credentialsId));
+
+        try {
+            return entry.result.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return FormValidation.ok("Checking the credential...");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return FormValidation.ok("Checking the credential...");
+        } catch (ExecutionException e) {
+            return FormValidation.error(e.getCause(), "Failed to check the credential");
+        }
+    }
+
+    /** Forgets all validation results, e.g. because credentials may have changed. */
+    static void invalidate() {
+        entries.clear();
+    }
+
+    private static FormValidation check(Item item, String credentialsId) {
+        try {
+            new CredentialsHandler(credentialsId).getServiceAccountCredentials(item);
+        } catch (EphemeralCredentialsException e) {
+            // Loading the credential (apparently) goes online, so we may get ephemeral connectivity problems
+            return FormValidation.warning(e.getMessage());
+        } catch (UploadException e) {
+            return FormValidation.error(e.getMessage());
+        }
+        return FormValidation.ok();
+    }
+
+    private static final class Entry {
+        private final CompletableFuture<FormValidation> result;
+        private volatile long completedAt;
+
+        Entry(Item item, String credentialsId) {
+            result = CompletableFuture.supplyAsync(() -> check(item, credentialsId), EXECUTOR);
+            result.whenComplete((validation, error) -> completedAt = System.nanoTime());
+        }
+
+        boolean isExpired(long now) {
+            final FormValidation validation = result.getNow(null);
+            if (validation == null) {
+                // Still running, or failed unexpectedly
+                return result.isDone();
+            }
+            final long ttl;
+            switch (validation.kind) {
+                case OK:
+                    ttl = VALID_TTL_NANOS;
+                    break;
+                case WARNING:
+                    ttl = WARNING_TTL_NANOS;
+                    break;
+                default:
+                    ttl = INVALID_TTL_NANOS;
+                    break;
+            }
+            // The completion time may not have been recorded quite yet
+            final long completed = completedAt;
+            return completed != 0 && now - completed >= ttl;
+        }
+    }
+
+    private static final class Key {
+        private final String itemName;
+        private final String credentialsId;
+
+        Key(String itemName, String credentialsId) {
+            this.itemName = itemName;
+            this.credentialsId = credentialsId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return itemName.equals(other.itemName) && credentialsId.equals(other.credentialsId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(itemName, credentialsId);
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.UploadFile;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.DEOBFUSCATION_FILE_TYPE_NATIVE_CODE;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.DEOBFUSCATION_FILE_TYPE_PROGUARD;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getRelativeFileName;
+
+/**
+ * Uploads the ProGuard mapping and native debug symbol files for app files which are already part of a committed
+ * release, using a separate edit.
+ *
+ * @see ApkPublisher#setDeferDeobfuscationFileUploads(boolean)
+ */
+class DeobfuscationFileUploadTask extends AbstractPublisherTask<List<String>> {
+
+    /** How many times each file upload will be attempted before giving up. */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /** How long to wait before retrying a failed upload for the first time; this doubles for each further attempt. */
+    private static final long INITIAL_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final FilePath workspace;
+    private final List<UploadFile> appFiles;
+    private final long uploadStallTimeoutMillis = MonitoredUpload.getStallTimeoutMillis();
+
+    DeobfuscationFileUploadTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId,
+                                FilePath workspace, List<UploadFile> appFiles) {
+        super(listener, credentials, applicationId);
+        this.workspace = workspace;
+        this.appFiles = appFiles;
+    }
+
+    /** @return A description of each deobfuscation file which could not be uploaded; empty if all succeeded. */
+    @Override
+    protected List<String> execute() throws IOException, InterruptedException {
+        logger.printf("Uploading deobfuscation files for application ID: %s%n", applicationId);
+        createEdit(applicationId);
+
+        final List<String> failures = new ArrayList<>();
+        int uploadCount = 0;
+        for (UploadFile appFile : appFiles) {
+            final long versionCode = appFile.getVersionCode();
+            if (upload(versionCode, appFile.getMappingFile(), DEOBFUSCATION_FILE_TYPE_PROGUARD, "ProGuard mapping",
+                    failures)) {
+                uploadCount++;
+            }
+            if (upload(versionCode, appFile.getNativeDebugSymbolFile(), DEOBFUSCATION_FILE_TYPE_NATIVE_CODE,
+                    "Native symbols", failures)) {
+                uploadCount++;
+            }
+        }
+
+        // Only commit the edit if there's anything to apply
+        if (uploadCount == 0) {
+            deleteEdit();
+            return failures;
+        }
+        try {
+            commit();
+        } catch (IOException e) {
+            // None of the uploads will be applied
+            failures.add(0, String.format("Failed to apply the %d uploaded file(s): %s", uploadCount,
+                    describe(e)));
+        }
+        return failures;
+    }
+
+    /**
+     * Uploads a deobfuscation file for the given version code, retrying if it fails.
+     *
+     * @return {@code true} if the file was uploaded.
+     */
+    private boolean upload(long versionCode, @Nullable FilePath file, String typeId, String typeName,
+                           List<String> failures) throws IOException, InterruptedException {
+        // Google Play API doesn't accept empty mapping files
+        if (file == null || file.length() == 0) {
+            return false;
+        }
+
+        final String relativeFileName = getRelativeFileName(workspace, file);
+        logger.printf(" %16s: %s (versionCode %d)%n", typeName, relativeFileName, versionCode);
+        long delayMillis = INITIAL_RETRY_DELAY_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                MonitoredUpload.execute(logger, new File(file.getRemote()), uploadStallTimeoutMillis,
+                        content -> editService.deobfuscationfiles()
+                                .upload(applicationId, editId, Math.toIntExact(versionCode), typeId, content));
+                return true;
+            } catch (IOException e) {
+                final String message = describe(e);
+                if (attempt == MAX_ATTEMPTS) {
+                    logger.printf("Upload failed after %d attempts: %s%n", attempt, message);
+                    failures.add(String.format("%s file %s for versionCode %d: %s", typeName, relativeFileName,
+                            versionCode, message));
+                    return false;
+                }
+                logger.printf("Upload failed, retrying (attempt %d of %d): %s%n", attempt + 1, MAX_ATTEMPTS,
+                        message);
+            }
+            Thread.sleep(delayMillis);
+            delayMillis *= 2;
+        }
+    }
+
+    private static String describe(IOException e) {
+        return getPublisherErrorMessage(new PublisherApiException(e)).trim();
+    }
+
+}
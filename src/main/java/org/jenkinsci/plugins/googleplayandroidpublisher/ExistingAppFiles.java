@@ -0,0 +1,196 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonParser;
+import com.google.api.client.json.JsonToken;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.AndroidPublisherRequest;
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.common.io.CountingInputStream;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The version codes and SHA-1 hashes of the AAB and APK files which already exist for an app on Google Play.
+ * <p>
+ * Apps can have thousands of historical files, so rather than parsing the full list responses into model objects,
+ * only the fields we need are requested, and the responses are streamed into arrays of primitive values.
+ */
+final class ExistingAppFiles {
+
+    /** The only fields we need when listing app files; Google Play omits everything else from the response. */
+    static final String FIELDS_BUNDLES = "bundles(versionCode,sha1)";
+    static final String FIELDS_APKS = "apks(versionCode,binary/sha1)";
+
+    /** Fields needed to find a track by name. */
+    static final String FIELDS_TRACK_NAMES = "tracks/track";
+
+    /** Fields needed to find the version codes and release details of each release on every track. */
+    static final String FIELDS_TRACK_RELEASES =
+            "tracks(track,releases(name,status,userFraction,versionCodes,releaseNotes,inAppUpdatePriority))";
+
+    private long[] versionCodes = new long[16];
+    private String[] sha1Hashes = new String[16];
+    private int size;
+    private long responseBytes;
+
+    private ExistingAppFiles() {
+        // Use fetchAsync()
+    }
+
+    /**
+     * Starts fetching the version codes and hashes of all bundles and APKs which exist within the given edit, with both
+     * lists being requested in parallel.
+     */
+    static CompletableFuture<ExistingAppFiles> fetchAsync(AndroidPublisher.Edits editService, String applicationId,
+                                                          String editId) throws IOException {
+        final CompletableFuture<ExistingAppFiles> bundles = readAsync(
+                editService.bundles().list(applicationId, editId).setFields(FIELDS_BUNDLES), "bundles");
+        final CompletableFuture<ExistingAppFiles> apks = readAsync(
+                editService.apks().list(applicationId, editId).setFields(FIELDS_APKS), "apks");
+
+        final CompletableFuture<ExistingAppFiles> files = bundles.thenCombine(apks, (b, a) -> {
+            b.addAll(a);
+            return b;
+        });
+        // If either list can't be fetched, or the caller is no longer waiting, there's no point fetching the other
+        files.whenComplete((result, error) -> {
+            if (error != null) {
+                bundles.cancel(true);
+                apks.cancel(true);
+            }
+        });
+        return files;
+    }
+
+    /** Lists the tracks within the given edit, with only the given fields populated. */
+    static List<Track> listTracks(AndroidPublisher.Edits editService, String applicationId, String editId,
+                                  String fields) throws IOException, InterruptedException {
+        final List<Track> tracks = AsyncPublisherClient.executeBlocking(
+                editService.tracks().list(applicationId, editId).setFields(fields)).getTracks();
+        return tracks == null ? Collections.<Track>emptyList() : tracks;
+    }
+
+    /** @return The version codes of all existing app files, in the order Google Play returned them. */
+    long[] getVersionCodes() {
+        return Arrays.copyOf(versionCodes, size);
+    }
+
+    /** @return The SHA-1 hash of each existing app file, at the same index as its version code. */
+    String[] getSha1Hashes() {
+        return Arrays.copyOf(sha1Hashes, size);
+    }
+
+    boolean containsVersionCode(long versionCode) {
+        for (int i = 0; i < size; i++) {
+            if (versionCodes[i] == versionCode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return Whether a file with the given SHA-1 hash (in lowercase hex) already exists. */
+    boolean containsHash(String sha1) {
+        for (int i = 0; i < size; i++) {
+            if (sha1.equals(sha1Hashes[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return The number of bytes of JSON received from Google Play while fetching the list of files. */
+    long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /** Starts streaming a list response, collecting the version code and hash of each item in the given field. */
+    private static CompletableFuture<ExistingAppFiles> readAsync(AndroidPublisherRequest<?> request,
+                                                                 String listField) {
+        final JsonFactory jsonFactory = request.getAbstractGoogleClient().getJsonFactory();
+        return AsyncPublisherClient.executeUnparsed(request, response -> {
+            ExistingAppFiles files = new ExistingAppFiles();
+            try (CountingInputStream content = new CountingInputStream(response.getContent())) {
+                files.readList(jsonFactory.createJsonParser(content), listField);
+                files.responseBytes = content.getCount();
+            }
+            return files;
+        });
+    }
+
+    private void readList(JsonParser parser, String listField) throws IOException {
+        // e.g. {"kind": "…", "bundles": [{"versionCode": 123, "sha1": "…"}, …]}
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if (listField.equals(name) && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    readItem(parser);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void readItem(JsonParser parser) throws IOException {
+        long versionCode = -1;
+        String sha1 = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if ("versionCode".equals(name) && value == JsonToken.VALUE_NUMBER_INT) {
+                versionCode = parser.getLongValue();
+            } else if ("sha1".equals(name) && value == JsonToken.VALUE_STRING) {
+                sha1 = parser.getText();
+            } else if ("binary".equals(name) && value == JsonToken.START_OBJECT) {
+                // APKs nest their hash in a "binary" object
+                sha1 = readBinarySha1(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        add(versionCode, sha1 == null ? null : sha1.toLowerCase(Locale.ROOT));
+    }
+
+    private static String readBinarySha1(JsonParser parser) throws IOException {
+        String sha1 = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if ("sha1".equals(name) && value == JsonToken.VALUE_STRING) {
+                sha1 = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return sha1;
+    }
+
+    private void addAll(ExistingAppFiles other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.versionCodes[i], other.sha1Hashes[i]);
+        }
+        responseBytes += other.responseBytes;
+    }
+
+    private void add(long versionCode, String sha1) {
+        if (size == versionCodes.length) {
+            versionCodes = Arrays.copyOf(versionCodes, size * 2);
+            sha1Hashes = Arrays.copyOf(sha1Hashes, size * 2);
+        }
+        versionCodes[size] = versionCode;
+        sha1Hashes[size] = sha1;
+        size++;
+    }
+
+}
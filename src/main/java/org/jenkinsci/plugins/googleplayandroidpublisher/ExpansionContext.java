@@ -0,0 +1,50 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Expands configuration values for a single execution of a build step, remembering the results.
+ * <p>
+ * Build steps tend to read the same expanded values several times — e.g. when validating the configuration, and then
+ * again when using it — and token macros can be expensive to evaluate, so each distinct value is expanded only once.
+ * The environment and macros aren't expected to change during a single build step.
+ */
+final class ExpansionContext {
+
+    private final Run<?, ?> run;
+    private final TaskListener listener;
+    private final Map<String, String> expansions = new HashMap<>();
+
+    ExpansionContext(Run<?, ?> run, TaskListener listener) {
+        this.run = run;
+        this.listener = listener;
+    }
+
+    /** @return An expanded value, using the build and environment variables, plus token macro expansion. */
+    @Nullable
+    String expand(@Nullable String value) throws IOException, InterruptedException {
+        if (expansions.containsKey(value)) {
+            return expansions.get(value);
+        }
+        final String expanded = Util.expand(run, listener, value);
+        expansions.put(value, expanded);
+        return expanded;
+    }
+
+    /**
+     * Expands each of the given values up front, so that later calls to {@link #expand(String)} are answered from the
+     * results; values which appear more than once are only expanded once.
+     */
+    void expandAll(String... values) throws IOException, InterruptedException {
+        for (String value : values) {
+            expand(value);
+        }
+    }
+
+}
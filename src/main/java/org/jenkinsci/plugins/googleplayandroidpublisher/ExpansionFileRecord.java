@@ -0,0 +1,126 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers which APK version codes each expansion file was uploaded with, identified by the file's type, hash and size,
+ * so that an identical file can be referenced by future APKs rather than being uploaded again.
+ * <p>
+ * The record is kept on the Jenkins controller, and persisted to disk.
+ */
+final class ExpansionFileRecord {
+
+    private static final Logger LOGGER = Logger.getLogger(ExpansionFileRecord.class.getName());
+
+    /** How many expansion files to remember per application; older entries are forgotten first. */
+    private static final int MAX_FILES_PER_APPLICATION = 50;
+
+    private static final ExpansionFileRecord INSTANCE = new ExpansionFileRecord();
+
+    /** The version code each expansion file was uploaded with, by application ID, then by file key. */
+    private Map<String, LinkedHashMap<String, Long>> versionCodesByApplicationId;
+
+    private ExpansionFileRecord() {
+        // Singleton
+    }
+
+    static ExpansionFileRecord get() {
+        return INSTANCE;
+    }
+
+    /** Makes sure that records held in memory by a previous Jenkins instance in this JVM aren't used. */
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    @SuppressWarnings("unused")
+    public static void onStartup() {
+        INSTANCE.reload();
+    }
+
+    /** Discards the records held in memory, so that they're read from disk again when next needed. */
+    synchronized void reload() {
+        versionCodesByApplicationId = null;
+    }
+
+    /**
+     * @param type The expansion file type, i.e. main or patch.
+     * @param sha256 The SHA-256 hash of the file, in lowercase hex.
+     * @param size The file size, in bytes.
+     * @return The key which identifies an expansion file with the given properties.
+     */
+    static String getKey(String type, String sha256, long size) {
+        return String.format("%s:%s:%d", type, sha256, size);
+    }
+
+    /** @return The version code each known expansion file was uploaded with, by file key. */
+    synchronized Map<String, Long> getUploadedFiles(String applicationId) {
+        final Map<String, Long> files = getRecords().get(applicationId);
+        return files == null ? new HashMap<>() : new HashMap<>(files);
+    }
+
+    /** @return A recorder which adds entries for the given application; this may be exported to a build agent. */
+    Recorder createRecorder(String applicationId) {
+        return (key, versionCode) -> record(applicationId, key, versionCode);
+    }
+
+    private synchronized void record(String applicationId, String key, long versionCode) {
+        final LinkedHashMap<String, Long> files =
+                getRecords().computeIfAbsent(applicationId, it -> new LinkedHashMap<>());
+
+        // Keep the most recently uploaded files at the end, and forget the oldest when there are too many
+        files.remove(key);
+        files.put(key, versionCode);
+        for (Iterator<String> it = files.keySet().iterator(); files.size() > MAX_FILES_PER_APPLICATION; ) {
+            it.next();
+            it.remove();
+        }
+        save();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, LinkedHashMap<String, Long>> getRecords() {
+        if (versionCodesByApplicationId == null) {
+            versionCodesByApplicationId = new TreeMap<>();
+            XmlFile file = getConfigFile();
+            if (file.exists()) {
+                try {
+                    versionCodesByApplicationId.putAll((Map<String, LinkedHashMap<String, Long>>) file.read());
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to load expansion file records from " + file, e);
+                }
+            }
+        }
+        return versionCodesByApplicationId;
+    }
+
+    private void save() {
+        XmlFile file = getConfigFile();
+        try {
+            file.write(versionCodesByApplicationId);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save expansion file records to " + file, e);
+        }
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM2,
+                new File(Jenkins.get().getRootDir(), ExpansionFileRecord.class.getName() + ".xml"));
+    }
+
+    /** Records that an expansion file was uploaded; calls from a build agent are sent to the controller. */
+    public interface Recorder {
+        void recordUpload(String key, long versionCode);
+    }
+
+}
@@ -1,6 +1,7 @@
 package org.jenkinsci.plugins.googleplayandroidpublisher;
 
 import com.cloudbees.plugins.credentials.CredentialsNameProvider;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.model.AbstractProject;
 import hudson.model.Describable;
@@ -33,6 +34,11 @@ public abstract class GooglePlayBuildStepDescriptor<T extends BuildStep & Descri
     }
 
     public ListBoxModel doFillGoogleCredentialsIdItems(@AncestorInPath Item item) {
+        return getGoogleCredentialsIdItems(item);
+    }
+
+    /** @return The credentials which the current user can choose from for the given item, for any Google Play step. */
+    static ListBoxModel getGoogleCredentialsIdItems(Item item) {
         // Only allow enumerating credentials if we have the appropriate permission
         if (item == null || !item.hasPermission(EXTENDED_READ)) {
             return new ListBoxModel();
@@ -62,18 +68,8 @@ public abstract class GooglePlayBuildStepDescriptor<T extends BuildStep & Descri
             return FormValidation.ok();
         }
 
-        // Otherwise, attempt to load the given credential to see whether it has been set up correctly
-        try {
-            new CredentialsHandler(value).getServiceAccountCredentials(item);
-        } catch (EphemeralCredentialsException e) {
-            // Loading the credential (apparently) goes online, so we may get ephemeral connectivity problems
-            return FormValidation.warning(e.getMessage());
-        } catch (UploadException e) {
-            return FormValidation.error(e.getMessage());
-        }
-
-        // Everything is fine
-        return FormValidation.ok();
+        // Otherwise, attempt to load the given credential in the background, to see whether it's set up correctly
+        return CredentialsValidationCache.validate(item, value);
     }
 
     @Nonnull
@@ -86,12 +82,31 @@ public abstract class GooglePlayBuildStepDescriptor<T extends BuildStep & Descri
         return listBox;
     }
 
-    public ComboBoxModel doFillTrackNameItems() {
+    public ComboBoxModel doFillTrackNameItems(@AncestorInPath Item item, @QueryParameter String googleCredentialsId,
+                                              @QueryParameter String applicationId) {
         // Auto-complete the default track names, though users can also enter custom track names
         List<String> trackNames = new ArrayList<>(Arrays.asList("internal", "alpha", "beta", "production"));
         if (clazz.isAssignableFrom(ApkPublisher.class)) {
             trackNames.add("internal-app-sharing");
         }
+
+        // If we know which app this is, also suggest any custom tracks it has, once they've been fetched.
+        // Note that fetching them opens and deletes an edit on Google Play, though the result is cached for a while
+        String credentialsId = fixEmptyAndTrim(googleCredentialsId);
+        String appId = fixEmptyAndTrim(applicationId);
+        if (item != null && item.hasPermission(EXTENDED_READ) && credentialsId != null && appId != null
+                && !credentialsId.contains("$") && !appId.contains("$")) {
+            // The same ID may refer to different credentials in different folders, so use the one this item sees
+            GoogleRobotCredentials credentials = CredentialsHandler.getById(credentialsId, item);
+            List<String> existingTrackNames = credentials == null ? null
+                    : TrackNameCache.get(item, credentials, appId);
+            if (existingTrackNames != null) {
+                existingTrackNames.stream()
+                        .filter(it -> !trackNames.contains(it))
+                        .sorted()
+                        .forEach(trackNames::add);
+            }
+        }
         return new ComboBoxModel(trackNames.toArray(new String[0]));
     }
 
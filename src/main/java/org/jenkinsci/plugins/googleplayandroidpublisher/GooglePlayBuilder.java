@@ -18,6 +18,7 @@ public abstract class GooglePlayBuilder extends Builder implements SimpleBuildSt
 
     protected static transient final ThreadLocal<Run<?, ?>> currentBuild = new ThreadLocal<>();
     protected static transient final ThreadLocal<TaskListener> currentListener = new ThreadLocal<>();
+    private static transient final ThreadLocal<ExpansionContext> currentExpansions = new ThreadLocal<>();
 
     private transient CredentialsHandler credentialsHandler;
 
@@ -37,6 +38,7 @@ public abstract class GooglePlayBuilder extends Builder implements SimpleBuildSt
                         @Nonnull TaskListener listener) throws InterruptedException, IOException {
         currentBuild.set(run);
         currentListener.set(listener);
+        currentExpansions.set(new ExpansionContext(run, listener));
     }
 
     protected CredentialsHandler getCredentialsHandler() throws CredentialsException {
@@ -48,7 +50,19 @@ public abstract class GooglePlayBuilder extends Builder implements SimpleBuildSt
 
     /** @return An expanded value, using the build and environment variables, plus token macro expansion. */
     protected String expand(String value) throws IOException, InterruptedException {
-        return Util.expand(currentBuild.get(), currentListener.get(), value);
+        final ExpansionContext expansions = currentExpansions.get();
+        if (expansions == null) {
+            return Util.expand(currentBuild.get(), currentListener.get(), value);
+        }
+        return expansions.expand(value);
+    }
+
+    /** Expands each of the given values up front, so that subsequent calls to {@link #expand} can reuse the results. */
+    protected void expandAll(String... values) throws IOException, InterruptedException {
+        final ExpansionContext expansions = currentExpansions.get();
+        if (expansions != null) {
+            expansions.expandAll(values);
+        }
     }
 
     public BuildStepMonitor getRequiredMonitorService() {
@@ -0,0 +1,265 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.LauncherDecorator;
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.ListBoxModel;
+import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
+import org.jenkinsci.plugins.workflow.steps.BodyInvoker;
+import org.jenkinsci.plugins.workflow.steps.GeneralNonBlockingStepExecution;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static hudson.Util.fixEmptyAndTrim;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+
+/**
+ * Pipeline block step which opens a single edit for an application, in which all of the Google Play steps within the
+ * block make their changes for that application, and then commits the edit once the block completes.
+ * <p>
+ * If anything in the block fails, the edit is discarded, so none of the changes made within the block are applied.
+ */
+public class GooglePlayEditStep extends Step {
+
+    private final String googleCredentialsId;
+    private final String applicationId;
+
+    @DataBoundConstructor
+    public GooglePlayEditStep(String googleCredentialsId, String applicationId) {
+        this.googleCredentialsId = fixEmptyAndTrim(googleCredentialsId);
+        this.applicationId = fixEmptyAndTrim(applicationId);
+    }
+
+    public String getGoogleCredentialsId() {
+        return googleCredentialsId;
+    }
+
+    public String getApplicationId() {
+        return applicationId;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new Execution(context, googleCredentialsId, applicationId);
+    }
+
+    private static final class Execution extends GeneralNonBlockingStepExecution {
+
+        private static final long serialVersionUID = 1;
+
+        private static final Logger LOGGER = Logger.getLogger(GooglePlayEditStep.class.getName());
+
+        private final String googleCredentialsId;
+        private final String applicationId;
+        private String editId;
+
+        /** Whether Jenkins restarted while the block was running, losing track of what the steps within it did. */
+        private boolean isResumed;
+
+        Execution(StepContext context, String googleCredentialsId, String applicationId) {
+            super(context);
+            this.googleCredentialsId = googleCredentialsId;
+            this.applicationId = applicationId;
+        }
+
+        @Override
+        public boolean start() {
+            // Talking to Google Play can take a while, so don't block the Pipeline while doing so
+            run(this::openEdit);
+            return false;
+        }
+
+        private void openEdit() throws Exception {
+            final Run<?, ?> run = getContext().get(Run.class);
+            final TaskListener listener = getContext().get(TaskListener.class);
+            if (applicationId == null) {
+                throw new AbortException("An application ID is required");
+            }
+            final SharedEditContext enclosingEdits = getContext().get(SharedEditContext.class);
+            if (enclosingEdits != null && enclosingEdits.contains(applicationId)) {
+                throw new AbortException(String.format("An edit is already open for '%s'; withGooglePlayEdit " +
+                        "blocks for the same application cannot be nested", applicationId));
+            }
+            if (SharedEditContext.isOpen(run, applicationId)) {
+                throw new AbortException(String.format("An edit is already open for '%s'; withGooglePlayEdit " +
+                        "blocks for the same application cannot run in parallel", applicationId));
+            }
+
+            try {
+                editId = new SharedEditTask(listener, getCredentials(run), applicationId,
+                        SharedEditTask.Action.OPEN, null).call();
+            } catch (UploadException e) {
+                throw new AbortException(String.format("Failed to open an edit: %s", getPublisherErrorMessage(e)));
+            }
+            if (!SharedEditContext.register(run, applicationId)) {
+                // Another parallel branch got there first
+                discardEdit(run, listener);
+                throw new AbortException(String.format("An edit is already open for '%s'; withGooglePlayEdit " +
+                        "blocks for the same application cannot run in parallel", applicationId));
+            }
+
+            final PrintStream logger = listener.getLogger();
+            logger.println("Changes made to this application within the withGooglePlayEdit block will be applied " +
+                    "once the block completes");
+            logger.println();
+
+            // Only the steps within the block should use the edit, so it's passed to them via the block's context
+            final SharedEditContext edits = (enclosingEdits == null ? new SharedEditContext() : enclosingEdits)
+                    .with(applicationId, googleCredentialsId, editId);
+            getContext().newBodyInvoker()
+                    .withContexts(edits, BodyInvoker.mergeLauncherDecorators(
+                            getContext().get(LauncherDecorator.class), edits.createLauncherDecorator()))
+                    .withCallback(new Callback())
+                    .start();
+        }
+
+        @Override
+        public void onResume() {
+            super.onResume();
+            if (editId == null) {
+                return;
+            }
+
+            // Anything the steps in the block wanted to do once the edit is committed was only kept in memory, so
+            // applying the edit now could leave out some of the block's changes; instead, the block will fail once
+            // its body completes, and the edit will be discarded
+            isResumed = true;
+            try {
+                SharedEditContext.register(getContext().get(Run.class), applicationId);
+                getContext().get(TaskListener.class).getLogger().printf("Jenkins restarted while the " +
+                        "withGooglePlayEdit block for '%s' was running; its changes will not be applied%n",
+                        applicationId);
+            } catch (IOException | InterruptedException e) {
+                LOGGER.log(Level.WARNING, "Failed to resume the withGooglePlayEdit block", e);
+            }
+        }
+
+        private void commitEdit(Run<?, ?> run, TaskListener listener) throws Exception {
+            listener.getLogger().printf("%nThe withGooglePlayEdit block for '%s' has completed%n", applicationId);
+            final List<SharedEditContext.CommitListener> commitListeners;
+            try {
+                SharedEditTask task = new SharedEditTask(listener, getCredentials(run), applicationId,
+                        SharedEditTask.Action.COMMIT, editId);
+                task.useCommitModeRecord(CommitModeRecord.get().createRecorder(applicationId, null));
+                task.call();
+            } catch (UploadException e) {
+                throw new AbortException(String.format("Applying the changes failed: %s",
+                        getPublisherErrorMessage(e)));
+            } finally {
+                commitListeners = SharedEditContext.unregister(run, applicationId);
+            }
+
+            // Now that the changes have been applied, let the steps within the block follow up on them
+            for (SharedEditContext.CommitListener commitListener : commitListeners) {
+                commitListener.onCommitted(listener.getLogger());
+            }
+        }
+
+        private void discardEdit(Run<?, ?> run, TaskListener listener) throws Exception {
+            listener.getLogger().printf("%nThe withGooglePlayEdit block for '%s' failed; discarding its changes%n",
+                    applicationId);
+            try {
+                new SharedEditTask(listener, getCredentials(run), applicationId, SharedEditTask.Action.DISCARD,
+                        editId).call();
+            } catch (UploadException e) {
+                // Google Play will expire the edit eventually anyway
+                listener.getLogger().printf("Failed to discard the edit: %s%n", getPublisherErrorMessage(e));
+            }
+        }
+
+        /** Discards the edit once the block has completed, so that a new block can be started for the application. */
+        private void discardBlockEdit(Run<?, ?> run, TaskListener listener) throws Exception {
+            try {
+                discardEdit(run, listener);
+            } finally {
+                SharedEditContext.unregister(run, applicationId);
+            }
+        }
+
+        private GoogleRobotCredentials getCredentials(Run<?, ?> run) throws UploadException {
+            return new CredentialsHandler(googleCredentialsId).getServiceAccountCredentials(run.getParent());
+        }
+
+        /** Applies or discards the edit once the block completes, without blocking the Pipeline. */
+        private final class Callback extends BodyExecutionCallback {
+
+            private static final long serialVersionUID = 1;
+
+            @Override
+            public void onSuccess(StepContext context, Object result) {
+                run(() -> {
+                    if (isResumed) {
+                        discardBlockEdit(context.get(Run.class), context.get(TaskListener.class));
+                        context.onFailure(new AbortException("Jenkins restarted while the withGooglePlayEdit " +
+                                "block was running, so its changes have been discarded"));
+                        return;
+                    }
+                    commitEdit(context.get(Run.class), context.get(TaskListener.class));
+                    context.onSuccess(result);
+                });
+            }
+
+            @Override
+            public void onFailure(StepContext context, Throwable t) {
+                run(() -> {
+                    try {
+                        discardBlockEdit(context.get(Run.class), context.get(TaskListener.class));
+                    } catch (Exception e) {
+                        t.addSuppressed(e);
+                    }
+                    context.onFailure(t);
+                });
+            }
+
+        }
+
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "withGooglePlayEdit";
+        }
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "Make several changes to a Google Play app in a single edit";
+        }
+
+        @Override
+        public boolean takesImplicitBlockArgument() {
+            return true;
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Run.class, TaskListener.class);
+        }
+
+        public ListBoxModel doFillGoogleCredentialsIdItems(@AncestorInPath Item item) {
+            return GooglePlayBuildStepDescriptor.getGoogleCredentialsIdItems(item);
+        }
+
+    }
+
+}
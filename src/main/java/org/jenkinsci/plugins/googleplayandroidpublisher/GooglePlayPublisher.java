@@ -19,6 +19,8 @@ public abstract class GooglePlayPublisher extends Recorder implements SimpleBuil
 
     protected static transient final ThreadLocal<Run<?, ?>> currentBuild = new ThreadLocal<>();
     protected static transient final ThreadLocal<TaskListener> currentListener = new ThreadLocal<>();
+    private static transient final ThreadLocal<Launcher> currentLauncher = new ThreadLocal<>();
+    private static transient final ThreadLocal<ExpansionContext> currentExpansions = new ThreadLocal<>();
 
     private transient CredentialsHandler credentialsHandler;
 
@@ -38,6 +40,8 @@ public abstract class GooglePlayPublisher extends Recorder implements SimpleBuil
                         @Nonnull TaskListener listener) throws InterruptedException, IOException {
         currentBuild.set(run);
         currentListener.set(listener);
+        currentLauncher.set(launcher);
+        currentExpansions.set(new ExpansionContext(run, listener));
     }
 
     protected CredentialsHandler getCredentialsHandler() throws CredentialsException, IOException,
@@ -52,7 +56,31 @@ public abstract class GooglePlayPublisher extends Recorder implements SimpleBuil
     /** @return An expanded value, using the build and environment variables, plus token macro expansion. */
     @Nullable
     protected String expand(String value) throws IOException, InterruptedException {
-        return Util.expand(currentBuild.get(), currentListener.get(), value);
+        final ExpansionContext expansions = currentExpansions.get();
+        if (expansions == null) {
+            return Util.expand(currentBuild.get(), currentListener.get(), value);
+        }
+        return expansions.expand(value);
+    }
+
+    /** Expands each of the given values up front, so that subsequent calls to {@link #expand} can reuse the results. */
+    protected void expandAll(String... values) throws IOException, InterruptedException {
+        final ExpansionContext expansions = currentExpansions.get();
+        if (expansions != null) {
+            expansions.expandAll(values);
+        }
+    }
+
+    /**
+     * @param applicationId The application which this step is going to change.
+     * @return The ID of the edit opened for the application by an enclosing {@link GooglePlayEditStep} block, or
+     *         {@code null} if this step should open its own edit.
+     * @throws CredentialsException If the shared edit was opened with different credentials.
+     */
+    @Nullable
+    protected String getSharedEditId(String applicationId)
+            throws CredentialsException, IOException, InterruptedException {
+        return SharedEditContext.getEditId(currentLauncher.get(), applicationId, expand(googleCredentialsId));
     }
 
     public BuildStepMonitor getRequiredMonitorService() {
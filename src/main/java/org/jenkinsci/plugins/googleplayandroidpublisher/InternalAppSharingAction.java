@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.EnvVars;
+import hudson.model.EnvironmentContributingAction;
+import hudson.model.Run;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Records the URL of an app file uploaded to Internal App Sharing by a build.
+ * <p>
+ * This is available to subsequent build steps via the {@value #ENV_DOWNLOAD_URL} environment variable, and to other
+ * tools via the build's remote API. If a build uploads several files, the variable contains the last URL.
+ */
+@ExportedBean
+public class InternalAppSharingAction implements EnvironmentContributingAction {
+
+    /** The environment variable containing the download URL of the uploaded file. */
+    public static final String ENV_DOWNLOAD_URL = "GOOGLE_PLAY_INTERNAL_APP_SHARING_URL";
+
+    private final String applicationId;
+    private final long versionCode;
+    private final String variant;
+    private final String downloadUrl;
+
+    InternalAppSharingAction(String applicationId, long versionCode, @Nullable String variant, String downloadUrl) {
+        this.applicationId = applicationId;
+        this.versionCode = versionCode;
+        this.variant = variant;
+        this.downloadUrl = downloadUrl;
+    }
+
+    @Exported
+    public String getApplicationId() {
+        return applicationId;
+    }
+
+    @Exported
+    public long getVersionCode() {
+        return versionCode;
+    }
+
+    /** @return The name of the build variant which produced the file, if it could be determined from its path. */
+    @Exported
+    @Nullable
+    public String getVariant() {
+        return variant;
+    }
+
+    @Exported
+    public String getDownloadUrl() {
+        return downloadUrl;
+    }
+
+    @Override
+    public void buildEnvironment(@Nonnull Run<?, ?> run, @Nonnull EnvVars env) {
+        env.put(ENV_DOWNLOAD_URL, downloadUrl);
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Google Play Internal App Sharing";
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+
+}
@@ -0,0 +1,125 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the files which have been uploaded to Internal App Sharing, identified by application ID and SHA-256 hash,
+ * so that rebuilding identical app files returns the existing download URL, rather than uploading the file again.
+ * <p>
+ * The cache is kept in memory on the Jenkins controller, and entries expire after a configurable time, since Google
+ * Play only keeps files on Internal App Sharing for a limited time.
+ */
+final class InternalAppSharingCache {
+
+    /**
+     * How many hours an uploaded file may be re-used for; zero disables the cache.
+     * <p>
+     * This is read on the Jenkins controller each time a file is to be uploaded.
+     */
+    static final String TTL_PROPERTY = InternalAppSharingCache.class.getName() + ".ttlHours";
+    private static final int DEFAULT_TTL_HOURS = 24;
+
+    /** How many uploaded files to remember; the least recently used are forgotten first. */
+    private static final int MAX_ENTRIES = 100;
+
+    private static final InternalAppSharingCache INSTANCE = new InternalAppSharingCache();
+
+    /** The uploaded artifacts, by application ID and SHA-256 hash. */
+    private final Map<String, Artifact> artifacts = new LinkedHashMap<String, Artifact>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Artifact> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private InternalAppSharingCache() {
+        // Singleton
+    }
+
+    static InternalAppSharingCache get() {
+        return INSTANCE;
+    }
+
+    /** Makes sure that files uploaded by a previous Jenkins instance in this JVM aren't re-used, e.g. when testing. */
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    @SuppressWarnings("unused")
+    public static void onStartup() {
+        INSTANCE.clear();
+    }
+
+    static long getTtlMillis() {
+        return TimeUnit.HOURS.toMillis(SystemProperties.getInteger(TTL_PROPERTY, DEFAULT_TTL_HOURS));
+    }
+
+    /** @return The artifact previously uploaded for the given file, if it hasn't yet expired. */
+    @Nullable
+    synchronized Artifact get(String applicationId, String sha256) {
+        final String key = getKey(applicationId, sha256);
+        final Artifact artifact = artifacts.get(key);
+        if (artifact == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - artifact.getUploadedAt() >= getTtlMillis()) {
+            artifacts.remove(key);
+            return null;
+        }
+        return artifact;
+    }
+
+    /** Records that the given file has been uploaded. */
+    synchronized void put(String applicationId, String sha256, Artifact artifact) {
+        if (getTtlMillis() > 0) {
+            artifacts.put(getKey(applicationId, sha256), artifact);
+        }
+    }
+
+    /** Forgets all uploaded files. */
+    synchronized void clear() {
+        artifacts.clear();
+    }
+
+    private static String getKey(String applicationId, String sha256) {
+        return applicationId + ':' + sha256;
+    }
+
+    /** A file which has been uploaded to Internal App Sharing. */
+    static final class Artifact implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        private final String downloadUrl;
+        private final String certificateFingerprint;
+        private final long uploadedAt;
+
+        Artifact(String downloadUrl, @Nullable String certificateFingerprint, long uploadedAt) {
+            this.downloadUrl = downloadUrl;
+            this.certificateFingerprint = certificateFingerprint;
+            this.uploadedAt = uploadedAt;
+        }
+
+        /** @return The URL from which testers can install the app. */
+        String getDownloadUrl() {
+            return downloadUrl;
+        }
+
+        /** @return The SHA-256 fingerprint of the certificate used to sign the app, if known. */
+        @Nullable
+        String getCertificateFingerprint() {
+            return certificateFingerprint;
+        }
+
+        /** @return When the file was uploaded, in milliseconds since the epoch. */
+        long getUploadedAt() {
+            return uploadedAt;
+        }
+    }
+
+}
@@ -1,6 +1,6 @@
 package org.jenkinsci.plugins.googleplayandroidpublisher;
 
-import com.google.api.client.http.FileContent;
+import com.google.api.services.androidpublisher.AndroidPublisher;
 import com.google.api.services.androidpublisher.model.InternalAppSharingArtifact;
 import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
 import hudson.FilePath;
@@ -8,35 +8,124 @@ import hudson.model.TaskListener;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AppFileFormat;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.UploadFile;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import static hudson.Functions.humanReadableByteSize;
+import static hudson.Util.join;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getRelativeFileName;
 
-public class InternalAppSharingUploadTask extends AbstractPublisherTask<Boolean> {
+/**
+ * Uploads one or more app files to internal app sharing.
+ * <p>
+ * Multiple files are uploaded in parallel, and independently of each other: if one fails, the others are still
+ * uploaded, and the result for the failed file will be {@code null}.
+ */
+public class InternalAppSharingUploadTask extends AbstractPublisherTask<List<InternalAppSharingCache.Artifact>> {
+
+    /** The maximum number of files which will be uploaded at the same time. */
+    private static final int MAX_PARALLEL_UPLOADS = 4;
 
-    private final String applicationId;
     private final FilePath workspace;
-    private final UploadFile appFile;
+    private final List<UploadFile> appFiles;
+    private final long uploadStallTimeoutMillis = MonitoredUpload.getStallTimeoutMillis();
 
-    public InternalAppSharingUploadTask(
+    InternalAppSharingUploadTask(
         TaskListener listener, GoogleRobotCredentials credentials,
-        String applicationId, FilePath workspace, UploadFile appFile
+        FilePath workspace, List<UploadFile> appFiles
     ) {
-        super(listener, credentials, applicationId);
-        this.applicationId = applicationId;
+        super(listener, credentials, null);
         this.workspace = workspace;
-        this.appFile = appFile;
+        this.appFiles = appFiles;
     }
 
     @Override
-    protected Boolean execute() throws IOException, InterruptedException, UploadException {
-        logger.printf("Uploading file to internal app sharing on Google Play...%n" +
+    protected List<InternalAppSharingCache.Artifact> execute() throws IOException, InterruptedException {
+        final Set<String> applicationIds = appFiles.stream().map(UploadFile::getApplicationId)
+                .collect(Collectors.toCollection(TreeSet::new));
+        logger.printf("Uploading %s to internal app sharing on Google Play...%n" +
                 "- Credential:     %s%n" +
-                "- Application ID: %s%n%n", getCredentialName(), applicationId);
+                "- Application ID: %s%n%n", appFiles.size() == 1 ? "file" : appFiles.size() + " files",
+                getCredentialName(), join(applicationIds, ", "));
+
+        final AndroidPublisher.Internalappsharingartifacts internalAppSharing = getInternalAppSharing();
+        if (appFiles.size() == 1) {
+            return Collections.singletonList(upload(internalAppSharing, appFiles.get(0), logger));
+        }
+
+        final int threadCount = Math.max(1, Math.min(MAX_PARALLEL_UPLOADS, appFiles.size()));
+        // These threads wait for the uploads, so they must not share the pool which executes the requests themselves
+        final ExecutorService executor = AsyncPublisherClient.newExecutor(
+                "GooglePlayPublisher.InternalAppSharingUploadTask", threadCount);
+        final List<Future<InternalAppSharingCache.Artifact>> futures = new ArrayList<>();
+        try {
+            for (UploadFile appFile : appFiles) {
+                futures.add(executor.submit(() -> uploadIsolated(internalAppSharing, appFile)));
+            }
+            final List<InternalAppSharingCache.Artifact> artifacts = new ArrayList<>();
+            for (Future<InternalAppSharingCache.Artifact> future : futures) {
+                artifacts.add(future.get());
+            }
+            return artifacts;
+        } catch (ExecutionException e) {
+            // Should not happen, as each upload handles its own exceptions
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            // If the build was aborted, stop any remaining uploads
+            futures.forEach(it -> it.cancel(true));
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
+    /** Uploads the given file, logging the outcome without throwing if the upload fails. */
+    private InternalAppSharingCache.Artifact uploadIsolated(
+        AndroidPublisher.Internalappsharingartifacts internalAppSharing, UploadFile appFile
+    ) {
+        // Buffer the output for each file, so that the log doesn't end up interleaved
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final PrintStream fileLogger = new PrintStream(buffer, true);
+        String error = null;
+        try {
+            return upload(internalAppSharing, appFile, fileLogger);
+        } catch (IOException e) {
+            error = Util.getPublisherErrorMessage(new PublisherApiException(e));
+        } catch (InterruptedException e) {
+            error = "Interrupted";
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            error = e.toString();
+        } finally {
+            fileLogger.flush();
+            synchronized (logger) {
+                logger.printf("[%s]%n", getRelativeFileName(workspace, appFile.getFilePath()));
+                logger.print(buffer.toString());
+                if (error != null) {
+                    logger.printf("Failed: %s%n", error);
+                }
+                logger.println();
+            }
+        }
+        return null;
+    }
+
+    private InternalAppSharingCache.Artifact upload(
+        AndroidPublisher.Internalappsharingartifacts internalAppSharing, UploadFile appFile, PrintStream logger
+    ) throws IOException, InterruptedException {
         // Log some useful information about the file that will be uploaded
+        final String applicationId = appFile.getApplicationId();
         final AppFileFormat fileFormat = appFile.getFileFormat();
         final String fileType = (fileFormat == AppFileFormat.BUNDLE) ? "AAB" : "APK";
         logger.printf("        %s file: %s%n", fileType, getRelativeFileName(workspace, appFile.getFilePath()));
@@ -44,25 +133,27 @@ public class InternalAppSharingUploadTask extends AbstractPublisherTask<Boolean>
         logger.printf("      SHA-1 hash: %s%n", appFile.getSha1Hash());
         logger.printf("     versionCode: %d%n", appFile.getVersionCode());
         logger.printf("     versionName: %s%n", appFile.getVersionName());
-        logger.printf("   minSdkVersion: %s%n", appFile.getMinSdkVersion());
+        if (appFile.getMinSdkVersion() != null) {
+            logger.printf("   minSdkVersion: %s%n", appFile.getMinSdkVersion());
+        }
         logger.printf(" %n");
 
         // Upload the file
-        File fileToUpload = new File(appFile.getFilePath().getRemote());
-        FileContent fileContent = new FileContent("application/octet-stream", fileToUpload);
-        InternalAppSharingArtifact artifact;
+        final File fileToUpload = new File(appFile.getFilePath().getRemote());
+        final InternalAppSharingArtifact artifact;
         if (fileFormat == AppFileFormat.APK) {
-            artifact = getInternalAppSharing().uploadapk(applicationId, fileContent).execute();
+            artifact = MonitoredUpload.execute(logger, fileToUpload, uploadStallTimeoutMillis,
+                    content -> internalAppSharing.uploadapk(applicationId, content));
         } else {
-            artifact = getInternalAppSharing().uploadbundle(applicationId, fileContent).execute();
+            artifact = MonitoredUpload.execute(logger, fileToUpload, uploadStallTimeoutMillis,
+                    content -> internalAppSharing.uploadbundle(applicationId, content));
         }
 
         // Output URL
         logger.println("Internal app sharing file was successfully uploaded to Google Play:");
         logger.println(artifact.getDownloadUrl());
 
-        // TODO: Store action
-
-        return true;
+        return new InternalAppSharingCache.Artifact(artifact.getDownloadUrl(), artifact.getCertificateFingerprint(),
+                System.currentTimeMillis());
     }
 }
@@ -0,0 +1,238 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.http.FileContent;
+import com.google.api.services.androidpublisher.AndroidPublisherRequest;
+import jenkins.util.SystemProperties;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static hudson.Functions.humanReadableByteSize;
+import static hudson.Util.getTimeSpanString;
+
+/**
+ * Uploads a file to Google Play, logging its progress, and restarting the upload if it stalls.
+ * <p>
+ * Without this, a large upload produces no output until it completes, and an upload which stops making progress would
+ * only fail once the HTTP read timeout expires, which is long enough to allow for huge app bundles.
+ */
+final class MonitoredUpload {
+
+    /**
+     * How long an upload may go without any data being sent before it's aborted and restarted.
+     * <p>
+     * This is read on the Jenkins controller when the upload task is created.
+     */
+    static final String STALL_TIMEOUT_PROPERTY = MonitoredUpload.class.getName() + ".stallTimeoutSeconds";
+    private static final int DEFAULT_STALL_TIMEOUT_SECONDS = 300;
+
+    /** How many times a stalled upload will be restarted before giving up. */
+    static final int MAX_STALL_RETRIES = 2;
+
+    /** How often to log the progress of an upload. */
+    private static final long PROGRESS_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(15);
+
+    /** How often to check whether the upload has finished, logged progress, or stalled. */
+    private static final long POLL_INTERVAL_MILLIS = 1000;
+
+    /** Creates the request which uploads the given content. */
+    interface RequestFactory<T> {
+        AndroidPublisherRequest<T> create(AbstractInputStreamContent content) throws IOException;
+    }
+
+    private final File file;
+    private final long fileSize;
+    private volatile long bytesRead;
+    private volatile long lastProgressTime;
+    private volatile boolean isAborted;
+
+    private MonitoredUpload(File file) {
+        this.file = file;
+        this.fileSize = file.length();
+    }
+
+    /** @return The configured stall timeout, in milliseconds. */
+    static long getStallTimeoutMillis() {
+        return TimeUnit.SECONDS.toMillis(SystemProperties.getInteger(STALL_TIMEOUT_PROPERTY,
+                DEFAULT_STALL_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * Uploads the given file, logging progress, and restarting the upload if no data is sent for the given time.
+     *
+     * @param logger Where to log progress.
+     * @param file The file to upload.
+     * @param stallTimeoutMillis How long to wait for data to be sent before restarting the upload.
+     * @param requestFactory Creates the request for each attempt to upload the file.
+     * @return The response from Google Play once the upload has completed.
+     */
+    static <T> T execute(PrintStream logger, File file, long stallTimeoutMillis, RequestFactory<T> requestFactory)
+            throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            final MonitoredUpload upload = new MonitoredUpload(file);
+            final AdaptiveChunkSizer chunkSizer = new AdaptiveChunkSizer();
+            final AndroidPublisherRequest<T> request = requestFactory.create(upload.createContent());
+            chunkSizer.attach(request.getMediaHttpUploader());
+
+            final T response = upload.await(logger, AsyncPublisherClient.execute(request), stallTimeoutMillis);
+            if (response != null) {
+                final String summary = chunkSizer.getSummary();
+                if (summary != null) {
+                    logger.printf("         Uploaded: %s%n", summary);
+                }
+                return response;
+            }
+
+            // The upload stalled
+            final long stallSeconds = TimeUnit.MILLISECONDS.toSeconds(stallTimeoutMillis);
+            if (attempt == MAX_STALL_RETRIES) {
+                throw new IOException(String.format("Upload of %s made no progress for %d seconds, and was " +
+                        "aborted after %d attempts", file.getName(), stallSeconds, attempt + 1));
+            }
+            logger.printf("Upload made no progress for %d seconds; restarting it (attempt %d of %d)%n",
+                    stallSeconds, attempt + 2, MAX_STALL_RETRIES + 1);
+        }
+    }
+
+    /**
+     * Waits for the upload to complete, logging progress.
+     *
+     * @return The response, or {@code null} if the upload stalled and was cancelled.
+     */
+    private <T> T await(PrintStream logger, CompletableFuture<T> future, long stallTimeoutMillis)
+            throws IOException, InterruptedException {
+        final long startTime = System.currentTimeMillis();
+        lastProgressTime = startTime;
+        long lastLogTime = startTime;
+        while (true) {
+            try {
+                return AsyncPublisherClient.await(future, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Still uploading
+            } catch (IOException e) {
+                if (isAborted) {
+                    return null;
+                }
+                throw e;
+            }
+
+            final long now = System.currentTimeMillis();
+            final long sent = bytesRead;
+            if (sent < fileSize && now - lastProgressTime >= stallTimeoutMillis) {
+                // Make the request fail as soon as it tries to send anything more, and stop waiting for it; if it's
+                // blocked on the connection, its thread remains busy until the read timeout, but not in the shared pool
+                isAborted = true;
+                future.cancel(true);
+                return null;
+            }
+            if (now - lastLogTime >= PROGRESS_INTERVAL_MILLIS) {
+                lastLogTime = now;
+                logProgress(logger, sent, now - startTime);
+            }
+        }
+    }
+
+    private void logProgress(PrintStream logger, long sent, long elapsedMillis) {
+        if (sent >= fileSize) {
+            logger.println("         Progress: 100%, waiting for Google Play to process the file...");
+            return;
+        }
+
+        final double bytesPerMilli = elapsedMillis == 0 ? 0 : (double) sent / elapsedMillis;
+        final String remaining = bytesPerMilli == 0 ? "unknown"
+                : getTimeSpanString((long) ((fileSize - sent) / bytesPerMilli));
+        logger.println(String.format(Locale.ENGLISH, "         Progress: %d%% of %s, %.1f MB/s, %s remaining",
+                fileSize == 0 ? 0 : sent * 100 / fileSize, humanReadableByteSize(fileSize),
+                bytesPerMilli * 1000 / (1024 * 1024), remaining));
+    }
+
+    private AbstractInputStreamContent createContent() {
+        return new FileContent("application/octet-stream", file) {
+            @Override
+            public InputStream getInputStream() throws FileNotFoundException {
+                // Supporting mark/reset lets each chunk be streamed directly, and resent if necessary
+                return new ProgressInputStream(new BufferedInputStream(super.getInputStream()));
+            }
+        };
+    }
+
+    /** Records how much of the file has been read by the HTTP client, i.e. sent to Google Play. */
+    private final class ProgressInputStream extends FilterInputStream {
+
+        private long position;
+        private long markedPosition;
+
+        ProgressInputStream(InputStream in) {
+            super(in);
+            onPositionChanged();
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkAborted();
+            final int b = super.read();
+            if (b != -1) {
+                position++;
+                onPositionChanged();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkAborted();
+            final int count = super.read(b, off, len);
+            if (count > 0) {
+                position += count;
+                onPositionChanged();
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            checkAborted();
+            final long skipped = super.skip(n);
+            position += skipped;
+            onPositionChanged();
+            return skipped;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            super.mark(readLimit);
+            markedPosition = position;
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            super.reset();
+            position = markedPosition;
+            onPositionChanged();
+        }
+
+        private void checkAborted() throws InterruptedIOException {
+            if (isAborted) {
+                throw new InterruptedIOException("Upload was aborted as it made no progress");
+            }
+        }
+
+        private void onPositionChanged() {
+            bytesRead = position;
+            lastProgressTime = System.currentTimeMillis();
+        }
+
+    }
+
+}
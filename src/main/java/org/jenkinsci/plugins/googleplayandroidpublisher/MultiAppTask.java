@@ -0,0 +1,237 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static hudson.Util.join;
+
+/**
+ * Runs a task for each of multiple applications at once, with each application using its own edit.
+ * <p>
+ * All applications share the same Google Play API client, and a bounded number of them are processed in parallel.
+ */
+class MultiAppTask extends AbstractPublisherTask<List<MultiAppTask.AppResult>> {
+
+    private final List<? extends TrackPublisherTask> tasks;
+    private final int maxParallelApplications;
+    private final boolean requireAllApplicationsSucceed;
+
+    MultiAppTask(TaskListener listener, GoogleRobotCredentials credentials,
+                 List<? extends TrackPublisherTask> tasks, int maxParallelApplications,
+                 boolean requireAllApplicationsSucceed) {
+        super(listener, credentials, null);
+        this.tasks = tasks;
+        this.maxParallelApplications = maxParallelApplications;
+        this.requireAllApplicationsSucceed = requireAllApplicationsSucceed;
+    }
+
+    @Override
+    protected List<AppResult> execute() throws InterruptedException {
+        logger.printf("Authenticating to Google Play API...%n" +
+                "- Credential:      %s%n" +
+                "- Application IDs: %s%n%n", getCredentialName(),
+                join(tasks.stream().map(it -> it.applicationId).collect(Collectors.toList()), ", "));
+
+        final Map<TrackPublisherTask, AppResult> results = new LinkedHashMap<>();
+        for (TrackPublisherTask task : tasks) {
+            results.put(task, new AppResult(task.applicationId));
+        }
+
+        final int threadCount = Math.max(1, Math.min(maxParallelApplications, tasks.size()));
+        // These threads wait for API requests, so they must not share the pool which executes the requests themselves
+        final ExecutorService executor = AsyncPublisherClient.newExecutor("GooglePlayPublisher.MultiAppTask",
+                threadCount);
+        try {
+            // Prepare the release for each application, each within its own edit
+            runForEach(executor, tasks, results, (task, result) -> {
+                boolean isPrepared = false;
+                try {
+                    isPrepared = task.prepareRelease();
+                } finally {
+                    result.versionCodes = new ArrayList<>(task.getAssignedVersionCodes());
+                    if (!isPrepared) {
+                        discardEdit(task);
+                    }
+                }
+                if (isPrepared) {
+                    result.status = AppResult.Status.PREPARED;
+                } else {
+                    result.fail("Release could not be prepared");
+                }
+            });
+            final List<TrackPublisherTask> prepared = tasks.stream()
+                    .filter(it -> results.get(it).status == AppResult.Status.PREPARED)
+                    .collect(Collectors.toList());
+
+            if (requireAllApplicationsSucceed && prepared.size() != tasks.size()) {
+                // If any of the releases couldn't be prepared, we don't want to apply any of the others
+                logger.println("Not every application could be prepared for release, so no changes will be applied");
+                logger.println();
+                runForEach(executor, prepared, results, (task, result) -> {
+                    task.deleteEdit();
+                    result.status = AppResult.Status.DISCARDED;
+                });
+            } else {
+                if (requireAllApplicationsSucceed && prepared.size() > 1) {
+                    // Google Play has no way to commit multiple edits at once, so a later commit could still fail
+                    logger.println("Every application was prepared for release, so the changes will now be applied");
+                    logger.println("- Note: Each application is committed separately, so if Google Play rejects " +
+                            "the changes for one, those already applied for the others will remain");
+                    logger.println();
+                }
+                runForEach(executor, prepared, results, (task, result) -> {
+                    task.commit();
+                    result.status = AppResult.Status.COMMITTED;
+                });
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        printResults(results.values());
+        return new ArrayList<>(results.values());
+    }
+
+    /** Runs the given action for each of the given tasks in parallel, waiting until all have completed. */
+    private void runForEach(ExecutorService executor, List<? extends TrackPublisherTask> tasksToRun,
+                            Map<TrackPublisherTask, AppResult> results, AppAction action)
+            throws InterruptedException {
+        final List<Future<?>> futures = new ArrayList<>();
+        for (TrackPublisherTask task : tasksToRun) {
+            futures.add(executor.submit(() -> runForApp(task, results.get(task), action)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            // Should not happen, as each action handles its own exceptions
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            // If the build was aborted, stop any remaining work
+            futures.forEach(it -> it.cancel(true));
+            throw e;
+        }
+    }
+
+    private void runForApp(TrackPublisherTask task, AppResult result, AppAction action) {
+        // Buffer the output for each application, so that the log doesn't end up interleaved
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final PrintStream appLogger = new PrintStream(buffer, true);
+        task.attach(editService, appLogger);
+        try {
+            action.run(task, result);
+        } catch (IOException e) {
+            result.fail(Util.getPublisherErrorMessage(new PublisherApiException(e)));
+        } catch (InterruptedException e) {
+            result.fail("Interrupted");
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            result.fail(e.toString());
+        } finally {
+            appLogger.flush();
+            synchronized (logger) {
+                logger.printf("[%s]%n", task.applicationId);
+                logger.print(buffer.toString());
+                if (result.message != null) {
+                    logger.printf("Failed: %s%n", result.message);
+                }
+                logger.println();
+            }
+        }
+    }
+
+    /** Discards the edit of an application which couldn't be prepared, without affecting the task's outcome. */
+    private static void discardEdit(TrackPublisherTask task) {
+        try {
+            task.deleteEdit();
+        } catch (IOException | RuntimeException e) {
+            // The edit will expire by itself eventually
+            task.logger.printf("- Failed to discard the edit: %s%n", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void printResults(Iterable<AppResult> results) {
+        int width = "Application ID".length();
+        for (AppResult result : results) {
+            width = Math.max(width, result.applicationId.length());
+        }
+        final String format = "  %-10s %-" + width + "s  %s%n";
+
+        logger.println("Google Play results:");
+        logger.printf(format, "Status", "Application ID", "Version codes");
+        for (AppResult result : results) {
+            logger.printf(format, result.status, result.applicationId, join(result.versionCodes, ", "));
+        }
+        logger.println();
+    }
+
+    /**
+     * Logs the overall outcome of a multi-application task, marking the build as unstable if only some succeeded.
+     *
+     * @return {@code true} if the changes were applied for at least one application.
+     */
+    static boolean handleResults(Run<?, ?> run, PrintStream logger, List<AppResult> results) {
+        final long committedCount = results.stream().filter(AppResult::isCommitted).count();
+        if (committedCount == results.size()) {
+            return true;
+        }
+        if (committedCount == 0) {
+            logger.println("No changes have been applied to the Google Play account");
+            return false;
+        }
+        logger.printf("Changes were applied to Google Play for only %d of %d applications%n",
+                committedCount, results.size());
+        run.setResult(Result.UNSTABLE);
+        return true;
+    }
+
+    private interface AppAction {
+        void run(TrackPublisherTask task, AppResult result) throws IOException, InterruptedException;
+    }
+
+    /** The outcome of the task for a single application. */
+    static final class AppResult implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        enum Status { PENDING, PREPARED, COMMITTED, DISCARDED, FAILED }
+
+        final String applicationId;
+        List<Long> versionCodes = new ArrayList<>();
+        Status status = Status.PENDING;
+        String message;
+
+        AppResult(String applicationId) {
+            this.applicationId = applicationId;
+        }
+
+        void fail(String message) {
+            this.status = Status.FAILED;
+            this.message = message;
+        }
+
+        boolean isCommitted() {
+            return status == Status.COMMITTED;
+        }
+
+    }
+
+}
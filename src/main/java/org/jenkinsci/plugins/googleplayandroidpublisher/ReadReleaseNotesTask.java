@@ -0,0 +1,113 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Task which reads release notes from a directory laid out like fastlane metadata, i.e. with a text file per version
+ * code for each language: {@code <language>/changelogs/<versionCode>.txt}.
+ * <p>
+ * If a language has no file for a version code, {@code <language>/changelogs/default.txt} is used, if it exists.
+ */
+public class ReadReleaseNotesTask extends MasterToSlaveFileCallable<Map<Long, Map<String, String>>> {
+
+    static final String CHANGELOGS_DIR = "changelogs";
+    static final String DEFAULT_FILE_NAME = "default.txt";
+
+    private final String directory;
+    private final Collection<Long> versionCodes;
+
+    /**
+     * @param directory The release notes directory, relative to the workspace.
+     * @param versionCodes The version codes for which release notes should be read.
+     */
+    ReadReleaseNotesTask(String directory, Collection<Long> versionCodes) {
+        this.directory = directory;
+        this.versionCodes = new TreeSet<>(versionCodes);
+    }
+
+    /**
+     * @return The trimmed release notes text by language, for each of the version codes; or {@code null} if the
+     *         directory doesn't exist.
+     */
+    @Override
+    @Nullable
+    public Map<Long, Map<String, String>> invoke(File baseDir, VirtualChannel channel) throws IOException {
+        final File dir = new File(baseDir, directory);
+        final File[] languageDirs = dir.listFiles(File::isDirectory);
+        if (languageDirs == null) {
+            return null;
+        }
+
+        // There may be dozens of languages, so read them in parallel
+        final Map<String, Map<Long, String>> notesByLanguage = new ConcurrentHashMap<>();
+        try {
+            Arrays.stream(languageDirs).parallel().forEach(languageDir -> {
+                final Map<Long, String> notes = readLanguage(new File(languageDir, CHANGELOGS_DIR));
+                if (!notes.isEmpty()) {
+                    notesByLanguage.put(languageDir.getName(), notes);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        final Map<Long, Map<String, String>> result = new TreeMap<>();
+        for (Long versionCode : versionCodes) {
+            result.put(versionCode, new TreeMap<>());
+        }
+        notesByLanguage.forEach((language, notes) ->
+                notes.forEach((versionCode, text) -> result.get(versionCode).put(language, text)));
+        return result;
+    }
+
+    private Map<Long, String> readLanguage(File changelogsDir) {
+        final Map<Long, String> notes = new HashMap<>();
+        if (!changelogsDir.isDirectory()) {
+            return notes;
+        }
+        String defaultText = null;
+        boolean hasReadDefault = false;
+        for (Long versionCode : versionCodes) {
+            String text = read(new File(changelogsDir, versionCode + ".txt"));
+            if (text == null) {
+                if (!hasReadDefault) {
+                    defaultText = read(new File(changelogsDir, DEFAULT_FILE_NAME));
+                    hasReadDefault = true;
+                }
+                text = defaultText;
+            }
+            if (text != null) {
+                notes.put(versionCode, text);
+            }
+        }
+        return notes;
+    }
+
+    @Nullable
+    private static String read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -11,6 +11,7 @@ import hudson.model.TaskListener;
 import hudson.tasks.Builder;
 import net.dongliu.apk.parser.exception.ParserException;
 import org.jenkinsci.Symbol;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AppFileMetadata;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.UploadFile;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
@@ -20,8 +21,11 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
@@ -30,6 +34,7 @@ import static hudson.Util.fixEmptyAndTrim;
 import static hudson.Util.tryParseNumber;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.REGEX_VARIABLE;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.readGradleOutputMetadata;
 
 public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
 
@@ -41,6 +46,11 @@ public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
     private String releaseName;
     private String rolloutPercentage;
     private String inAppUpdatePriority;
+    private String sourceTrackName;
+    private String applicationIds;
+    private String maxParallelApplications;
+    private boolean requireAllApplicationsSucceed;
+    private boolean useGradleOutputMetadata;
 
     // This field was used before AAB support was introduced; it will be migrated to `filesPattern` for Freestyle jobs
     @Deprecated private transient String apkFilesPattern;
@@ -191,6 +201,59 @@ public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
         return releaseName;
     }
 
+    @DataBoundSetter
+    public void setSourceTrackName(String sourceTrackName) {
+        this.sourceTrackName = sourceTrackName;
+    }
+
+    @Nullable
+    public String getSourceTrackName() {
+        return fixEmptyAndTrim(sourceTrackName);
+    }
+
+    @DataBoundSetter
+    public void setApplicationIds(String applicationIds) {
+        this.applicationIds = applicationIds;
+    }
+
+    @Nullable
+    public String getApplicationIds() {
+        return fixEmptyAndTrim(applicationIds);
+    }
+
+    @DataBoundSetter
+    public void setMaxParallelApplications(String maxParallelApplications) {
+        this.maxParallelApplications = maxParallelApplications;
+    }
+
+    @Nullable
+    public String getMaxParallelApplications() {
+        return fixEmptyAndTrim(maxParallelApplications);
+    }
+
+    @DataBoundSetter
+    public void setRequireAllApplicationsSucceed(boolean requireAllApplicationsSucceed) {
+        this.requireAllApplicationsSucceed = requireAllApplicationsSucceed;
+    }
+
+    public boolean getRequireAllApplicationsSucceed() {
+        return requireAllApplicationsSucceed;
+    }
+
+    @DataBoundSetter
+    public void setUseGradleOutputMetadata(boolean useGradleOutputMetadata) {
+        this.useGradleOutputMetadata = useGradleOutputMetadata;
+    }
+
+    public boolean getUseGradleOutputMetadata() {
+        return useGradleOutputMetadata;
+    }
+
+    /** @return Whether the current release of another track should be promoted, rather than given version codes. */
+    private boolean isPromotion() {
+        return getSourceTrackName() != null;
+    }
+
     @DataBoundSetter
     public void setInAppUpdatePriority(@Nullable String priorityStr) {
         this.inAppUpdatePriority = priorityStr;
@@ -205,6 +268,42 @@ public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
         return expand(getApplicationId());
     }
 
+    private String getExpandedSourceTrackName() throws IOException, InterruptedException {
+        return expand(getSourceTrackName());
+    }
+
+    /** @return The application IDs whose releases should be promoted, falling back to the single application ID. */
+    @Nonnull
+    private List<String> getExpandedApplicationIds() throws IOException, InterruptedException {
+        String ids = expand(getApplicationIds());
+        if (ids == null) {
+            ids = getExpandedApplicationId();
+        }
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(ids.split("[,\\s]+"))
+                .map(String::trim)
+                .filter(it -> !it.isEmpty())
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    @Nullable
+    private String getExpandedMaxParallelApplicationsString() throws IOException, InterruptedException {
+        return expand(getMaxParallelApplications());
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+    private int getExpandedMaxParallelApplications() throws IOException, InterruptedException {
+        String maxStr = getExpandedMaxParallelApplicationsString();
+        if (maxStr == null) {
+            return DescriptorImpl.defaultMaxParallelApplications;
+        }
+        return tryParseNumber(maxStr, -1).intValue();
+    }
+
     private String getExpandedVersionCodes() throws IOException, InterruptedException {
         return expand(getVersionCodes());
     }
@@ -255,7 +354,18 @@ public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
         final List<String> errors = new ArrayList<>();
 
         // Check whether the relevant values were provided, based on the method chosen
-        if (isFromVersionCode()) {
+        if (isPromotion()) {
+            if (getExpandedSourceTrackName() == null) {
+                errors.add("No release track to promote from was specified");
+            }
+            if (getExpandedApplicationIds().isEmpty()) {
+                errors.add("No application IDs were specified");
+            }
+            if (getExpandedMaxParallelApplications() < 1) {
+                errors.add(String.format("'%s' is not a valid number of applications to process in parallel",
+                        getExpandedMaxParallelApplicationsString()));
+            }
+        } else if (isFromVersionCode()) {
             if (getExpandedApplicationId() == null) {
                 errors.add("No application ID was specified");
             }
@@ -316,11 +426,21 @@ public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
             throws IOException, InterruptedException {
         final PrintStream logger = listener.getLogger();
 
+        // Expand the configuration once, as it's used both when validating it, and when assigning
+        expandAll(getGoogleCredentialsId(), getApplicationId(), getApplicationIds(), getVersionCodes(),
+                getFilesPattern(), getSourceTrackName(), getMaxParallelApplications(), getTrackName(),
+                getReleaseName(), getRolloutPercentage(), getInAppUpdatePriority());
+
         // Check that the job has been configured correctly
         if (!isConfigValid(logger)) {
             return false;
         }
 
+        // If we're promoting existing releases, Google Play will tell us which version codes to assign
+        if (isPromotion()) {
+            return promoteReleases(run, workspace, listener);
+        }
+
         // Figure out the list of version codes to assign
         String applicationId;
         Collection<Long> versionCodeList = new TreeSet<>();
@@ -345,9 +465,44 @@ public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
         // Assign the APKs to the desired track
         try {
             GoogleRobotCredentials credentials = getCredentialsHandler().getServiceAccountCredentials(run.getParent());
-            return workspace.act(new TrackAssignmentTask(listener, credentials, applicationId, versionCodeList,
-                            getCanonicalTrackName(), getExpandedReleaseName(), getExpandedRolloutPercentage(),
-                            getExpandedInAppUpdatePriority()));
+            // Let the task, which may run on an agent, check against and add to the app files known to exist
+            final AppFileCache appFileCache = AppFileCache.get();
+            TrackAssignmentTask task = new TrackAssignmentTask(listener, credentials, applicationId, versionCodeList,
+                    getCanonicalTrackName(), getExpandedReleaseName(), getExpandedRolloutPercentage(),
+                    getExpandedInAppUpdatePriority(), appFileCache.getVersionCodes(applicationId),
+                    workspace.getChannel().export(AppFileCache.Recorder.class,
+                            appFileCache.createRecorder(applicationId)));
+            task.useSharedEdit(getSharedEditId(applicationId));
+            task.useCommitModeRecord(CommitModeRecord.get().createRecorder(applicationId, workspace.getChannel()));
+            return workspace.act(task);
+        } catch (UploadException e) {
+            logger.println(String.format("Assignment failed: %s", getPublisherErrorMessage(e)));
+            logger.println("No changes have been applied to the Google Play account");
+        }
+        return false;
+    }
+
+    /** Promotes the current release from the source track to the target track, for each configured application. */
+    private boolean promoteReleases(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace,
+                                    @Nonnull TaskListener listener) throws IOException, InterruptedException {
+        final PrintStream logger = listener.getLogger();
+        try {
+            GoogleRobotCredentials credentials = getCredentialsHandler().getServiceAccountCredentials(run.getParent());
+            final List<TrackPromotionTask> tasks = new ArrayList<>();
+            for (String applicationId : getExpandedApplicationIds()) {
+                TrackPromotionTask task = new TrackPromotionTask(listener, credentials, applicationId,
+                        getExpandedSourceTrackName(), getCanonicalTrackName(), getExpandedReleaseName(),
+                        getExpandedRolloutPercentage(), getExpandedInAppUpdatePriority());
+                task.useSharedEdit(getSharedEditId(applicationId));
+                task.useCommitModeRecord(CommitModeRecord.get().createRecorder(applicationId, workspace.getChannel()));
+                tasks.add(task);
+            }
+            if (tasks.size() == 1) {
+                return workspace.act(tasks.get(0));
+            }
+            final List<MultiAppTask.AppResult> results = workspace.act(new MultiAppTask(listener, credentials, tasks,
+                    getExpandedMaxParallelApplications(), requireAllApplicationsSucceed));
+            return MultiAppTask.handleResults(run, logger, results);
         } catch (UploadException e) {
             logger.println(String.format("Assignment failed: %s", getPublisherErrorMessage(e)));
             logger.println("No changes have been applied to the Google Play account");
@@ -364,13 +519,18 @@ public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
             return null;
         }
 
+        // Read the metadata written by Gradle, if desired, so that those app files don't need to be parsed
+        final Map<String, AppFileMetadata> gradleMetadata = useGradleOutputMetadata
+                ? readGradleOutputMetadata(logger, workspace, relativePaths) : Collections.emptyMap();
+
         // Read the metadata from each file found
         final List<UploadFile> appFilesToMove = new ArrayList<>();
         for (String path : relativePaths) {
             FilePath file = workspace.child(path);
             try {
-                // Attempt to parse the file as an Android app
-                UploadFile appFile = new UploadFile(file);
+                // Attempt to parse the file as an Android app, unless Gradle has already told us what it contains
+                AppFileMetadata metadata = gradleMetadata.get(path);
+                UploadFile appFile = metadata == null ? new UploadFile(file) : new UploadFile(file, metadata);
                 appFilesToMove.add(appFile);
                 logger.println(String.format("Found %s file with version code %d: %s",
                         appFile.getFileFormat(), appFile.getVersionCode(), path));
@@ -411,6 +571,8 @@ public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
     @Extension
     public static final class DescriptorImpl extends GooglePlayBuildStepDescriptor<Builder> {
         public static final String defaultFilesPattern = "**/build/outputs/**/*.aab, **/build/outputs/**/*.apk";
+        public static final int defaultMaxParallelApplications =
+                ApkPublisher.DescriptorImpl.defaultMaxParallelApplications;
 
         public String getDisplayName() {
             return "Move Android apps to a different release track";
@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.googleapis.services.AbstractGoogleClient;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.services.androidpublisher.AndroidPublisherRequest;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends multiple small, independent Google Play API requests using as few HTTP round trips as possible.
+ * <p>
+ * Requests are queued, then sent in multipart batches when {@link #execute()} is called. Any request which fails within
+ * a batch, or any batch which can't be sent at all, is retried as an individual request, so that callers see the same
+ * exceptions as if the request had been executed directly. Therefore, only idempotent requests should be queued here,
+ * and media uploads can't be batched at all.
+ * <p>
+ * Batches are sent on the calling thread, as each is a single HTTP request; requests sent individually are executed
+ * via {@link AsyncPublisherClient}, so that they're retried and time out in the same way as any other request.
+ */
+final class RequestBatch {
+
+    /** The Android Publisher API's batch endpoint, relative to the API root URL. */
+    private static final String BATCH_PATH = "batch/androidpublisher/v3";
+
+    /** Google recommends sending no more than this many requests in a single batch. */
+    static final int MAX_REQUESTS_PER_BATCH = 50;
+
+    private final List<Item<?>> items = new ArrayList<>();
+
+    /** Queues a request, whose result will be available via the returned item once the batch has been executed. */
+    <T> Item<T> queue(AndroidPublisherRequest<T> request) {
+        return add(new Item<>(request, false));
+    }
+
+    /** Queues a request, whose result will be {@code null} if Google Play responds that the resource doesn't exist. */
+    <T> Item<T> queueAllowingNotFound(AndroidPublisherRequest<T> request) {
+        return add(new Item<>(request, true));
+    }
+
+    private <T> Item<T> add(Item<T> item) {
+        items.add(item);
+        return item;
+    }
+
+    /** Executes all queued requests, throwing an exception for the first request which failed. */
+    void execute() throws IOException, InterruptedException {
+        for (int i = 0, n = items.size(); i < n; i += MAX_REQUESTS_PER_BATCH) {
+            executeBatch(items.subList(i, Math.min(i + MAX_REQUESTS_PER_BATCH, n)));
+        }
+        items.clear();
+    }
+
+    private static void executeBatch(List<Item<?>> batchItems) throws IOException, InterruptedException {
+        // There's no point in the overhead of a batch for a single request
+        if (batchItems.size() > 1) {
+            try {
+                AbstractGoogleClient client = batchItems.get(0).request.getAbstractGoogleClient();
+                BatchRequest batch = client.batch();
+                batch.setBatchUrl(new GenericUrl(client.getRootUrl() + BATCH_PATH));
+                for (Item<?> item : batchItems) {
+                    item.queue(batch);
+                }
+                batch.execute();
+            } catch (IOException e) {
+                // The batch couldn't be sent, e.g. due to a proxy, so each request will be sent individually below
+            }
+        }
+
+        // Send any requests which didn't succeed within the batch by themselves
+        for (Item<?> item : batchItems) {
+            if (!item.isDone) {
+                item.executeIndividually();
+            }
+        }
+    }
+
+    /** A request which has been queued in a batch. */
+    static final class Item<T> {
+
+        private final AndroidPublisherRequest<T> request;
+        private final boolean allowNotFound;
+        private T result;
+        private boolean isDone;
+
+        private Item(AndroidPublisherRequest<T> request, boolean allowNotFound) {
+            this.request = request;
+            this.allowNotFound = allowNotFound;
+        }
+
+        private void queue(BatchRequest batch) throws IOException {
+            request.queue(batch, new JsonBatchCallback<T>() {
+                @Override
+                public void onSuccess(T response, HttpHeaders responseHeaders) {
+                    result = response;
+                    isDone = true;
+                }
+
+                @Override
+                public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                    // A 404 response means that there is no such resource, which the caller may have expected;
+                    // otherwise the request will be retried individually, so that the full exception is available
+                    if (allowNotFound && error.getCode() == 404) {
+                        isDone = true;
+                    }
+                }
+            });
+        }
+
+        private void executeIndividually() throws IOException, InterruptedException {
+            try {
+                result = AsyncPublisherClient.executeBlocking(request);
+            } catch (GoogleJsonResponseException e) {
+                if (!allowNotFound || e.getStatusCode() != 404) {
+                    throw e;
+                }
+            }
+            isDone = true;
+        }
+
+        /** @return The response to the request, or {@code null} if not found, and that was allowed. */
+        @Nullable
+        T get() {
+            if (!isDone) {
+                throw new IllegalStateException("The batch containing this request has not been executed");
+            }
+            return result;
+        }
+
+    }
+
+}
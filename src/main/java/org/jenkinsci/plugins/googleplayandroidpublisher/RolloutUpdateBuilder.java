@@ -0,0 +1,379 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.Builder;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static hudson.Util.fixEmptyAndTrim;
+import static hudson.Util.join;
+import static hudson.Util.tryParseNumber;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.PERCENTAGE_FORMATTER;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+
+/** Changes the rollout of the release currently being staged on a track, optionally following a schedule. */
+public class RolloutUpdateBuilder extends GooglePlayBuilder {
+
+    private String applicationId;
+    private String trackName;
+    private String rolloutAction;
+    private String rolloutPercentage;
+    private String rolloutSchedule;
+    private String scheduleIntervalHours;
+
+    @DataBoundConstructor
+    public RolloutUpdateBuilder() {
+        // No parameters here are mandatory, though the credentials in the parent class are
+    }
+
+    @DataBoundSetter
+    public void setApplicationId(String applicationId) {
+        this.applicationId = applicationId;
+    }
+
+    @Nullable
+    public String getApplicationId() {
+        return fixEmptyAndTrim(applicationId);
+    }
+
+    @DataBoundSetter
+    public void setTrackName(String trackName) {
+        this.trackName = trackName;
+    }
+
+    @Nullable
+    public String getTrackName() {
+        return fixEmptyAndTrim(trackName);
+    }
+
+    @DataBoundSetter
+    public void setRolloutAction(String rolloutAction) {
+        this.rolloutAction = DescriptorImpl.defaultRolloutAction.equals(rolloutAction) ? null : rolloutAction;
+    }
+
+    @Nonnull
+    public String getRolloutAction() {
+        return fixEmptyAndTrim(rolloutAction) == null ? DescriptorImpl.defaultRolloutAction : rolloutAction;
+    }
+
+    @DataBoundSetter
+    public void setRolloutPercentage(String rolloutPercentage) {
+        this.rolloutPercentage = rolloutPercentage;
+    }
+
+    @Nullable
+    public String getRolloutPercentage() {
+        return fixEmptyAndTrim(rolloutPercentage);
+    }
+
+    @DataBoundSetter
+    public void setRolloutSchedule(String rolloutSchedule) {
+        this.rolloutSchedule = rolloutSchedule;
+    }
+
+    @Nullable
+    public String getRolloutSchedule() {
+        return fixEmptyAndTrim(rolloutSchedule);
+    }
+
+    @DataBoundSetter
+    public void setScheduleIntervalHours(String scheduleIntervalHours) {
+        this.scheduleIntervalHours = scheduleIntervalHours;
+    }
+
+    @Nullable
+    public String getScheduleIntervalHours() {
+        return fixEmptyAndTrim(scheduleIntervalHours);
+    }
+
+    private String getExpandedApplicationId() throws IOException, InterruptedException {
+        return expand(getApplicationId());
+    }
+
+    private String getExpandedTrackName() throws IOException, InterruptedException {
+        return expand(getTrackName());
+    }
+
+    @Nullable
+    private RolloutUpdateTask.Action getExpandedRolloutAction() throws IOException, InterruptedException {
+        String action = expand(getRolloutAction());
+        try {
+            return RolloutUpdateTask.Action.valueOf(action.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private String getExpandedRolloutPercentageString() throws IOException, InterruptedException {
+        return expand(getRolloutPercentage());
+    }
+
+    private double getExpandedRolloutPercentage() throws IOException, InterruptedException {
+        return parsePercentage(getExpandedRolloutPercentageString());
+    }
+
+    private String getExpandedRolloutScheduleString() throws IOException, InterruptedException {
+        return expand(getRolloutSchedule());
+    }
+
+    /** @return The percentages to step through after this build, or {@code null} if any could not be parsed. */
+    @Nullable
+    private List<Double> getExpandedRolloutSchedule() throws IOException, InterruptedException {
+        final List<Double> percentages = new ArrayList<>();
+        final String schedule = getExpandedRolloutScheduleString();
+        if (schedule == null) {
+            return percentages;
+        }
+        for (String s : schedule.split("[,\\s]+")) {
+            if (s.trim().isEmpty()) {
+                continue;
+            }
+            double pct = parsePercentage(s);
+            if (Double.isNaN(pct)) {
+                return null;
+            }
+            percentages.add(pct);
+        }
+        return percentages;
+    }
+
+    private String getExpandedScheduleIntervalHoursString() throws IOException, InterruptedException {
+        return expand(getScheduleIntervalHours());
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+    private double getExpandedScheduleIntervalHours() throws IOException, InterruptedException {
+        final String hoursStr = getExpandedScheduleIntervalHoursString();
+        if (hoursStr == null) {
+            return DescriptorImpl.defaultScheduleIntervalHours;
+        }
+        return tryParseNumber(hoursStr.trim(), Double.NaN).doubleValue();
+    }
+
+    /** @return The given percentage as a number from 0 to 100, or {@link Double#NaN} if it's not valid. */
+    @SuppressWarnings("ConstantConditions")
+    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+    private static double parsePercentage(@Nullable String pctStr) {
+        if (pctStr == null) {
+            return Double.NaN;
+        }
+        double pct = tryParseNumber(pctStr.replace("%", "").trim(), Double.NaN).doubleValue();
+        if (Double.compare(pct, 0) <= 0 || Double.compare(pct, 100) > 0) {
+            return Double.NaN;
+        }
+        return pct;
+    }
+
+    private boolean isConfigValid(PrintStream logger) throws IOException, InterruptedException {
+        final List<String> errors = new ArrayList<>();
+
+        if (getExpandedApplicationId() == null) {
+            errors.add("No application ID was specified");
+        }
+        if (getExpandedTrackName() == null) {
+            errors.add("Release track was not specified");
+        }
+
+        final RolloutUpdateTask.Action action = getExpandedRolloutAction();
+        if (action == null) {
+            errors.add(String.format("'%s' is not a valid rollout action; expected one of: update, halt, resume, " +
+                    "complete", expand(getRolloutAction())));
+        } else if (action == RolloutUpdateTask.Action.UPDATE) {
+            final String pctStr = getExpandedRolloutPercentageString();
+            if (pctStr == null) {
+                errors.add("Rollout percentage was not specified");
+            } else if (Double.isNaN(getExpandedRolloutPercentage())) {
+                errors.add(String.format("'%s' is not a valid rollout percentage", pctStr));
+            }
+        }
+
+        // Check that any schedule given makes sense
+        final String scheduleStr = getExpandedRolloutScheduleString();
+        if (scheduleStr != null) {
+            final List<Double> schedule = getExpandedRolloutSchedule();
+            if (action != RolloutUpdateTask.Action.UPDATE) {
+                errors.add("A rollout schedule can only be used when updating the rollout percentage");
+            } else if (schedule == null) {
+                errors.add(String.format("'%s' is not a valid rollout schedule", scheduleStr));
+            } else {
+                double previous = getExpandedRolloutPercentage();
+                for (double pct : schedule) {
+                    if (Double.compare(pct, previous) <= 0) {
+                        errors.add("Rollout schedule percentages must increase with each step");
+                        break;
+                    }
+                    previous = pct;
+                }
+            }
+            final double hours = getExpandedScheduleIntervalHours();
+            if (Double.isNaN(hours) || Double.compare(hours, 0) <= 0) {
+                errors.add(String.format("'%s' is not a valid number of hours between rollout steps",
+                        getExpandedScheduleIntervalHoursString()));
+            }
+        }
+
+        // Print accumulated errors
+        if (!errors.isEmpty()) {
+            logger.println("Cannot make changes to Google Play:");
+            for (String error : errors) {
+                logger.print("- ");
+                logger.println(error);
+            }
+        }
+
+        return errors.isEmpty();
+    }
+
+    @Override
+    public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull Launcher launcher,
+                        @Nonnull TaskListener listener) throws InterruptedException, IOException {
+        super.perform(run, workspace, launcher, listener);
+
+        // Calling updateRollout logs the reason when a failure occurs, so in that case we just need to throw here
+        if (!updateRollout(run, workspace, listener)) {
+            throw new AbortException("Rollout update failed");
+        }
+    }
+
+    private boolean updateRollout(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull TaskListener listener)
+            throws IOException, InterruptedException {
+        final PrintStream logger = listener.getLogger();
+
+        // Expand the configuration once, as it's used both when validating it, and when updating the rollout
+        expandAll(getGoogleCredentialsId(), getApplicationId(), getTrackName(), getRolloutAction(),
+                getRolloutPercentage(), getRolloutSchedule(), getScheduleIntervalHours());
+
+        // Check that the job has been configured correctly
+        if (!isConfigValid(logger)) {
+            return false;
+        }
+
+        // Within a withGooglePlayEdit block, the change won't be applied until the block completes successfully
+        final String applicationId = getExpandedApplicationId();
+        final String trackName = getExpandedTrackName();
+        final String credentialsId = expand(getGoogleCredentialsId());
+        final String sharedEditId;
+        try {
+            sharedEditId = getSharedEditId(applicationId);
+        } catch (UploadException e) {
+            logger.println(String.format("Rollout update failed: %s", getPublisherErrorMessage(e)));
+            return false;
+        }
+
+        // Update the rollout of the release currently being staged
+        final List<Long> versionCodes;
+        try {
+            GoogleRobotCredentials credentials = getCredentialsHandler().getServiceAccountCredentials(run.getParent());
+            RolloutUpdateTask task = new RolloutUpdateTask(listener, credentials, applicationId, trackName,
+                    getExpandedRolloutAction(), getExpandedRolloutPercentage(), null);
+            task.useSharedEdit(sharedEditId);
+            task.useCommitModeRecord(CommitModeRecord.get().createRecorder(applicationId, workspace.getChannel()));
+            versionCodes = workspace.act(task);
+        } catch (UploadException e) {
+            logger.println(String.format("Rollout update failed: %s", getPublisherErrorMessage(e)));
+            logger.println("No changes have been applied to the Google Play account");
+            return false;
+        }
+        if (versionCodes == null) {
+            logger.println("No changes have been applied to the Google Play account");
+            return false;
+        }
+
+        // Hand the remaining steps over to the controller, so this build doesn't need to wait around
+        final List<Double> schedule = getExpandedRolloutSchedule();
+        final long intervalMillis = (long) (getExpandedScheduleIntervalHours() * TimeUnit.HOURS.toMillis(1));
+        final Item item = run.getParent();
+        final StagedRolloutScheduler scheduler = StagedRolloutScheduler.get();
+        final SharedEditContext.CommitListener updateSchedule = it -> updateSchedule(it, scheduler, item,
+                credentialsId, applicationId, trackName, versionCodes, schedule, intervalMillis);
+        if (sharedEditId == null) {
+            updateSchedule.onCommitted(logger);
+        } else {
+            // If the edit is discarded, the existing schedule remains, and there's nothing new to schedule
+            SharedEditContext.addCommitListener(run, applicationId, updateSchedule);
+            if (schedule != null && !schedule.isEmpty()) {
+                logger.println("The rollout schedule will be set up once the withGooglePlayEdit block's changes " +
+                        "have been applied");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces any rollout schedule for the given track with the given one, once the rollout has been updated.
+     * <p>
+     * The existing schedule is only cancelled here, so that it remains in place if the update fails.
+     */
+    private static void updateSchedule(PrintStream logger, StagedRolloutScheduler scheduler, Item item,
+                                       String credentialsId, String applicationId, String trackName,
+                                       List<Long> versionCodes, @Nullable List<Double> schedule,
+                                       long intervalMillis) {
+        // Any previously-scheduled steps for this track are superseded by this change
+        if (scheduler.cancel(applicationId, trackName)) {
+            logger.printf("Cancelled the previously-scheduled rollout steps for track '%s'%n", trackName);
+        }
+        if (schedule == null || schedule.isEmpty()) {
+            return;
+        }
+        final Date nextStep = scheduler.schedule(item, credentialsId, applicationId, trackName, versionCodes,
+                schedule, intervalMillis);
+        final List<String> steps = new ArrayList<>();
+        schedule.forEach(it -> steps.add(PERCENTAGE_FORMATTER.format(it) + "%"));
+        logger.printf("Scheduled the rollout to be increased to %s, with the first step at %s%n",
+                join(steps, ", "), nextStep);
+    }
+
+    @Symbol("androidRolloutUpdate")
+    @Extension
+    public static final class DescriptorImpl extends GooglePlayBuildStepDescriptor<Builder> {
+        public static final String defaultRolloutAction = "update";
+        public static final double defaultScheduleIntervalHours = 24;
+
+        public String getDisplayName() {
+            return "Update the staged rollout of an Android app release";
+        }
+
+        public ListBoxModel doFillRolloutActionItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add("Update rollout percentage", "update");
+            items.add("Halt rollout", "halt");
+            items.add("Resume halted rollout", "resume");
+            items.add("Complete rollout", "complete");
+            return items;
+        }
+
+        @Override
+        public FormValidation doCheckRolloutPercentage(@QueryParameter String value) {
+            // A percentage is only required when updating the rollout, which is checked at build time
+            if (fixEmptyAndTrim(value) == null) {
+                return FormValidation.ok();
+            }
+            return super.doCheckRolloutPercentage(value);
+        }
+
+    }
+
+}
@@ -0,0 +1,155 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.model.TaskListener;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static hudson.Util.join;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.PERCENTAGE_FORMATTER;
+
+/**
+ * Changes the rollout of the release currently being staged on a track, without assigning any new version codes.
+ * <p>
+ * Only the track itself is read from Google Play, and only the status and user fraction of its staged release are
+ * modified; app files and other tracks are not inspected, since nothing about the release contents changes.
+ */
+class RolloutUpdateTask extends AbstractPublisherTask<List<Long>> {
+
+    enum Action {
+        /** Changes the percentage of users who receive the release being rolled out. */
+        UPDATE,
+        /** Stops the release being rolled out from reaching any further users. */
+        HALT,
+        /** Continues rolling out a halted release. */
+        RESUME,
+        /** Makes the release being rolled out available to all users. */
+        COMPLETE
+    }
+
+    private final String trackName;
+    private final Action action;
+    private final double rolloutFraction;
+    private final List<Long> expectedVersionCodes;
+
+    /**
+     * @param rolloutPercentage The new rollout percentage; only used for the {@link Action#UPDATE} action.
+     * @param expectedVersionCodes If set, the rollout will only be changed if the staged release still contains exactly
+     *                             these version codes, i.e. it hasn't been replaced since the rollout was scheduled.
+     */
+    RolloutUpdateTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId,
+                      String trackName, Action action, double rolloutPercentage,
+                      @Nullable List<Long> expectedVersionCodes) {
+        super(listener, credentials, applicationId);
+        this.trackName = trackName;
+        this.action = action;
+        this.rolloutFraction = rolloutPercentage / 100d;
+        this.expectedVersionCodes = expectedVersionCodes == null ? null : new ArrayList<>(expectedVersionCodes);
+    }
+
+    /** @return The version codes of the release whose rollout was changed, or {@code null} if nothing was changed. */
+    @Override
+    protected List<Long> execute() throws IOException, InterruptedException {
+        // Open an edit via the Google Play API, thereby ensuring that our credentials etc. are working
+        logger.println(String.format("Authenticating to Google Play API...%n- Credential:     %s%n- Application ID: %s",
+                getCredentialName(), applicationId));
+        createEdit(applicationId);
+
+        // We only need the one track; there's no need to list app files, as the release contents won't change
+        final Track track = AsyncPublisherClient.executeBlocking(
+                editService.tracks().get(applicationId, editId, trackName));
+        final TrackRelease release = findStagedRelease(track);
+        if (release == null) {
+            logger.printf("Release track '%s' has no %s release whose rollout could be changed%n",
+                    trackName, action == Action.RESUME ? "halted" : "staged");
+            return null;
+        }
+        final List<Long> versionCodes = release.getVersionCodes();
+        if (expectedVersionCodes != null && (versionCodes == null
+                || !new HashSet<>(versionCodes).equals(new HashSet<>(expectedVersionCodes)))) {
+            logger.printf("The release being rolled out on track '%s' has changed since this rollout was scheduled%n" +
+                    "- Expected version codes: %s%n- Current version codes:  %s%n", trackName,
+                    join(expectedVersionCodes, ", "), versionCodes == null ? "(none)" : join(versionCodes, ", "));
+            return null;
+        }
+
+        // Modify only the status and user fraction of the staged release
+        final String previousStatus = release.getStatus();
+        final Double previousFraction = release.getUserFraction();
+        switch (action) {
+            case UPDATE:
+                if (Double.compare(rolloutFraction, 1) < 0) {
+                    release.setUserFraction(rolloutFraction);
+                    break;
+                }
+                // Rolling out to 100% of users is the same thing as completing the rollout
+            case COMPLETE:
+                release.setStatus("completed").setUserFraction(null);
+                // There can only be one completed release on a track, so the previous one has to be dropped
+                track.setReleases(track.getReleases().stream()
+                        .filter(it -> it == release || !"completed".equals(it.getStatus()))
+                        .collect(Collectors.toList()));
+                break;
+            case HALT:
+                release.setStatus("halted");
+                break;
+            case RESUME:
+                release.setStatus("inProgress");
+                break;
+        }
+
+        // Log what's happening
+        logger.printf("Updating staged rollout on release track '%s':%n", trackName);
+        logger.printf("- Application ID: %s%n", applicationId);
+        logger.printf("- Version codes:  %s%n", versionCodes == null ? "(none)" : join(versionCodes, ", "));
+        logger.printf("- Status:         %s → %s%n", previousStatus, release.getStatus());
+        logger.printf("- Staged rollout: %s → %s%n%n", formatFraction(previousFraction),
+                formatFraction(release.getUserFraction()));
+
+        // Update the track and apply the changes
+        AsyncPublisherClient.executeBlocking(editService.tracks().update(applicationId, editId, trackName, track));
+        commit();
+        return versionCodes == null ? new ArrayList<>() : new ArrayList<>(versionCodes);
+    }
+
+    /** @return The release on the given track whose rollout can be changed by this task's action, if any. */
+    @Nullable
+    private TrackRelease findStagedRelease(Track track) {
+        if (track == null || track.getReleases() == null) {
+            return null;
+        }
+        final List<String> statuses;
+        switch (action) {
+            case RESUME:
+                statuses = Collections.singletonList("halted");
+                break;
+            case COMPLETE:
+                statuses = Arrays.asList("inProgress", "halted");
+                break;
+            default:
+                statuses = Collections.singletonList("inProgress");
+                break;
+        }
+        return track.getReleases().stream()
+                .filter(it -> statuses.contains(it.getStatus()))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static String formatFraction(@Nullable Double fraction) {
+        if (fraction == null) {
+            return "(none)";
+        }
+        return PERCENTAGE_FORMATTER.format(fraction * 100) + "%";
+    }
+
+}
@@ -0,0 +1,187 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.Launcher;
+import hudson.LauncherDecorator;
+import hudson.model.Node;
+import hudson.model.Run;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The edits opened by the {@link GooglePlayEditStep} blocks enclosing a Pipeline step, so that the Google Play steps
+ * within those blocks make their changes in the shared edit, rather than each opening their own.
+ * <p>
+ * Each block passes this to its body as a context object, so that only the steps within the block — and not those
+ * running in parallel elsewhere in the build — use the edit, and so that it's retained if Jenkins restarts.
+ * As Pipeline only passes a {@link Launcher} to build steps, rather than the context itself, the edits are also made
+ * available via a {@link LauncherDecorator}.
+ * <p>
+ * What should happen once each edit has been committed is only kept in memory, as it can't be saved along with the
+ * Pipeline.
+ */
+final class SharedEditContext implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    /** The listeners waiting for each open edit to be committed, by the build and application the edit belongs to. */
+    private static final Map<String, List<CommitListener>> COMMIT_LISTENERS = new HashMap<>();
+
+    /** The edits opened by the enclosing blocks, by application ID. */
+    private final Map<String, SharedEdit> edits;
+
+    SharedEditContext() {
+        this(Collections.emptyMap());
+    }
+
+    private SharedEditContext(Map<String, SharedEdit> edits) {
+        this.edits = edits;
+    }
+
+    /** @return A copy of this context which also includes the given edit. */
+    SharedEditContext with(String applicationId, String credentialsId, String editId) {
+        final Map<String, SharedEdit> edits = new HashMap<>(this.edits);
+        edits.put(applicationId, new SharedEdit(credentialsId, editId));
+        return new SharedEditContext(edits);
+    }
+
+    /** @return Whether an enclosing block has opened an edit for the given application. */
+    boolean contains(String applicationId) {
+        return edits.containsKey(applicationId);
+    }
+
+    /** @return A launcher decorator which makes these edits available to the build steps within the block. */
+    LauncherDecorator createLauncherDecorator() {
+        return new Decorator(this);
+    }
+
+    /** @return Whether a block has already opened an edit for the given application, anywhere in the given build. */
+    static boolean isOpen(Run<?, ?> run, String applicationId) {
+        synchronized (COMMIT_LISTENERS) {
+            return COMMIT_LISTENERS.containsKey(getKey(run, applicationId));
+        }
+    }
+
+    /**
+     * Registers an edit opened for the given application, so that steps within the block can wait for it to be
+     * committed.
+     *
+     * @return {@code false} if an edit was already registered for the application, in which case nothing changes.
+     */
+    static boolean register(Run<?, ?> run, String applicationId) {
+        synchronized (COMMIT_LISTENERS) {
+            return COMMIT_LISTENERS.putIfAbsent(getKey(run, applicationId), new ArrayList<>()) == null;
+        }
+    }
+
+    /**
+     * Removes the edit registered for the given application, once it has been committed or discarded.
+     *
+     * @return The listeners which were waiting for the edit to be committed.
+     */
+    static List<CommitListener> unregister(Run<?, ?> run, String applicationId) {
+        synchronized (COMMIT_LISTENERS) {
+            final List<CommitListener> listeners = COMMIT_LISTENERS.remove(getKey(run, applicationId));
+            return listeners == null ? Collections.emptyList() : listeners;
+        }
+    }
+
+    /**
+     * Registers something which should only happen once the changes made within the shared edit for the given
+     * application have actually been applied; if the edit is discarded, the listener is dropped without being called.
+     */
+    static void addCommitListener(Run<?, ?> run, String applicationId, CommitListener listener) {
+        synchronized (COMMIT_LISTENERS) {
+            final List<CommitListener> listeners = COMMIT_LISTENERS.get(getKey(run, applicationId));
+            if (listeners == null) {
+                throw new IllegalStateException("No edit is open for " + applicationId);
+            }
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * @param launcher The launcher passed to a Google Play build step.
+     * @param applicationId The application which the step is going to change.
+     * @param credentialsId The ID of the credentials which the step is using.
+     * @return The ID of the shared edit which the step should use, or {@code null} if it should open its own edit.
+     * @throws CredentialsException If the shared edit was opened with different credentials.
+     */
+    @Nullable
+    static String getEditId(@Nullable Launcher launcher, String applicationId, @Nullable String credentialsId)
+            throws CredentialsException {
+        // The launcher may have been decorated further within the block, e.g. to run commands in a container
+        while (launcher instanceof Launcher.DecoratedLauncher && !(launcher instanceof SharedEditLauncher)) {
+            launcher = ((Launcher.DecoratedLauncher) launcher).getInner();
+        }
+        if (!(launcher instanceof SharedEditLauncher)) {
+            return null;
+        }
+
+        final SharedEdit edit = ((SharedEditLauncher) launcher).context.edits.get(applicationId);
+        if (edit == null) {
+            return null;
+        }
+        if (!edit.credentialsId.equals(credentialsId)) {
+            throw new CredentialsException(String.format("The edit for '%s' was opened by withGooglePlayEdit using " +
+                    "the credential '%s'; steps within that block must use the same credential", applicationId,
+                    edit.credentialsId));
+        }
+        return edit.editId;
+    }
+
+    private static String getKey(Run<?, ?> run, String applicationId) {
+        return run.getExternalizableId() + '/' + applicationId;
+    }
+
+    /** Something to be done once a shared edit has been committed. */
+    interface CommitListener {
+        void onCommitted(PrintStream logger);
+    }
+
+    private static final class SharedEdit implements Serializable {
+        private static final long serialVersionUID = 1;
+
+        private final String credentialsId;
+        private final String editId;
+
+        SharedEdit(String credentialsId, String editId) {
+            this.credentialsId = credentialsId;
+            this.editId = editId;
+        }
+    }
+
+    private static final class Decorator extends LauncherDecorator implements Serializable {
+        private static final long serialVersionUID = 1;
+
+        private final SharedEditContext context;
+
+        Decorator(SharedEditContext context) {
+            this.context = context;
+        }
+
+        @Nonnull
+        @Override
+        public Launcher decorate(@Nonnull Launcher launcher, @Nonnull Node node) {
+            return new SharedEditLauncher(launcher, context);
+        }
+    }
+
+    /** Launches processes as usual, but carries the edits for the build steps run with it. */
+    private static final class SharedEditLauncher extends Launcher.DecoratedLauncher {
+        private final SharedEditContext context;
+
+        SharedEditLauncher(Launcher inner, SharedEditContext context) {
+            super(inner);
+            this.context = context;
+        }
+    }
+
+}
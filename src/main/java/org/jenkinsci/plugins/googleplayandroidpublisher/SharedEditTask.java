@@ -0,0 +1,49 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.model.TaskListener;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Opens, commits or discards the edit shared by the steps within a {@link GooglePlayEditStep} block.
+ * <p>
+ * This is called directly on the Jenkins controller, rather than on the build agent.
+ */
+class SharedEditTask extends AbstractPublisherTask<String> {
+
+    enum Action {
+        OPEN, COMMIT, DISCARD
+    }
+
+    private final Action action;
+
+    SharedEditTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId, Action action,
+                   @Nullable String editId) {
+        super(listener, credentials, applicationId);
+        this.action = action;
+        this.editId = editId;
+    }
+
+    /** @return The ID of the edit which was opened, or {@code null} if an existing edit was committed or discarded. */
+    @Override
+    protected String execute() throws IOException, InterruptedException {
+        switch (action) {
+            case OPEN:
+                logger.println(String.format("Opening an edit on Google Play...%n- Credential:     %s%n" +
+                        "- Application ID: %s", getCredentialName(), applicationId));
+                createEdit(applicationId);
+                return editId;
+            case COMMIT:
+                commit();
+                return null;
+            case DISCARD:
+                deleteEdit();
+                logger.println("No changes have been applied to the Google Play account");
+                return null;
+        }
+        throw new IllegalStateException("Unknown action: " + action);
+    }
+
+}
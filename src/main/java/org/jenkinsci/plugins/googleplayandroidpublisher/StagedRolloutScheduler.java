@@ -0,0 +1,250 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Item;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.LogTaskListener;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.PERCENTAGE_FORMATTER;
+
+/**
+ * Steps staged rollouts through a schedule of increasing percentages in the background on the Jenkins controller,
+ * so that no build has to keep running, and occupying an executor, in between each step.
+ * <p>
+ * Schedules are persisted to disk, so they will continue after Jenkins restarts.
+ * <p>
+ * Each step makes blocking requests to Google Play, so steps run on a thread of their own, rather than on the timer
+ * shared by the rest of Jenkins.
+ */
+final class StagedRolloutScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(StagedRolloutScheduler.class.getName());
+
+    /** How many times in a row a step may fail, e.g. due to connectivity problems, before the schedule is dropped. */
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+    private static final StagedRolloutScheduler INSTANCE = new StagedRolloutScheduler();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "GooglePlayPublisher.StagedRolloutScheduler"));
+
+    private final List<ScheduledRollout> rollouts = new ArrayList<>();
+
+    private StagedRolloutScheduler() {
+        // Singleton
+    }
+
+    static StagedRolloutScheduler get() {
+        return INSTANCE;
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    @SuppressWarnings("unused")
+    public static void init() {
+        INSTANCE.load();
+    }
+
+    /**
+     * Schedules the rollout of the release currently being staged on a track to be increased step-by-step, replacing
+     * any existing schedule for the same track.
+     *
+     * @param versionCodes The version codes of the staged release; if the release changes, the schedule is cancelled.
+     * @param percentages The rollout percentages to be applied, in order.
+     * @param intervalMillis How long to wait before applying each of the percentages.
+     * @return The time at which the first step will be applied.
+     */
+    synchronized Date schedule(@Nonnull Item item, String credentialsId, String applicationId, String trackName,
+                               List<Long> versionCodes, List<Double> percentages, long intervalMillis) {
+        cancel(applicationId, trackName);
+        ScheduledRollout rollout = new ScheduledRollout(item.getFullName(), credentialsId, applicationId, trackName,
+                versionCodes, percentages, intervalMillis);
+        rollout.nextStepTime = System.currentTimeMillis() + intervalMillis;
+        rollouts.add(rollout);
+        save();
+        scheduleNextStep(rollout);
+        return new Date(rollout.nextStepTime);
+    }
+
+    /**
+     * Cancels any scheduled rollout steps for the given track.
+     *
+     * @return {@code true} if a schedule existed.
+     */
+    synchronized boolean cancel(String applicationId, String trackName) {
+        boolean removed = rollouts.removeIf(it -> it.isFor(applicationId, trackName));
+        if (removed) {
+            save();
+        }
+        return removed;
+    }
+
+    private void scheduleNextStep(ScheduledRollout rollout) {
+        long delay = Math.max(0, rollout.nextStepTime - System.currentTimeMillis());
+        executor.schedule(() -> runNextStep(rollout), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void runNextStep(ScheduledRollout rollout) {
+        final double percentage;
+        synchronized (this) {
+            // The schedule may have been cancelled or replaced in the meantime
+            if (!rollouts.contains(rollout)) {
+                return;
+            }
+            percentage = rollout.percentages.get(0);
+        }
+
+        LOGGER.info(String.format("Increasing rollout of %s on track '%s' to %s%%", rollout.applicationId,
+                rollout.trackName, PERCENTAGE_FORMATTER.format(percentage)));
+        List<Long> versionCodes;
+        try (ACLContext ignored = ACL.as(ACL.SYSTEM)) {
+            Item item = Jenkins.get().getItemByFullName(rollout.itemFullName);
+            if (item == null) {
+                LOGGER.warning(String.format("Cancelling scheduled rollout of %s on track '%s', as the job '%s' " +
+                        "no longer exists", rollout.applicationId, rollout.trackName, rollout.itemFullName));
+                finish(rollout);
+                return;
+            }
+            GoogleRobotCredentials credentials =
+                    new CredentialsHandler(rollout.credentialsId).getServiceAccountCredentials(item);
+            RolloutUpdateTask task = new RolloutUpdateTask(new LogTaskListener(LOGGER, Level.INFO), credentials,
+                    rollout.applicationId, rollout.trackName, RolloutUpdateTask.Action.UPDATE, percentage,
+                    rollout.versionCodes);
+            task.useCommitModeRecord(CommitModeRecord.get().createRecorder(rollout.applicationId, null));
+            versionCodes = task.call();
+        } catch (UploadException e) {
+            LOGGER.log(Level.WARNING, String.format("Failed to update rollout of %s on track '%s': %s",
+                    rollout.applicationId, rollout.trackName, Util.getPublisherErrorMessage(e)));
+            retryLater(rollout);
+            return;
+        } catch (RuntimeException e) {
+            // Nothing else would log this, as the executor swallows exceptions thrown by scheduled tasks
+            LOGGER.log(Level.WARNING, String.format("Failed to update rollout of %s on track '%s'",
+                    rollout.applicationId, rollout.trackName), e);
+            retryLater(rollout);
+            return;
+        }
+
+        // If the release was halted, completed or replaced in the meantime, there's nothing more to do
+        if (versionCodes == null) {
+            LOGGER.info(String.format("Cancelling scheduled rollout of %s on track '%s', as the release being " +
+                    "rolled out has changed", rollout.applicationId, rollout.trackName));
+            finish(rollout);
+            return;
+        }
+
+        synchronized (this) {
+            if (!rollouts.contains(rollout)) {
+                return;
+            }
+            rollout.failureCount = 0;
+            rollout.percentages.remove(0);
+            if (rollout.percentages.isEmpty() || Double.compare(percentage, 100) >= 0) {
+                rollouts.remove(rollout);
+                save();
+                return;
+            }
+            rollout.nextStepTime = System.currentTimeMillis() + rollout.intervalMillis;
+            save();
+            scheduleNextStep(rollout);
+        }
+    }
+
+    private synchronized void retryLater(ScheduledRollout rollout) {
+        if (!rollouts.contains(rollout)) {
+            return;
+        }
+        if (++rollout.failureCount >= MAX_CONSECUTIVE_FAILURES) {
+            LOGGER.warning(String.format("Cancelling scheduled rollout of %s on track '%s' after %d failed attempts",
+                    rollout.applicationId, rollout.trackName, rollout.failureCount));
+            finish(rollout);
+            return;
+        }
+        rollout.nextStepTime = System.currentTimeMillis() + rollout.intervalMillis;
+        save();
+        scheduleNextStep(rollout);
+    }
+
+    private synchronized void finish(ScheduledRollout rollout) {
+        if (rollouts.remove(rollout)) {
+            save();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void load() {
+        rollouts.clear();
+        XmlFile file = getConfigFile();
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            rollouts.addAll((List<ScheduledRollout>) file.read());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load scheduled rollouts from " + file, e);
+            return;
+        }
+        rollouts.forEach(this::scheduleNextStep);
+    }
+
+    private synchronized void save() {
+        XmlFile file = getConfigFile();
+        try {
+            file.write(new ArrayList<>(rollouts));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save scheduled rollouts to " + file, e);
+        }
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM2,
+                new File(Jenkins.get().getRootDir(), StagedRolloutScheduler.class.getName() + ".xml"));
+    }
+
+    /** A staged rollout whose percentage should be increased in future. */
+    static final class ScheduledRollout {
+        private final String itemFullName;
+        private final String credentialsId;
+        private final String applicationId;
+        private final String trackName;
+        private final List<Long> versionCodes;
+        private final List<Double> percentages;
+        private final long intervalMillis;
+        private long nextStepTime;
+        private int failureCount;
+
+        ScheduledRollout(String itemFullName, String credentialsId, String applicationId, String trackName,
+                         List<Long> versionCodes, List<Double> percentages, long intervalMillis) {
+            this.itemFullName = itemFullName;
+            this.credentialsId = credentialsId;
+            this.applicationId = applicationId;
+            this.trackName = trackName;
+            this.versionCodes = new ArrayList<>(versionCodes);
+            this.percentages = new ArrayList<>(percentages);
+            this.intervalMillis = intervalMillis;
+        }
+
+        boolean isFor(String applicationId, String trackName) {
+            return this.applicationId.equals(applicationId) && this.trackName.equals(trackName);
+        }
+    }
+
+}
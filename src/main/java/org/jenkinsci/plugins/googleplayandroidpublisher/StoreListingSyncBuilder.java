@@ -0,0 +1,134 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.Builder;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static hudson.Util.fixEmptyAndTrim;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+
+/** Updates the store listing text and images on Google Play to match those in the workspace. */
+public class StoreListingSyncBuilder extends GooglePlayBuilder {
+
+    private String applicationId;
+    private String metadataDirectory;
+
+    @DataBoundConstructor
+    public StoreListingSyncBuilder() {
+        // No parameters here are mandatory, though the credentials in the parent class are
+    }
+
+    @DataBoundSetter
+    public void setApplicationId(String applicationId) {
+        this.applicationId = applicationId;
+    }
+
+    @Nullable
+    public String getApplicationId() {
+        return fixEmptyAndTrim(applicationId);
+    }
+
+    @DataBoundSetter
+    public void setMetadataDirectory(String metadataDirectory) {
+        this.metadataDirectory = metadataDirectory;
+    }
+
+    public String getMetadataDirectory() {
+        return fixEmptyAndTrim(metadataDirectory);
+    }
+
+    private String getExpandedApplicationId() throws IOException, InterruptedException {
+        return expand(getApplicationId());
+    }
+
+    private String getExpandedMetadataDirectory() throws IOException, InterruptedException {
+        String dir = expand(getMetadataDirectory());
+        return dir == null ? DescriptorImpl.defaultMetadataDirectory : dir;
+    }
+
+    private boolean isConfigValid(PrintStream logger, FilePath workspace) throws IOException, InterruptedException {
+        final List<String> errors = new ArrayList<>();
+
+        if (getExpandedApplicationId() == null) {
+            errors.add("No application ID was specified");
+        }
+        if (!workspace.child(getExpandedMetadataDirectory()).isDirectory()) {
+            errors.add(String.format("The metadata directory '%s' could not be found",
+                    getExpandedMetadataDirectory()));
+        }
+
+        // Print accumulated errors
+        if (!errors.isEmpty()) {
+            logger.println("Cannot make changes to Google Play:");
+            for (String error : errors) {
+                logger.print("- ");
+                logger.println(error);
+            }
+        }
+
+        return errors.isEmpty();
+    }
+
+    @Override
+    public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull Launcher launcher,
+                        @Nonnull TaskListener listener) throws InterruptedException, IOException {
+        super.perform(run, workspace, launcher, listener);
+
+        // Calling syncListings logs the reason when a failure occurs, so in that case we just need to throw here
+        if (!syncListings(run, workspace, listener)) {
+            throw new AbortException("Store listing update failed");
+        }
+    }
+
+    private boolean syncListings(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull TaskListener listener)
+            throws IOException, InterruptedException {
+        final PrintStream logger = listener.getLogger();
+
+        // Check that the job has been configured correctly
+        expandAll(getGoogleCredentialsId(), getApplicationId(), getMetadataDirectory());
+        if (!isConfigValid(logger, workspace)) {
+            return false;
+        }
+
+        final String applicationId = getExpandedApplicationId();
+        try {
+            GoogleRobotCredentials credentials = getCredentialsHandler().getServiceAccountCredentials(run.getParent());
+            StoreListingSyncTask task = new StoreListingSyncTask(listener, credentials, applicationId,
+                    workspace.child(getExpandedMetadataDirectory()));
+            task.useSharedEdit(getSharedEditId(applicationId));
+            task.useCommitModeRecord(CommitModeRecord.get().createRecorder(applicationId, workspace.getChannel()));
+            return workspace.act(task);
+        } catch (UploadException e) {
+            logger.println(String.format("Store listing update failed: %s", getPublisherErrorMessage(e)));
+            logger.println("No changes have been applied to the Google Play account");
+            return false;
+        }
+    }
+
+    @Symbol("androidStoreListingSync")
+    @Extension
+    public static final class DescriptorImpl extends GooglePlayBuildStepDescriptor<Builder> {
+        public static final String defaultMetadataDirectory = "fastlane/metadata/android";
+
+        public String getDisplayName() {
+            return "Update Android app store listings on Google Play";
+        }
+
+    }
+
+}
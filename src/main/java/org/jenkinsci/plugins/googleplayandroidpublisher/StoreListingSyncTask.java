@@ -0,0 +1,291 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.client.http.FileContent;
+import com.google.api.services.androidpublisher.model.Image;
+import com.google.api.services.androidpublisher.model.ImagesListResponse;
+import com.google.api.services.androidpublisher.model.Listing;
+import com.google.api.services.androidpublisher.model.ListingsListResponse;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+import static hudson.Util.join;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.SUPPORTED_LANGUAGES;
+
+/**
+ * Updates the store listing text and images on Google Play to match a directory laid out like fastlane metadata, i.e.
+ * with a directory per language containing {@code title.txt}, {@code short_description.txt}, {@code images/icon.png},
+ * {@code images/phoneScreenshots/1.png} etc.
+ * <p>
+ * Only text which differs is updated, and only images whose SHA-1 hash doesn't match one of the existing images of the
+ * same type are uploaded; existing images which no longer exist locally are deleted. If nothing differs, the edit is
+ * discarded without being committed.
+ * <p>
+ * New screenshots are added after the existing ones, i.e. screenshots which already exist aren't re-ordered.
+ */
+class StoreListingSyncTask extends AbstractPublisherTask<Boolean> {
+
+    /** The listing text files, mapped to the name of the corresponding listing field. */
+    private static final String[][] TEXT_FILES = {
+        {"title.txt", "title"},
+        {"short_description.txt", "shortDescription"},
+        {"full_description.txt", "fullDescription"},
+        {"video.txt", "video"},
+    };
+
+    /** Image types of which there can only be one per language, read from e.g. {@code images/icon.png}. */
+    private static final String[] SINGLE_IMAGE_TYPES = {"icon", "featureGraphic", "promoGraphic", "tvBanner"};
+
+    /** Image types of which there can be several per language, read from e.g. {@code images/phoneScreenshots/}. */
+    private static final String[] MULTIPLE_IMAGE_TYPES = {
+        "phoneScreenshots", "sevenInchScreenshots", "tenInchScreenshots", "tvScreenshots", "wearScreenshots"
+    };
+
+    private static final String[] IMAGE_EXTENSIONS = {".png", ".jpg", ".jpeg"};
+
+    private final FilePath metadataDirectory;
+
+    StoreListingSyncTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId,
+                         FilePath metadataDirectory) {
+        super(listener, credentials, applicationId);
+        this.metadataDirectory = metadataDirectory;
+    }
+
+    @Override
+    protected Boolean execute() throws IOException, InterruptedException, UploadException {
+        // Read and hash everything locally first, so that we don't open an edit if there's a problem
+        final List<LocalListing> localListings = readLocalListings(new File(metadataDirectory.getRemote()));
+        if (localListings.isEmpty()) {
+            logger.println(String.format("No store listings were found in '%s'", metadataDirectory.getRemote()));
+            return false;
+        }
+
+        logger.println(String.format("Updating store listings for %s in %d language(s)...", applicationId,
+                localListings.size()));
+        createEdit(applicationId);
+
+        // Fetch the existing listings, and the existing images of each type we have locally, in as few requests
+        // as possible
+        final RequestBatch fetches = new RequestBatch();
+        final RequestBatch.Item<ListingsListResponse> existingListings =
+                fetches.queue(editService.listings().list(applicationId, editId));
+        final Map<LocalListing, Map<String, RequestBatch.Item<ImagesListResponse>>> existingImages = new HashMap<>();
+        for (LocalListing listing : localListings) {
+            final Map<String, RequestBatch.Item<ImagesListResponse>> images = new HashMap<>();
+            for (String imageType : listing.images.keySet()) {
+                images.put(imageType, fetches.queue(editService.images()
+                        .list(applicationId, editId, listing.language, imageType)
+                        .setFields("images(id,sha1)")));
+            }
+            existingImages.put(listing, images);
+        }
+        fetches.execute();
+
+        final Map<String, Listing> listingsByLanguage = new HashMap<>();
+        final List<Listing> listings = existingListings.get().getListings();
+        if (listings != null) {
+            listings.forEach(it -> listingsByLanguage.put(it.getLanguage(), it));
+        }
+
+        // Work out what has changed
+        final RequestBatch updates = new RequestBatch();
+        final List<ImageUpload> uploads = new ArrayList<>();
+        int textChanges = 0;
+        int deletions = 0;
+        for (LocalListing local : localListings) {
+            final Listing changes = getChangedText(local, listingsByLanguage.get(local.language));
+            if (changes != null) {
+                logger.println(String.format("- %s: updating %s", local.language, join(changes.keySet(), ", ")));
+                updates.queue(editService.listings().patch(applicationId, editId, local.language, changes));
+                textChanges++;
+            }
+
+            for (Map.Entry<String, Map<String, File>> entry : local.images.entrySet()) {
+                final String imageType = entry.getKey();
+                final Map<String, File> localImages = entry.getValue();
+                final List<Image> remoteImages = existingImages.get(local).get(imageType).get().getImages();
+                final Map<String, String> remoteIds = new HashMap<>();
+                if (remoteImages != null) {
+                    remoteImages.forEach(it -> remoteIds.put(it.getSha1(), it.getId()));
+                }
+
+                // Single images are replaced by uploading, so only screenshots need to be deleted explicitly
+                final boolean isSingleImage = Arrays.asList(SINGLE_IMAGE_TYPES).contains(imageType);
+                for (Map.Entry<String, String> remote : remoteIds.entrySet()) {
+                    if (!isSingleImage && !localImages.containsKey(remote.getKey())) {
+                        updates.queue(editService.images()
+                                .delete(applicationId, editId, local.language, imageType, remote.getValue()));
+                        deletions++;
+                    }
+                }
+                localImages.forEach((sha1, file) -> {
+                    if (!remoteIds.containsKey(sha1)) {
+                        uploads.add(new ImageUpload(local.language, imageType, file));
+                    }
+                });
+            }
+        }
+
+        // If nothing has changed, there's no need to commit anything
+        if (textChanges == 0 && deletions == 0 && uploads.isEmpty()) {
+            deleteEdit();
+            logger.println("The store listings on Google Play are already up to date");
+            return true;
+        }
+
+        // Apply the text changes and remove old images first, as there's a limit on how many images there can be
+        if (deletions > 0) {
+            logger.println(String.format("- Deleting %d image(s) which no longer exist locally", deletions));
+        }
+        updates.execute();
+
+        // Upload the new images in parallel; the number of requests in flight is bounded by the shared client
+        if (!uploads.isEmpty()) {
+            logger.println(String.format("- Uploading %d new or changed image(s)", uploads.size()));
+        }
+        final List<CompletableFuture<?>> pendingUploads = new ArrayList<>();
+        for (ImageUpload upload : uploads) {
+            final FileContent content = new FileContent(getMimeType(upload.file), upload.file);
+            pendingUploads.add(AsyncPublisherClient.execute(editService.images()
+                    .upload(applicationId, editId, upload.language, upload.imageType, content)));
+        }
+        try {
+            for (CompletableFuture<?> upload : pendingUploads) {
+                AsyncPublisherClient.await(upload);
+            }
+        } catch (IOException | InterruptedException e) {
+            pendingUploads.forEach(it -> it.cancel(true));
+            throw e;
+        }
+        logger.println(String.format("Updated the text of %d listing(s), deleted %d image(s), and uploaded %d " +
+                "image(s)", textChanges, deletions, uploads.size()));
+
+        commit();
+        return true;
+    }
+
+    /** @return A listing containing only the local text which differs from the existing listing, if any. */
+    @Nullable
+    private static Listing getChangedText(LocalListing local, @Nullable Listing existing) {
+        final Listing changes = new Listing();
+        local.text.forEach((field, value) -> {
+            final Object existingValue = existing == null ? null : existing.get(field);
+            if (!Objects.equals(value, existingValue == null ? "" : existingValue)) {
+                changes.set(field, value);
+            }
+        });
+        return changes.isEmpty() ? null : changes;
+    }
+
+    /** Reads the listing text, and hashes the images, for each language in the given directory. */
+    static List<LocalListing> readLocalListings(File dir) throws IOException {
+        final List<LocalListing> listings = new ArrayList<>();
+        final File[] languageDirs = dir.listFiles(File::isDirectory);
+        if (languageDirs == null) {
+            return listings;
+        }
+        Arrays.sort(languageDirs);
+        for (File languageDir : languageDirs) {
+            // Ignore anything which isn't a language, e.g. a directory of images shared by all languages
+            if (!Arrays.asList(SUPPORTED_LANGUAGES).contains(languageDir.getName())) {
+                continue;
+            }
+            final LocalListing listing = new LocalListing(languageDir.getName());
+            for (String[] textFile : TEXT_FILES) {
+                final File file = new File(languageDir, textFile[0]);
+                if (file.isFile()) {
+                    listing.text.put(textFile[1],
+                            new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+                }
+            }
+
+            final File imagesDir = new File(languageDir, "images");
+            for (String imageType : SINGLE_IMAGE_TYPES) {
+                for (String extension : IMAGE_EXTENSIONS) {
+                    final File file = new File(imagesDir, imageType + extension);
+                    if (file.isFile()) {
+                        listing.addImage(imageType, file);
+                        break;
+                    }
+                }
+            }
+            for (String imageType : MULTIPLE_IMAGE_TYPES) {
+                final File[] files = new File(imagesDir, imageType).listFiles(StoreListingSyncTask::isImage);
+                if (files != null && files.length > 0) {
+                    Arrays.sort(files);
+                    for (File file : files) {
+                        listing.addImage(imageType, file);
+                    }
+                }
+            }
+
+            if (!listing.text.isEmpty() || !listing.images.isEmpty()) {
+                listings.add(listing);
+            }
+        }
+        return listings;
+    }
+
+    private static boolean isImage(File file) {
+        final String name = file.getName().toLowerCase(Locale.ENGLISH);
+        return file.isFile() && Arrays.stream(IMAGE_EXTENSIONS).anyMatch(name::endsWith);
+    }
+
+    private static String getMimeType(File file) {
+        return file.getName().toLowerCase(Locale.ENGLISH).endsWith(".png") ? "image/png" : "image/jpeg";
+    }
+
+    /** The store listing for a language, as found locally. */
+    static final class LocalListing {
+        final String language;
+
+        /** The text for each listing field. */
+        final Map<String, String> text = new TreeMap<>();
+
+        /** The files of each image type, keyed by their SHA-1 hash, in order. */
+        final Map<String, Map<String, File>> images = new TreeMap<>();
+
+        LocalListing(String language) {
+            this.language = language;
+        }
+
+        void addImage(String imageType, File file) throws IOException {
+            final String sha1;
+            try (FileInputStream content = new FileInputStream(file)) {
+                sha1 = DigestUtils.sha1Hex(content);
+            }
+            images.computeIfAbsent(imageType, it -> new LinkedHashMap<>()).putIfAbsent(sha1, file);
+        }
+    }
+
+    private static final class ImageUpload {
+        private final String language;
+        private final String imageType;
+        private final File file;
+
+        ImageUpload(String language, String imageType, File file) {
+            this.language = language;
+            this.imageType = imageType;
+            this.file = file;
+        }
+    }
+
+}
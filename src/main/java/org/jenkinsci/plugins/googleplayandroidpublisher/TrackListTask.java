@@ -0,0 +1,43 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.ExistingAppFiles.FIELDS_TRACK_NAMES;
+
+/**
+ * Fetches the names of the release tracks which exist for an application, without making any changes.
+ * <p>
+ * As tracks can only be listed within an edit, this opens an edit and then deletes it again, so while nothing is
+ * changed, it does still make requests to Google Play which modify the application's edits.
+ * <p>
+ * This is called directly on the Jenkins controller, rather than on the build agent.
+ */
+class TrackListTask extends AbstractPublisherTask<List<String>> {
+
+    TrackListTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId) {
+        super(listener, credentials, applicationId);
+    }
+
+    @Override
+    protected List<String> execute() throws IOException, InterruptedException {
+        createEdit(applicationId);
+        try {
+            final List<Track> tracks = AsyncPublisherClient.executeBlocking(
+                    editService.tracks().list(applicationId, editId).setFields(FIELDS_TRACK_NAMES)).getTracks();
+            final List<String> trackNames = new ArrayList<>();
+            if (tracks != null) {
+                tracks.forEach(it -> trackNames.add(it.getTrack()));
+            }
+            return trackNames;
+        } finally {
+            deleteEdit();
+        }
+    }
+
+}
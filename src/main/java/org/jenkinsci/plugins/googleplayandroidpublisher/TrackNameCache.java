@@ -0,0 +1,134 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.model.Item;
+import hudson.util.LogTaskListener;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the release tracks which exist on Google Play for each credential and application, so that configuration
+ * forms can suggest custom track names.
+ * <p>
+ * The tracks are fetched in the background, so looking them up never waits for Google Play; until they've been fetched,
+ * nothing is returned. Entries are keyed by the credential which an item's credential ID resolves to, rather than by
+ * the ID itself, as folders can each define a different credential with the same ID. So entries are only shared by
+ * jobs which see the same credential, and they expire after a while, as tracks can be added via the Google Play
+ * Console at any time.
+ */
+final class TrackNameCache {
+
+    private static final Logger LOGGER = Logger.getLogger(TrackNameCache.class.getName());
+
+    /** How long to remember the tracks of an application. */
+    private static final long TTL_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    /** How long to wait before trying again, if the tracks couldn't be fetched. */
+    private static final long FAILURE_TTL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /** How many entries to keep; if this is exceeded, the cache is simply cleared. */
+    private static final int MAX_ENTRIES = 200;
+
+    private static final ExecutorService EXECUTOR =
+            AsyncPublisherClient.newExecutor("GooglePlayPublisher.TrackNames", 2);
+
+    private static final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    private TrackNameCache() {
+    }
+
+    /**
+     * Returns the known track names for the given application, starting to fetch them if necessary.
+     *
+     * @param item The item whose configuration is being edited.
+     * @param credentials The credential which the configured credential ID resolves to for the item.
+     * @return The names of the tracks which exist on Google Play, or {@code null} if they haven't been fetched yet, or
+     *         couldn't be fetched.
+     */
+    @Nullable
+    static List<String> get(Item item, GoogleRobotCredentials credentials, String applicationId) {
+        if (entries.size() >= MAX_ENTRIES) {
+            entries.clear();
+        }
+
+        final Key key = new Key(credentials, applicationId);
+        final long now = System.nanoTime();
+        final Entry entry = entries.compute(key, (k, existing) -> existing != null && !existing.isExpired(now)
+                ? existing : new Entry(item, credentials.getId(), applicationId));
+
+        final CompletableFuture<List<String>> trackNames = entry.trackNames;
+        return trackNames.isDone() && !trackNames.isCompletedExceptionally() ? trackNames.join() : null;
+    }
+
+    /** Forgets all track names, e.g. because credentials may have changed. */
+    static void invalidate() {
+        entries.clear();
+    }
+
+    private static List<String> fetch(Item item, String credentialsId, String applicationId) {
+        try {
+            GoogleRobotCredentials credentials =
+                    new CredentialsHandler(credentialsId).getServiceAccountCredentials(item);
+            return new TrackListTask(new LogTaskListener(LOGGER, Level.FINE), credentials, applicationId).call();
+        } catch (UploadException e) {
+            LOGGER.log(Level.FINE, String.format("Failed to fetch the release tracks of %s: %s", applicationId,
+                    Util.getPublisherErrorMessage(e)));
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+        private final CompletableFuture<List<String>> trackNames;
+        private volatile long completedAt;
+
+        Entry(Item item, String credentialsId, String applicationId) {
+            trackNames = CompletableFuture.supplyAsync(() -> fetch(item, credentialsId, applicationId), EXECUTOR);
+            trackNames.whenComplete((result, error) -> completedAt = System.nanoTime());
+        }
+
+        boolean isExpired(long now) {
+            if (!trackNames.isDone()) {
+                return false;
+            }
+            // The completion time may not have been recorded quite yet
+            final long completed = completedAt;
+            final long ttl = trackNames.isCompletedExceptionally() ? FAILURE_TTL_NANOS : TTL_NANOS;
+            return completed != 0 && now - completed >= ttl;
+        }
+    }
+
+    private static final class Key {
+        /** Compared by identity; credential stores create new instances when saved, which also clears the cache. */
+        private final GoogleRobotCredentials credentials;
+        private final String applicationId;
+
+        Key(GoogleRobotCredentials credentials, String applicationId) {
+            this.credentials = credentials;
+            this.applicationId = applicationId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return credentials == other.credentials && applicationId.equals(other.applicationId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(credentials), applicationId);
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.model.TaskListener;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.List;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.ExistingAppFiles.FIELDS_TRACK_RELEASES;
+
+/** Copies the release currently active on one track to another track, without needing any app files. */
+class TrackPromotionTask extends TrackPublisherTask {
+
+    private final String sourceTrackName;
+
+    TrackPromotionTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId,
+                       String sourceTrackName, String trackName, @Nullable String releaseName,
+                       double rolloutPercentage, @Nullable Integer inAppUpdatePriority) {
+        super(listener, credentials, applicationId, trackName, releaseName, rolloutPercentage, inAppUpdatePriority);
+        this.sourceTrackName = sourceTrackName;
+    }
+
+    @Override
+    boolean prepareRelease() throws IOException, InterruptedException {
+        // Open an edit via the Google Play API, thereby ensuring that our credentials etc. are working
+        logger.println(String.format("Authenticating to Google Play API...%n- Credential:     %s%n- Application ID: %s",
+                getCredentialName(), applicationId));
+        createEdit(applicationId);
+
+        // Fetch the tracks within the same edit, so that we promote exactly what the source track currently contains
+        List<Track> tracks = ExistingAppFiles.listTracks(editService, applicationId, editId, FIELDS_TRACK_RELEASES);
+        applyCanonicalTrackName(tracks);
+
+        final Track sourceTrack = tracks.stream()
+            .filter(it -> it.getTrack().equalsIgnoreCase(sourceTrackName))
+            .findFirst()
+            .orElse(null);
+        final TrackRelease sourceRelease = getActiveRelease(sourceTrack);
+        if (sourceRelease == null || sourceRelease.getVersionCodes() == null) {
+            logger.printf("Release track '%s' does not have an active release which could be promoted%n",
+                    sourceTrackName);
+            return false;
+        }
+        if (sourceTrack.getTrack().equals(trackName)) {
+            logger.printf("The release to be promoted is already on the '%s' track%n", trackName);
+            return false;
+        }
+        logger.printf("Promoting the current release from the '%s' track%n%n", sourceTrack.getTrack());
+
+        // Carry over the release details, unless they've been explicitly configured for the new release
+        final String name = releaseName != null ? releaseName : sourceRelease.getName();
+        final Integer priority = inAppUpdatePriority != null ?
+                inAppUpdatePriority : sourceRelease.getInAppUpdatePriority();
+        assignAppFilesToTrack(trackName, rolloutFraction, sourceRelease.getVersionCodes(), priority, name,
+                sourceRelease.getReleaseNotes());
+        return true;
+    }
+
+}
@@ -8,6 +8,7 @@ import hudson.model.TaskListener;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -15,12 +16,13 @@ import java.util.stream.Collectors;
 import static hudson.Util.join;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.PERCENTAGE_FORMATTER;
 
-abstract class TrackPublisherTask<V> extends AbstractPublisherTask<V> {
+abstract class TrackPublisherTask extends AbstractPublisherTask<Boolean> {
 
     protected String trackName;
     protected final String releaseName;
     protected final double rolloutFraction;
     protected final Integer inAppUpdatePriority;
+    private List<Long> assignedVersionCodes = Collections.emptyList();
 
     TrackPublisherTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId,
                        String trackName, String releaseName, double rolloutPercentage, Integer inAppUpdatePriority) {
@@ -31,11 +33,97 @@ abstract class TrackPublisherTask<V> extends AbstractPublisherTask<V> {
         this.inAppUpdatePriority = inAppUpdatePriority;
     }
 
+    @Override
+    protected Boolean execute() throws IOException, InterruptedException {
+        if (!prepareRelease()) {
+            return false;
+        }
+
+        // Commit the changes, which will throw an exception if there is a problem
+        commit();
+        return true;
+    }
+
+    /**
+     * Makes the changes required by this task within a new edit, without committing it.
+     *
+     * @return {@code true} if the edit is now ready to be committed.
+     */
+    abstract boolean prepareRelease() throws IOException, InterruptedException;
+
+    /** @return The version codes assigned to the release track by this task so far. */
+    List<Long> getAssignedVersionCodes() {
+        return assignedVersionCodes;
+    }
+
+    /**
+     * Ensures that the configured track name has the same case as the matching track on Google Play, if any.
+     *
+     * @param tracks The tracks which currently exist on Google Play.
+     */
+    void applyCanonicalTrackName(List<Track> tracks) {
+        String canonicalTrackName = tracks.stream()
+            .filter(it -> it.getTrack().equalsIgnoreCase(trackName))
+            .map(Track::getTrack)
+            .findFirst()
+            .orElse(null);
+        if (canonicalTrackName == null) {
+            // If you ask Google Play for the list of tracks, it won't include any which don't yet have a release…
+            // TODO: I don't yet know whether Google Play also ignores built-in tracks, if they have no releases;
+            //       but we can make things a little bit smoother by avoiding doing this check for built-in track names,
+            //       and ensuring we use the lowercase track name for those
+            String msgFormat = "Release track '%s' could not be found on Google Play%n" +
+                "- This may be because this track does not yet have any releases, so we will continue… %n" +
+                "- Note: Custom track names are case-sensitive; double-check your configuration, if this build fails%n";
+            logger.println(String.format(msgFormat, trackName));
+        } else {
+            // Track names are case-sensitive, so override the user-provided value from the job config
+            trackName = canonicalTrackName;
+        }
+    }
+
+    /**
+     * Remembers the app files which exist on Google Play, so that future builds can check against them up front.
+     * <p>
+     * Nothing is recorded from within a shared edit, as its listing may include files uploaded earlier in the same
+     * edit, which won't exist on Google Play if the edit ends up being discarded.
+     */
+    void recordExistingAppFiles(@Nullable AppFileCache.Recorder recorder, ExistingAppFiles existingAppFiles) {
+        if (recorder == null || isSharedEdit()) {
+            return;
+        }
+        try {
+            recorder.recordAppFiles(existingAppFiles.getVersionCodes(), existingAppFiles.getSha1Hashes());
+        } catch (RuntimeException e) {
+            // This only means that future builds won't be able to do these checks before contacting Google Play
+            logger.println(String.format("Failed to record the existing app files: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * @return The release currently active on the given track, preferring one which is being rolled out, if any;
+     *         otherwise {@code null} if there are only draft or halted releases.
+     */
+    @Nullable
+    static TrackRelease getActiveRelease(@Nullable Track track) {
+        if (track == null || track.getReleases() == null) {
+            return null;
+        }
+        for (String status : new String[] { "inProgress", "completed" }) {
+            for (TrackRelease release : track.getReleases()) {
+                if (status.equals(release.getStatus())) {
+                    return release;
+                }
+            }
+        }
+        return null;
+    }
+
     /** Assigns a release, which contains a list of version codes, to a release track. */
     void assignAppFilesToTrack(
         String trackName, double rolloutFraction, List<Long> versionCodes, @Nullable Integer inAppUpdatePriority,
         @Nullable String releaseName, @Nullable List<LocalizedText> releaseNotes
-    ) throws IOException {
+    ) throws IOException, InterruptedException {
         // Prepare to assign the release to the desired track
         final TrackRelease release = Util.buildRelease(
             versionCodes, releaseName, rolloutFraction, inAppUpdatePriority, releaseNotes
@@ -55,7 +143,9 @@ abstract class TrackPublisherTask<V> extends AbstractPublisherTask<V> {
         logger.printf("- Release notes:   %s%n%n", joinReleaseNoteLanguages(releaseNotes));
 
         // Update the track
-        editService.tracks().update(applicationId, editId, trackToAssign.getTrack(), trackToAssign).execute();
+        AsyncPublisherClient.executeBlocking(
+                editService.tracks().update(applicationId, editId, trackToAssign.getTrack(), trackToAssign));
+        assignedVersionCodes = new ArrayList<>(versionCodes);
     }
 
     private static String joinReleaseNoteLanguages(List<LocalizedText> releaseNotes) {
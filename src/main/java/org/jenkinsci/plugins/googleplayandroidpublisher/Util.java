@@ -14,6 +14,7 @@ import hudson.remoting.VirtualChannel;
 import jenkins.MasterToSlaveFileCallable;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AndroidUtil;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AppFileMetadata;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.GradleOutputMetadata;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.JenkinsUtil;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.UtilsImpl;
 import org.jenkinsci.plugins.tokenmacro.MacroEvaluationException;
@@ -22,9 +23,11 @@ import org.jenkinsci.plugins.tokenmacro.TokenMacro;
 import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static hudson.Util.fixEmptyAndTrim;
@@ -72,6 +75,11 @@ public class Util {
             return value;
         }
 
+        // Values without any variables or macros don't need the (potentially expensive) build environment
+        if (value == null || value.indexOf('$') < 0) {
+            return fixEmptyAndTrim(value);
+        }
+
         try {
             final AbstractBuild build = (AbstractBuild) run;
             return fixEmptyAndTrim(TokenMacro.expandAll(build, listener, value));
@@ -171,6 +179,21 @@ public class Util {
         return path;
     }
 
+    /**
+     * Reads the details of the given app files from the {@code output-metadata.json} files written by Gradle.
+     *
+     * @return The metadata found, by relative path; any app files without an entry will need to be parsed instead.
+     */
+    static Map<String, AppFileMetadata> readGradleOutputMetadata(PrintStream logger, FilePath workspace,
+                                                                 List<String> relativePaths)
+            throws IOException, InterruptedException {
+        final Map<String, AppFileMetadata> metadata =
+                workspace.act(new GradleOutputMetadata.ReadTask(relativePaths));
+        logger.printf("Found Gradle output metadata for %d of %d app file(s)%n", metadata.size(),
+                relativePaths.size());
+        return metadata;
+    }
+
     @VisibleForTesting
     static void setJenkinsUtil(JenkinsUtil util) {
         sJenkins = util;
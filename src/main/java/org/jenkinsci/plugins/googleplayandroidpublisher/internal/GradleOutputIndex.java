@@ -0,0 +1,149 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Indexes files by the Gradle module and build variant which produced them, based on the directory structure used by
+ * the Android Gradle Plugin, so that e.g. mapping files can be associated with the app files they belong to.
+ * <p>
+ * For example, these files will all be associated with the {@code app} module's {@code flavorRelease} variant:
+ * <ul>
+ *   <li>{@code app/build/outputs/apk/flavor/release/app-flavor-release.apk}</li>
+ *   <li>{@code app/build/outputs/bundle/flavorRelease/app-flavor-release.aab}</li>
+ *   <li>{@code app/build/outputs/mapping/flavorRelease/mapping.txt}</li>
+ *   <li>{@code app/build/outputs/native-debug-symbols/flavorRelease/native-debug-symbols.zip}</li>
+ * </ul>
+ */
+public class GradleOutputIndex {
+
+    /** Matches the module path, output type, and variant directories of a Gradle output file. */
+    private static final Pattern OUTPUT_PATH =
+            Pattern.compile("^(.*?)build/outputs/(apk|bundle|mapping|native-debug-symbols)/(.+)/[^/]+$");
+
+    private final Map<String, String> pathsByKey = new HashMap<>();
+    private final Set<String> matchedPaths = new LinkedHashSet<>();
+    private final List<String> unindexedPaths = new ArrayList<>();
+    private final List<String> ambiguousPaths = new ArrayList<>();
+
+    /** @param paths The workspace-relative paths of the files to be indexed. */
+    public GradleOutputIndex(@Nonnull Collection<String> paths) {
+        final Map<String, List<String>> candidates = new HashMap<>();
+        for (String path : paths) {
+            String key = getVariantKey(path);
+            if (key == null) {
+                unindexedPaths.add(path);
+            } else {
+                candidates.computeIfAbsent(key, it -> new ArrayList<>()).add(path);
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : candidates.entrySet()) {
+            if (entry.getValue().size() == 1) {
+                pathsByKey.put(entry.getKey(), entry.getValue().get(0));
+            } else {
+                // We can't tell which of multiple files for the same variant is the right one
+                ambiguousPaths.addAll(entry.getValue());
+            }
+        }
+        Collections.sort(ambiguousPaths);
+    }
+
+    /**
+     * @param relativePath The workspace-relative path of a Gradle output file.
+     * @return A key identifying the module and variant which produced the file, or {@code null} if the path isn't in
+     *         the expected format. Variant directories are joined, so that {@code flavor/release} and
+     *         {@code flavorRelease} have the same key.
+     */
+    @Nullable
+    public static String getVariantKey(@Nonnull String relativePath) {
+        Matcher matcher = OUTPUT_PATH.matcher(relativePath.replace('\\', '/'));
+        if (!matcher.matches()) {
+            return null;
+        }
+        String module = matcher.group(1);
+        String variant = matcher.group(3).replace("/", "").toLowerCase(Locale.ROOT);
+        return module + ":" + variant;
+    }
+
+    /**
+     * @param relativePath The workspace-relative path of a Gradle output file.
+     * @return The name of the variant which produced the file, as Gradle would write it, e.g. {@code flavorRelease}
+     *         for both {@code flavor/release} and {@code flavorRelease} directories, or {@code null} if the path isn't
+     *         in the expected format.
+     */
+    @Nullable
+    public static String getVariantName(@Nonnull String relativePath) {
+        Matcher matcher = OUTPUT_PATH.matcher(relativePath.replace('\\', '/'));
+        if (!matcher.matches()) {
+            return null;
+        }
+        StringBuilder name = new StringBuilder();
+        for (String part : matcher.group(3).split("/")) {
+            if (name.length() == 0 || part.isEmpty()) {
+                name.append(part);
+            } else {
+                name.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * @param relativePath The workspace-relative path of the file to find a match for, e.g. an app file.
+     * @return The indexed file produced by the same module and variant, or {@code null} if there is no single match.
+     */
+    @Nullable
+    public String findMatch(@Nonnull String relativePath) {
+        String key = getVariantKey(relativePath);
+        if (key == null) {
+            return null;
+        }
+        String match = pathsByKey.get(key);
+        if (match != null) {
+            matchedPaths.add(match);
+        }
+        return match;
+    }
+
+    /** @return Whether every indexed file could be identified by its module and variant. */
+    public boolean isComplete() {
+        return unindexedPaths.isEmpty() && ambiguousPaths.isEmpty();
+    }
+
+    /** @return The indexed paths which didn't follow the Gradle output directory structure. */
+    @Nonnull
+    public List<String> getUnindexedPaths() {
+        return Collections.unmodifiableList(unindexedPaths);
+    }
+
+    /** @return The indexed paths which shared their module and variant with another indexed path. */
+    @Nonnull
+    public List<String> getAmbiguousPaths() {
+        return Collections.unmodifiableList(ambiguousPaths);
+    }
+
+    /** @return The indexed paths which haven't been returned by {@link #findMatch(String)} so far. */
+    @Nonnull
+    public List<String> getUnmatchedPaths() {
+        List<String> unmatched = new ArrayList<>();
+        for (String path : pathsByKey.values()) {
+            if (!matchedPaths.contains(path)) {
+                unmatched.add(path);
+            }
+        }
+        Collections.sort(unmatched);
+        return unmatched;
+    }
+
+}
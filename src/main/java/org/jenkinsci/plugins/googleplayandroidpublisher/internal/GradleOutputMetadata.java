@@ -0,0 +1,112 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the {@code output-metadata.json} file which the Android Gradle Plugin writes alongside the APKs it builds.
+ * <p>
+ * This lists the application ID, version code and version name of each APK in the same directory, so the APK files
+ * themselves don't need to be opened and parsed in order to find out that information.
+ */
+public final class GradleOutputMetadata {
+
+    static final String FILE_NAME = "output-metadata.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private GradleOutputMetadata() {
+    }
+
+    /**
+     * @param json The contents of an {@code output-metadata.json} file.
+     * @return The metadata for each APK listed in the file, by file name; empty if the file doesn't describe APKs.
+     */
+    @Nonnull
+    static Map<String, AppFileMetadata> parse(InputStream json) throws IOException {
+        final JsonNode root = MAPPER.readTree(json);
+        if (root == null || !"APK".equals(root.path("artifactType").path("type").asText())) {
+            return Collections.emptyMap();
+        }
+        final String applicationId = root.path("applicationId").asText(null);
+        if (applicationId == null || applicationId.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        final Map<String, AppFileMetadata> metadata = new HashMap<>();
+        for (JsonNode element : root.path("elements")) {
+            final String outputFile = element.path("outputFile").asText(null);
+            final JsonNode versionCode = element.path("versionCode");
+            if (outputFile == null || !versionCode.canConvertToLong()) {
+                continue;
+            }
+            // Only newer versions of the Android Gradle Plugin record anything resembling the minimum SDK version
+            metadata.put(outputFile, new ApkFileMetadata(applicationId, versionCode.asLong(),
+                    element.path("versionName").asText(null),
+                    element.path("minSdkVersionForDexing").asText(null)));
+        }
+        return metadata;
+    }
+
+    /**
+     * Finds the metadata for the given app files from the Gradle output metadata in their directories, where possible.
+     * <p>
+     * Files which aren't listed in the metadata, or which were modified after the metadata was written, e.g. by being
+     * re-signed, are omitted from the result, so they can be parsed as usual.
+     */
+    public static final class ReadTask extends MasterToSlaveFileCallable<Map<String, AppFileMetadata>> {
+
+        private final List<String> relativePaths;
+
+        /** @param relativePaths The workspace-relative paths of the app files to find metadata for. */
+        public ReadTask(List<String> relativePaths) {
+            this.relativePaths = relativePaths;
+        }
+
+        /** @return The metadata for each app file, by the given relative path. */
+        @Override
+        public Map<String, AppFileMetadata> invoke(File baseDir, VirtualChannel channel) {
+            // Each metadata file describes all of the APKs in its directory, so only read each one once
+            final Map<File, Map<String, AppFileMetadata>> metadataByDirectory = new HashMap<>();
+            final Map<String, AppFileMetadata> result = new HashMap<>();
+            for (String path : relativePaths) {
+                final File appFile = new File(baseDir, path);
+                final File directory = appFile.getParentFile();
+                final File metadataFile = new File(directory, FILE_NAME);
+                final AppFileMetadata metadata = metadataByDirectory
+                        .computeIfAbsent(directory, it -> read(metadataFile))
+                        .get(appFile.getName());
+                if (metadata != null && appFile.lastModified() <= metadataFile.lastModified()) {
+                    result.put(path, metadata);
+                }
+            }
+            return result;
+        }
+
+        private static Map<String, AppFileMetadata> read(File metadataFile) {
+            if (!metadataFile.isFile()) {
+                return Collections.emptyMap();
+            }
+            try (InputStream in = Files.newInputStream(metadataFile.toPath())) {
+                return parse(in);
+            } catch (IOException e) {
+                // The format may have changed; the app files can still be parsed directly
+                return Collections.emptyMap();
+            }
+        }
+
+    }
+
+}
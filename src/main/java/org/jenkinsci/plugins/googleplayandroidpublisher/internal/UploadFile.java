@@ -17,6 +17,7 @@ public class UploadFile implements Serializable {
     private FilePath filePath;
     private AppFileMetadata metadata;
     private String sha1Hash;
+    private String sha256Hash;
     private FilePath mappingFile;
     private FilePath nativeDebugSymbolFile;
 
@@ -25,6 +26,12 @@ public class UploadFile implements Serializable {
         this.metadata = filePath.act(new GetAppFileMetadataTask());
     }
 
+    /** @param metadata The already-known metadata of the app file, e.g. from {@link GradleOutputMetadata}. */
+    public UploadFile(FilePath filePath, AppFileMetadata metadata) {
+        this.filePath = filePath;
+        this.metadata = metadata;
+    }
+
     public FilePath getFilePath() {
         return filePath;
     }
@@ -61,11 +68,18 @@ public class UploadFile implements Serializable {
 
     public String getSha1Hash() throws IOException, InterruptedException {
         if (sha1Hash == null) {
-            sha1Hash = filePath.act(new GetHashTask());
+            sha1Hash = filePath.act(new GetHashTask(false));
         }
         return sha1Hash;
     }
 
+    public String getSha256Hash() throws IOException, InterruptedException {
+        if (sha256Hash == null) {
+            sha256Hash = filePath.act(new GetHashTask(true));
+        }
+        return sha256Hash;
+    }
+
     public FilePath getMappingFile() {
         return mappingFile;
     }
@@ -83,10 +97,17 @@ public class UploadFile implements Serializable {
     }
 
     private static final class GetHashTask extends MasterToSlaveFileCallable<String> {
+        private final boolean isSha256;
+
+        GetHashTask(boolean isSha256) {
+            this.isSha256 = isSha256;
+        }
+
         @Override
         public String invoke(File file, VirtualChannel virtualChannel) throws IOException {
             try (FileInputStream fis = new FileInputStream(file)) {
-                return DigestUtils.sha1Hex(fis).toLowerCase(Locale.ROOT);
+                final String hash = isSha256 ? DigestUtils.sha256Hex(fis) : DigestUtils.sha1Hex(fis);
+                return hash.toLowerCase(Locale.ROOT);
             }
         }
     }
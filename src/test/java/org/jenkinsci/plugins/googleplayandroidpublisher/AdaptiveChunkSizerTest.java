@@ -0,0 +1,110 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.AdaptiveChunkSizer.INITIAL_CHUNK_SIZE;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.AdaptiveChunkSizer.MAX_CHUNK_SIZE;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.AdaptiveChunkSizer.MIN_CHUNK_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveChunkSizerTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void fastLink_growsGraduallyUpToMaximum() {
+        SimulatedLink link = new SimulatedLink(100 * MB);
+        link.upload(2000 * MB);
+
+        List<Integer> sizes = link.sizer.getChunkSizes();
+        assertEquals(INITIAL_CHUNK_SIZE, (int) sizes.get(0));
+        assertEquals(2 * INITIAL_CHUNK_SIZE, (int) sizes.get(1));
+        assertEquals(MAX_CHUNK_SIZE, link.sizer.getChunkSize());
+        assertEquals(100, link.sizer.getMegabytesPerSecond(), 0.1);
+    }
+
+    @Test
+    public void slowLink_shrinksToTargetDuration() {
+        // At 128 KiB/s, an 8 second chunk is 1 MiB
+        SimulatedLink link = new SimulatedLink(MB / 8);
+        link.upload(10 * MB);
+
+        assertEquals(MB, link.sizer.getChunkSize());
+        assertEquals(0.125, link.sizer.getMegabytesPerSecond(), 0.001);
+    }
+
+    @Test
+    public void verySlowLink_neverGoesBelowMinimum() {
+        SimulatedLink link = new SimulatedLink(1024);
+        link.upload(MB);
+
+        assertEquals(MIN_CHUNK_SIZE, link.sizer.getChunkSize());
+    }
+
+    @Test
+    public void degradingLink_shrinksImmediately() {
+        SimulatedLink link = new SimulatedLink(100 * MB);
+        link.upload(1000 * MB);
+        assertEquals(MAX_CHUNK_SIZE, link.sizer.getChunkSize());
+
+        // e.g. chunks are failing and being retried
+        link.bytesPerSecond = MB;
+        link.upload(MAX_CHUNK_SIZE);
+        assertEquals(8 * MB, link.sizer.getChunkSize());
+    }
+
+    @Test
+    public void chunkSizes_areAlwaysMultiplesOfMinimum() {
+        SimulatedLink link = new SimulatedLink(3 * MB + 12345);
+        link.upload(200 * MB);
+
+        for (int size : link.sizer.getChunkSizes()) {
+            assertEquals(0, size % MIN_CHUNK_SIZE);
+            assertTrue(size >= MIN_CHUNK_SIZE && size <= MAX_CHUNK_SIZE);
+        }
+    }
+
+    @Test
+    public void summary_listsSizeChanges() {
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(() -> 0);
+        assertNull(sizer.getSummary());
+
+        SimulatedLink link = new SimulatedLink(MB);
+        link.upload(4 * MB);
+        // The first chunk takes 2 seconds, so the next may double in size
+        String summary = link.sizer.getSummary();
+        assertTrue(summary, summary.startsWith("2 chunk(s) of "));
+        assertTrue(summary, summary.contains(" → "));
+        assertTrue(summary, summary.endsWith(" at 1.0 MB/s"));
+    }
+
+    /** Uploads chunks via a connection with a fixed bandwidth, with time being simulated. */
+    private static class SimulatedLink {
+        final AdaptiveChunkSizer sizer;
+        long bytesPerSecond;
+        private long nanos;
+        private long totalBytes;
+
+        SimulatedLink(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.sizer = new AdaptiveChunkSizer(() -> nanos);
+            sizer.onUploadStarted();
+        }
+
+        void upload(long bytes) {
+            for (long remaining = bytes; remaining > 0; ) {
+                long chunk = Math.min(remaining, sizer.getChunkSize());
+                nanos += chunk * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+                totalBytes += chunk;
+                remaining -= chunk;
+                sizer.onChunkUploaded(totalBytes);
+            }
+        }
+    }
+
+}
@@ -3,6 +3,11 @@ package org.jenkinsci.plugins.googleplayandroidpublisher;
 import com.cloudbees.hudson.plugins.folder.Folder;
 import com.cloudbees.plugins.credentials.CredentialsParameterDefinition;
 import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.Apk;
+import com.google.api.services.androidpublisher.model.ApkBinary;
+import com.google.api.services.androidpublisher.model.DeobfuscationFilesUploadResponse;
+import com.google.api.services.androidpublisher.model.ExpansionFile;
+import com.google.api.services.androidpublisher.model.ExpansionFilesUploadResponse;
 import com.google.api.services.androidpublisher.model.Track;
 import com.google.api.services.androidpublisher.model.TrackRelease;
 import com.google.jenkins.plugins.credentials.oauth.GoogleRobotPrivateKeyCredentials;
@@ -46,6 +51,8 @@ import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static hudson.Util.join;
@@ -60,9 +67,11 @@ import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHel
 import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.setUpCredentials;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.track;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.spy;
@@ -88,6 +97,9 @@ public class ApkPublisherTest {
         transport = new TestHttpTransport();
         AndroidPublisher androidClient = createAndroidPublisher(transport);
         when(jenkinsUtil.createPublisherClient(any(), anyString())).thenReturn(androidClient);
+
+        // Don't let app files seen by earlier tests affect whether Google Play is contacted
+        AppFileCache.get().clear();
     }
 
     @After
@@ -280,6 +292,97 @@ public class ApkPublisherTest {
         );
     }
 
+    @Test
+    public void uploadingApkKnownToExistFailsWithoutContactingGooglePlay() throws Exception {
+        // Given a job whose APK file was already found to exist on Google Play by an earlier build
+        setUpTransportForApk();
+        transport.withResponse("/edits/the-edit-id/apks",
+                new FakeListApksResponse().setApks(Collections.singletonList(DEFAULT_APK)));
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*.apk");
+        publisher.setTrackName("production");
+        p.getPublishersList().add(publisher);
+        setUpCredentials("test-credentials");
+        setUpApkFile(p);
+        assertResultWithLogLines(j, p, Result.FAILURE,
+                "This file already exists in the Google Play account; it cannot be uploaded again");
+        final int remoteCallCount = transport.getRemoteCalls().size();
+
+        // When another build occurs, it should fail before opening an edit
+        assertResultWithLogLines(j, p, Result.FAILURE,
+                "These files already exist in the Google Play account, so cannot be uploaded again:",
+                "- " + join(Arrays.asList("build", "outputs", "apk", "app.apk"), File.separator) +
+                        " (versionCode 42)"
+        );
+        assertEquals(remoteCallCount, transport.getRemoteCalls().size());
+    }
+
+    @Test
+    public void appFilesListedWithinSharedEditAreNotRemembered() throws Exception {
+        // Given a Pipeline which uploads an APK within a withGooglePlayEdit block
+        setUpTransportForApk();
+        transport.withResponse("/edits/the-edit-id/apks",
+                new FakeListApksResponse().setApks(Collections.singletonList(
+                        new Apk().setVersionCode(41).setBinary(new ApkBinary().setSha1("41")))));
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "withGooglePlayEdit(googleCredentialsId: 'test-credentials', applicationId: 'org.jenkins.appId') {\n" +
+            "  node {\n" +
+            "    writeFile text: 'this-is-a-dummy-apk', file: 'build/outputs/apk/app.apk'\n" +
+            "    androidApkUpload googleCredentialsId: 'test-credentials', trackName: 'production'\n" +
+            "  }\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+
+        // When a build occurs
+        assertResultWithLogLines(j, p, Result.SUCCESS, "Changes were successfully applied to Google Play");
+
+        // Then the listing shouldn't have been remembered, as it could include files from an edit which was discarded
+        assertFalse(AppFileCache.get().contains("org.jenkins.appId"));
+    }
+
+    @Test
+    public void assigningVersionCodesKnownToExistDoesNotListAppFiles() throws Exception {
+        // Given an earlier build which saw that versionCode 41 exists on Google Play
+        setUpTransportForApk();
+        transport.withResponse("/edits/the-edit-id/apks",
+                new FakeListApksResponse().setApks(Collections.singletonList(
+                        new Apk().setVersionCode(41).setBinary(new ApkBinary().setSha1("41")))));
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*.apk");
+        publisher.setTrackName("production");
+        p.getPublishersList().add(publisher);
+        setUpCredentials("test-credentials");
+        setUpApkFile(p);
+        j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        assertEquals(Collections.singleton(41L), AppFileCache.get().getVersionCodes("org.jenkins.appId"));
+
+        // When that versionCode is assigned to a track
+        FreeStyleProject assignment = j.createFreeStyleProject();
+        ReleaseTrackAssignmentBuilder builder = new ReleaseTrackAssignmentBuilder();
+        builder.setGoogleCredentialsId("test-credentials");
+        builder.setApplicationId("org.jenkins.appId");
+        builder.setVersionCodes("41");
+        builder.setTrackName("production");
+        assignment.getBuildersList().add(builder);
+        final long listCount = getApkListCount();
+        j.assertBuildStatusSuccess(assignment.scheduleBuild2(0));
+
+        // Then the existing app files shouldn't have been fetched again
+        assertEquals(listCount, getApkListCount());
+
+        // But if an unknown versionCode is assigned, the existing app files should be checked
+        builder.setVersionCodes("40");
+        assertResultWithLogLines(j, assignment, Result.FAILURE,
+                "Assignment will fail, as these versions do not exist on Google Play: 40");
+        assertEquals(listCount + 1, getApkListCount());
+    }
+
     @Test
     public void uploadingApkSucceeds() throws Exception {
         setUpTransportForApk();
@@ -482,6 +585,36 @@ public class ApkPublisherTest {
         );
     }
 
+    @Test
+    public void changesAreOnlySentForManualReviewFirstOnceRepeatedlyRequired() throws Exception {
+        // Given a job, whose changes Google Play won't accept for review automatically
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setTrackName("production");
+        p.getPublishersList().add(publisher);
+        setUpCredentials("test-credentials");
+        setUpTransportForApk("production", true, false);
+        setUpApkFile(p);
+
+        // When the first few builds occur, each should try sending the changes for review first
+        for (int i = 1; i <= CommitModeRecord.MIN_CONSECUTIVE_MANUAL_REVIEWS; i++) {
+            assertResultWithLogLines(j, p, Result.SUCCESS,
+                "- However, it has indicated that these changes need to be manually submitted for review",
+                String.format("- Commit mode was predicted correctly for 0 of the last %d commits", i)
+            );
+        }
+
+        // But once that has been rejected enough times in a row, the next build should skip trying it
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+            "- However, as was required for recent commits, these changes need to be manually submitted for review",
+            "- Commit mode was predicted correctly for 1 of the last 4 commits of this application"
+        );
+        assertEquals(CommitModeRecord.MIN_CONSECUTIVE_MANUAL_REVIEWS, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith(":commit?changesNotSentForReview=false"))
+                .count());
+    }
+
     @Test
     public void uploadingApkWithPipelineWithoutTrackNameFails() throws Exception {
         // Given a Pipeline where the track name is not provided
@@ -812,6 +945,144 @@ public class ApkPublisherTest {
         );
     }
 
+    @Test
+    public void identicalFileIsOnlyUploadedToInternalAppSharingOnce() throws Exception {
+        // Given a job which uploads an APK to internal app sharing
+        setUpTransportForInternalApkSharing();
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*.apk");
+        publisher.setTrackName("internal-app-sharing");
+        p.getPublishersList().add(publisher);
+        setUpCredentials("test-credentials");
+        setUpApkFile(p);
+
+        // When two builds occur, without the APK file changing
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "Internal app sharing file was successfully uploaded to Google Play:",
+                "https://play.google.com/test/download.apk"
+        );
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "A file identical to " + join(Arrays.asList("build", "outputs", "apk", "app.apk"), File.separator) +
+                        " was already uploaded to internal app sharing on Google Play at",
+                "https://play.google.com/test/download.apk"
+        );
+
+        // Then the file should only have been uploaded by the first build
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/artifacts/apk?uploadType=resumable"))
+                .count());
+
+        // And each build should have the download URL attached
+        p.getBuilds().forEach(build -> assertEquals("https://play.google.com/test/download.apk",
+                build.getAction(InternalAppSharingAction.class).getDownloadUrl()));
+    }
+
+    @Test
+    public void multipleInternalAppSharingFilesAreRejectedUnlessAllowed() throws Exception {
+        // Given a job which uploads to internal app sharing, without allowing multiple files
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = createInternalAppSharingPublisher();
+        publisher.setAllowMultipleInternalAppSharingFiles(false);
+        p.getPublishersList().add(publisher);
+        setUpCredentials("test-credentials");
+        setUpApkFilesForMultipleApplications(p);
+
+        // When a build occurs with several APKs in the workspace, then it should fail without uploading anything
+        assertResultWithLogLines(j, p, Result.FAILURE,
+                "Internal app sharing was selected, which requires a single app file, but multiple were found:",
+                "  - " + join(Arrays.asList("build", "outputs", "apk", "one.apk"), File.separator),
+                "  - " + join(Arrays.asList("build", "outputs", "apk", "two.apk"), File.separator)
+        );
+        assertTrue(transport.getRemoteCalls().isEmpty());
+    }
+
+    @Test
+    public void internalAppSharingFilesForMultipleApplicationsAreRejectedUnlessAllowed() throws Exception {
+        // Given a job which uploads multiple files to internal app sharing, without allowing multiple applications
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = createInternalAppSharingPublisher();
+        publisher.setAllowMultipleApplicationIds(false);
+        p.getPublishersList().add(publisher);
+        setUpCredentials("test-credentials");
+        setUpApkFilesForMultipleApplications(p);
+
+        // When a build occurs with APKs for different applications, then it should fail without uploading anything
+        assertResultWithLogLines(j, p, Result.FAILURE,
+                "Multiple files matched the pattern '**/*.apk', but they have inconsistent application IDs:",
+                "  - com.example.one",
+                "  - com.example.two"
+        );
+        assertTrue(transport.getRemoteCalls().isEmpty());
+    }
+
+    @Test
+    public void partialInternalAppSharingFailureIsUnstable() throws Exception {
+        // Given a job which uploads several APKs to internal app sharing
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getPublishersList().add(createInternalAppSharingPublisher());
+        setUpCredentials("test-credentials");
+        setUpApkFilesForMultipleApplications(p);
+
+        // And Google Play only accepts one of them
+        transport
+                .withResponse("/internalappsharing/com.example.one/artifacts/apk?uploadType=resumable",
+                        new FakeUploadResponse().willContinue())
+                .withResponse("/internalappsharing/com.example.two/artifacts/apk?uploadType=resumable",
+                        FakeHttpResponse.forError(500, "Internal error encountered"))
+                .withResponse("google.local/uploading/foo",
+                        new FakeInternalAppSharingArtifactResponse().success());
+
+        // When a build occurs, then it should be unstable, with the URL of the successful upload attached
+        assertResultWithLogLines(j, p, Result.UNSTABLE,
+                "Uploading 2 files to internal app sharing on Google Play...",
+                "Internal app sharing file was successfully uploaded to Google Play:",
+                "Failed: ",
+                "Only 1 of 2 files were uploaded to internal app sharing"
+        );
+        List<InternalAppSharingAction> actions = p.getLastBuild().getActions(InternalAppSharingAction.class);
+        assertEquals(1, actions.size());
+        assertEquals("com.example.one", actions.get(0).getApplicationId());
+
+        // And when Google Play accepts the failed file in the next build, only that one should be uploaded again
+        transport.withResponse("/internalappsharing/com.example.two/artifacts/apk?uploadType=resumable",
+                new FakeUploadResponse().willContinue());
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "A file identical to " + join(Arrays.asList("build", "outputs", "apk", "one.apk"), File.separator) +
+                        " was already uploaded to internal app sharing on Google Play at",
+                "Uploading file to internal app sharing on Google Play...",
+                "Application ID: com.example.two"
+        );
+        assertEquals(2, p.getLastBuild().getActions(InternalAppSharingAction.class).size());
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/com.example.one/artifacts/apk?uploadType=resumable"))
+                .count());
+    }
+
+    @Test
+    public void completeInternalAppSharingFailureFails() throws Exception {
+        // Given a job which uploads several APKs to internal app sharing
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getPublishersList().add(createInternalAppSharingPublisher());
+        setUpCredentials("test-credentials");
+        setUpApkFilesForMultipleApplications(p);
+
+        // And Google Play accepts none of them
+        transport
+                .withResponse("/internalappsharing/com.example.one/artifacts/apk?uploadType=resumable",
+                        FakeHttpResponse.forError(500, "Internal error encountered"))
+                .withResponse("/internalappsharing/com.example.two/artifacts/apk?uploadType=resumable",
+                        FakeHttpResponse.forError(500, "Internal error encountered"));
+
+        // When a build occurs, then it should fail
+        assertResultWithLogLines(j, p, Result.FAILURE,
+                "No files were uploaded to internal app sharing",
+                "Upload to Google Play failed"
+        );
+        assertTrue(p.getLastBuild().getActions(InternalAppSharingAction.class).isEmpty());
+    }
+
     private void uploadApkWithPipelineAndAssertFailure(
         String stepDefinition, String... expectedLogLines
     ) throws Exception {
@@ -968,6 +1239,347 @@ public class ApkPublisherTest {
         );
     }
 
+    @Test
+    public void uploadingFilesForMultipleApplicationsSucceeds() throws Exception {
+        // Given a job which allows files with multiple application IDs to be uploaded
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*.apk");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        publisher.setAllowMultipleApplicationIds(true);
+        p.getPublishersList().add(publisher);
+
+        // And the workspace contains files for two applications, both of which Google Play will accept
+        setUpCredentials("test-credentials");
+        setUpApkFilesForMultipleApplications(p);
+        setUpTransportForApplication("com.example.one", true);
+        setUpTransportForApplication("com.example.two", true);
+
+        // When a build occurs, then each application should be updated
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "- Application IDs: com.example.one, com.example.two",
+                "[com.example.one]",
+                "[com.example.two]",
+                "COMMITTED  com.example.one  42",
+                "COMMITTED  com.example.two  42"
+        );
+        assertEquals(Collections.emptyList(), getDeletedEditApplicationIds());
+    }
+
+    @Test
+    public void uploadingFilesForMultipleApplicationsWhereOneFailsIsUnstable() throws Exception {
+        // Given a job which allows files with multiple application IDs to be uploaded
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*.apk");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        publisher.setAllowMultipleApplicationIds(true);
+        p.getPublishersList().add(publisher);
+
+        // And the release can only be prepared for one of the two applications
+        setUpCredentials("test-credentials");
+        setUpApkFilesForMultipleApplications(p);
+        setUpTransportForApplication("com.example.one", true);
+        setUpTransportForApplication("com.example.two", false);
+
+        // When a build occurs, then only the first application should be updated
+        assertResultWithLogLines(j, p, Result.UNSTABLE,
+                "Failed: ",
+                "COMMITTED  com.example.one  42",
+                "FAILED     com.example.two",
+                "Changes were applied to Google Play for only 1 of 2 applications"
+        );
+
+        // And the edit for the failed application should have been discarded
+        assertEquals(Collections.singletonList("com.example.two"), getDeletedEditApplicationIds());
+    }
+
+    @Test
+    public void uploadingFilesForMultipleApplicationsWhereOneFailsAndAllAreRequiredFails() throws Exception {
+        // Given a job which requires every application to be prepared before any changes are applied
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*.apk");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        publisher.setAllowMultipleApplicationIds(true);
+        publisher.setRequireAllApplicationsSucceed(true);
+        p.getPublishersList().add(publisher);
+
+        // And the release can only be prepared for one of the two applications
+        setUpCredentials("test-credentials");
+        setUpApkFilesForMultipleApplications(p);
+        setUpTransportForApplication("com.example.one", true);
+        setUpTransportForApplication("com.example.two", false);
+
+        // When a build occurs, then no application should be updated
+        assertResultWithLogLines(j, p, Result.FAILURE,
+                "Not every application could be prepared for release, so no changes will be applied",
+                "DISCARDED  com.example.one  42",
+                "FAILED     com.example.two",
+                "No changes have been applied to the Google Play account"
+        );
+
+        // And the edits for both applications should have been discarded, without committing either
+        assertEquals(Arrays.asList("com.example.one", "com.example.two"), getDeletedEditApplicationIds());
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.contains(":commit")));
+    }
+
+    @Test
+    public void identicalExpansionFilesInOneBuildAreOnlyUploadedOnce() throws Exception {
+        // Given a job which uploads two APKs, each with an identical main expansion file
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getPublishersList().add(createExpansionFilePublisher(false));
+        setUpCredentials("test-credentials");
+        setUpApkFileWithExpansionFile(p, "one.apk", 42);
+        setUpApkFileWithExpansionFile(p, "two.apk", 43);
+
+        // And Google Play accepts each of the uploads
+        setUpTransportForApk();
+        transport
+                .withResponses("google.local/uploading/foo",
+                        new FakePutApkResponse().success(42, "the:sha"),
+                        new FakePutApkResponse().success(43, "the:other:sha"),
+                        new FakeHttpResponse().setSuccessData(new ExpansionFilesUploadResponse()))
+                .withResponse("/edits/the-edit-id/apks/42/expansionFiles/main?uploadType=resumable",
+                        new FakeUploadResponse().willContinue())
+                .withResponse("/edits/the-edit-id/apks/43/expansionFiles/main",
+                        new FakeHttpResponse().setSuccessData(new ExpansionFile().setReferencesVersion(42)));
+
+        // When a build occurs, then the expansion file should be uploaded with the first APK only
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "Handling expansion files for versionCode 42",
+                "- Uploading new main expansion file: main.42.org.jenkins.appId.obb",
+                "Handling expansion files for versionCode 43",
+                "- Applying identical main expansion file from APK 42 instead of uploading: " +
+                        "main.43.org.jenkins.appId.obb",
+                "Changes were successfully applied to Google Play"
+        );
+        assertEquals(1, getExpansionFileUploadCount());
+
+        // And the second APK should refer to the file uploaded with the first
+        ExpansionFile reference = getRequestBodyForUrl(transport, "/edits/the-edit-id/apks/43/expansionFiles/main",
+                ExpansionFile.class);
+        assertEquals(42, (int) reference.getReferencesVersion());
+    }
+
+    @Test
+    public void expansionFileIdenticalToOneFromAPreviousBuildIsNotUploadedAgain() throws Exception {
+        // Given a job which uploads an APK with a main expansion file
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getPublishersList().add(createExpansionFilePublisher(false));
+        setUpCredentials("test-credentials");
+        setUpApkFileWithExpansionFile(p, "one.apk", 42);
+        setUpTransportForApk();
+        transport
+                .withResponse("/edits/the-edit-id/apks/42/expansionFiles/main?uploadType=resumable",
+                        new FakeUploadResponse().willContinue())
+                .withResponse("/edits/the-edit-id/apks/43/expansionFiles/main",
+                        new FakeHttpResponse().setSuccessData(new ExpansionFile().setReferencesVersion(42)));
+
+        // And the first build uploaded the expansion file
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "- Uploading new main expansion file: main.42.org.jenkins.appId.obb");
+
+        // When the next build uploads a newer APK with an identical expansion file
+        FilePath workspace = j.jenkins.getWorkspaceFor(p);
+        workspace.child("build/outputs/apk/one.apk").delete();
+        workspace.child("build/outputs/obb/main.42.org.jenkins.appId.obb").delete();
+        setUpApkFileWithExpansionFile(p, "two.apk", 43);
+        transport
+                .withResponse("/edits/the-edit-id/apks",
+                        new FakeListApksResponse().setApks(Collections.singletonList(DEFAULT_APK)))
+                .withResponse("google.local/uploading/foo",
+                        new FakePutApkResponse().success(43, "the:other:sha"));
+
+        // Then the new APK should refer to the expansion file which was uploaded previously
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "- Applying identical main expansion file from APK 42 instead of uploading: " +
+                        "main.43.org.jenkins.appId.obb",
+                "Changes were successfully applied to Google Play"
+        );
+        assertEquals(1, getExpansionFileUploadCount());
+        ExpansionFile reference = getRequestBodyForUrl(transport, "/edits/the-edit-id/apks/43/expansionFiles/main",
+                ExpansionFile.class);
+        assertEquals(42, (int) reference.getReferencesVersion());
+    }
+
+    @Test
+    public void missingExpansionFileReusesTheOneFromThePreviousApk() throws Exception {
+        // Given a job which uploads an APK without expansion files, reusing any existing ones
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getPublishersList().add(createExpansionFilePublisher(true));
+        setUpCredentials("test-credentials");
+        FilePath dir = j.jenkins.getWorkspaceFor(p).child("build/outputs/apk");
+        dir.child("two.apk").write("two", "UTF-8");
+        androidUtil.setVersionCodeForFileName("two.apk", 43);
+
+        // And the existing APK on Google Play has a main expansion file, but no patch expansion file
+        setUpTransportForApk();
+        transport
+                .withResponse("/edits/the-edit-id/apks",
+                        new FakeListApksResponse().setApks(Collections.singletonList(DEFAULT_APK)))
+                .withResponse("google.local/uploading/foo",
+                        new FakePutApkResponse().success(43, "the:other:sha"))
+                .withResponse("/batch/androidpublisher/v3",
+                        FakeHttpResponse.forError(503, "Batch requests are unavailable"))
+                .withResponse("/edits/the-edit-id/apks/42/expansionFiles/main",
+                        new FakeHttpResponse().setSuccessData(new ExpansionFile().setFileSize(1024L)))
+                .withResponse("/edits/the-edit-id/apks/42/expansionFiles/patch",
+                        FakeHttpResponse.NOT_FOUND)
+                .withResponse("/edits/the-edit-id/apks/43/expansionFiles/main",
+                        new FakeHttpResponse().setSuccessData(new ExpansionFile().setReferencesVersion(42)));
+
+        // When a build occurs, then the new APK should refer to the existing main expansion file
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "- Applying main expansion file from previous APK: 42",
+                "- No patch expansion file to apply, and no existing APK with a patch expansion file was found",
+                "Changes were successfully applied to Google Play"
+        );
+        assertEquals(0, getExpansionFileUploadCount());
+        ExpansionFile reference = getRequestBodyForUrl(transport, "/edits/the-edit-id/apks/43/expansionFiles/main",
+                ExpansionFile.class);
+        assertEquals(42, (int) reference.getReferencesVersion());
+    }
+
+    @Test
+    public void deferredDeobfuscationFileIsUploadedOnceReleaseIsApplied() throws Exception {
+        // Given a job which uploads an APK with a mapping file, once the release has been applied
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getPublishersList().add(createDeferredDeobfuscationPublisher());
+        setUpCredentials("test-credentials");
+        setUpApkFile(p);
+        setUpMappingFile(p);
+
+        // And the first attempt to upload the mapping file fails
+        setUpTransportForApk();
+        transport
+                .withResponses("/edits/the-edit-id/apks/42/deobfuscationFiles/proguard?uploadType=resumable",
+                        FakeHttpResponse.forError(500, "Internal error encountered"),
+                        new FakeUploadResponse().willContinue())
+                .withResponses("google.local/uploading/foo",
+                        new FakePutApkResponse().success(42, "the:sha"),
+                        new FakeHttpResponse().setSuccessData(new DeobfuscationFilesUploadResponse()));
+
+        // When a build occurs, then the mapping file should be uploaded after retrying
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "ProGuard mapping: " + join(Arrays.asList("build", "outputs", "mapping", "mapping.txt"),
+                        File.separator) + " (to be uploaded once the release has been applied)",
+                "Uploading deobfuscation files for application ID: org.jenkins.appId",
+                "Upload failed, retrying (attempt 2 of 3)"
+        );
+
+        // And it should have been uploaded in a second edit, after the release was committed
+        List<String> calls = transport.getRemoteCalls().stream().map(it -> it.url).collect(Collectors.toList());
+        int firstCommit = indexOfFirst(calls, ":commit?");
+        assertTrue(firstCommit >= 0);
+        assertTrue(firstCommit < indexOfFirst(calls, "/deobfuscationFiles/"));
+        assertEquals(2, calls.stream().filter(it -> it.contains(":commit?")).count());
+    }
+
+    @Test
+    public void deferredDeobfuscationFileWhichCannotBeUploadedIsUnstable() throws Exception {
+        // Given a job which uploads an APK with a mapping file, once the release has been applied
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getPublishersList().add(createDeferredDeobfuscationPublisher());
+        setUpCredentials("test-credentials");
+        setUpApkFile(p);
+        setUpMappingFile(p);
+
+        // But Google Play rejects every attempt to upload the mapping file
+        setUpTransportForApk();
+        transport
+                .withResponse("/edits/the-edit-id/apks/42/deobfuscationFiles/proguard?uploadType=resumable",
+                        FakeHttpResponse.forError(500, "Internal error encountered"))
+                .withResponse("/org.jenkins.appId/edits/the-edit-id",
+                        new FakeHttpResponse().setResponseData(204, null));
+
+        // When a build occurs, then the release should be applied, but the build should be unstable
+        assertResultWithLogLines(j, p, Result.UNSTABLE,
+                "Changes were successfully applied to Google Play",
+                "Upload failed after 3 attempts",
+                "The release for org.jenkins.appId was applied, but these deobfuscation files could not be uploaded:"
+        );
+
+        // And the empty edit for the mapping file should have been discarded, rather than committed
+        assertEquals(Collections.singletonList("org.jenkins.appId"), getDeletedEditApplicationIds());
+        assertEquals(1, transport.getRemoteCalls().stream().filter(it -> it.url.contains(":commit?")).count());
+    }
+
+    @Test
+    public void dryRunDescribesChangesWithoutContactingGooglePlay() throws Exception {
+        // Given a job which does a dry run of uploading an APK, along with its mapping file, and release notes
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*.apk");
+        publisher.setDeobfuscationFilesPattern("**/mapping.txt");
+        publisher.setTrackName("beta");
+        publisher.setRolloutPercentage("12.5");
+        publisher.setReleaseName("Release {versionName}");
+        publisher.setRecentChangeList(new ApkPublisher.RecentChanges[] {
+            new ApkPublisher.RecentChanges("en-GB", "Hello!"),
+            new ApkPublisher.RecentChanges("de-DE", "Hallo!"),
+        });
+        publisher.setDryRun(true);
+        p.getPublishersList().add(publisher);
+
+        setUpCredentials("test-credentials");
+        setUpApkFile(p);
+        setUpMappingFile(p);
+
+        // When a build occurs, then the changes which would be made should be described
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+            "Dry run: no edit will be created, and no changes will be made to Google Play",
+            "Would upload 1 file(s) to release track 'beta' for application ID: org.jenkins.appId",
+            "APK file: " + join(Arrays.asList("build", "outputs", "apk", "app.apk"), File.separator),
+            "versionCode: 42",
+            "versionName: 1.42",
+            "ProGuard mapping: " + join(Arrays.asList("build", "outputs", "mapping", "mapping.txt"), File.separator),
+            "- Version codes:   42",
+            "- Staged rollout:  12.5%",
+            "- Release name:    Release 1.42",
+            "Release notes:     de-DE, en-GB",
+            "Dry run complete; no changes have been applied to the Google Play account"
+        );
+
+        // And Google Play should not have been contacted at all
+        assertEquals(Collections.emptyList(), transport.getRemoteCalls());
+    }
+
+    @Test
+    public void dryRunWithInvalidReleaseNotesFails() throws Exception {
+        // Given a job which does a dry run with release notes that Google Play would reject
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*.apk");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        publisher.setRecentChangeList(new ApkPublisher.RecentChanges[] {
+            new ApkPublisher.RecentChanges("en-GB", "Hello!"),
+            new ApkPublisher.RecentChanges("en-GB", "Hello again!"),
+        });
+        publisher.setDryRun(true);
+        p.getPublishersList().add(publisher);
+
+        setUpCredentials("test-credentials");
+        setUpApkFile(p);
+
+        // When a build occurs, then the problem should be reported without contacting Google Play
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Would upload 1 file(s) to release track 'production' for application ID: org.jenkins.appId",
+            "Dry run found problems which would cause the upload to fail:",
+            "- Release notes were given more than once for language 'en-GB'"
+        );
+        assertEquals(Collections.emptyList(), transport.getRemoteCalls());
+    }
+
     @Test
     @WithoutJenkins
     public void responsesCanBeSerialized() throws IOException, ClassNotFoundException {
@@ -1117,6 +1729,63 @@ public class ApkPublisherTest {
         ;
     }
 
+    /**
+     * Sets up the responses for a single edit of the given application, which are distinguished from other
+     * applications' by URL, as each application uses the same edit ID.
+     *
+     * @param canAssignTrack Whether Google Play will accept the release being assigned to the production track.
+     */
+    private void setUpTransportForApplication(String applicationId, boolean canAssignTrack) {
+        final String edit = "/" + applicationId + "/edits/the-edit-id";
+        transport
+                .withResponse("/" + applicationId + "/edits",
+                        new FakePostEditsResponse().setEditId("the-edit-id"))
+                .withResponse(edit + "/apks",
+                        new FakeListApksResponse().setEmptyApks())
+                .withResponse(edit + "/bundles",
+                        new FakeListBundlesResponse().setEmptyBundles())
+                .withResponse(edit + "/tracks",
+                        new FakeListTracksResponse().setTracks(Collections.singletonList(track("production"))))
+                .withResponse(edit + "/apks?uploadType=resumable",
+                        new FakeUploadResponse().willContinue())
+                .withResponse("google.local/uploading/foo",
+                        new FakePutApkResponse().success(42, "the:sha"))
+                .withResponse(edit + "/tracks/production", canAssignTrack
+                        ? new FakeAssignTrackResponse().success("production", 42)
+                        : FakeHttpResponse.forError(500, "Track could not be updated"))
+                .withResponse(edit + ":commit?changesNotSentForReview=false",
+                        new FakeCommitResponse().success())
+                .withResponse(edit,
+                        new FakeHttpResponse().setResponseData(204, null))
+        ;
+    }
+
+    /** @return How many times the APK files for the application have been listed. */
+    private long getApkListCount() {
+        return transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("GET") && it.url.matches(".*/edits/the-edit-id/apks(\\?.*)?"))
+                .count();
+    }
+
+    /** @return The IDs of the applications whose edits were deleted, in alphabetical order. */
+    private List<String> getDeletedEditApplicationIds() {
+        return transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("DELETE"))
+                .map(it -> it.url.replaceAll(".*/applications/([^/]+)/edits/.*", "$1"))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    /** Places an APK file for each of two different applications into the job's workspace. */
+    private void setUpApkFilesForMultipleApplications(FreeStyleProject p) throws Exception {
+        FilePath dir = j.jenkins.getWorkspaceFor(p).child("build/outputs/apk");
+        dir.mkdirs();
+        dir.child("one.apk").write("one", "UTF-8");
+        dir.child("two.apk").write("two", "UTF-8");
+        androidUtil.setAppIdForFileName("one.apk", "com.example.one");
+        androidUtil.setAppIdForFileName("two.apk", "com.example.two");
+    }
+
     /** Places a dummy file APK into the job's workspace under the typical Gradle output path: build/outputs/apk/ */
     private void setUpApkFile(FreeStyleProject p) throws Exception {
         FilePath workspace = j.jenkins.getWorkspaceFor(p);
@@ -1126,6 +1795,73 @@ public class ApkPublisherTest {
         file.touch(0);
     }
 
+    private static ApkPublisher createExpansionFilePublisher(boolean usePreviousExpansionFilesIfMissing) {
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*.apk");
+        publisher.setExpansionFilesPattern("**/*.obb");
+        publisher.setUsePreviousExpansionFilesIfMissing(usePreviousExpansionFilesIfMissing);
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        return publisher;
+    }
+
+    /** Places an APK with the given version code, and a main expansion file with fixed content, into the workspace. */
+    private void setUpApkFileWithExpansionFile(FreeStyleProject p, String fileName, int versionCode)
+            throws Exception {
+        FilePath workspace = j.jenkins.getWorkspaceFor(p);
+        workspace.child("build/outputs/apk").child(fileName).write(fileName, "UTF-8");
+        workspace.child("build/outputs/obb").child(String.format("main.%d.org.jenkins.appId.obb", versionCode))
+                .write("expansion", "UTF-8");
+        androidUtil.setVersionCodeForFileName(fileName, versionCode);
+    }
+
+    /** @return How many expansion file uploads were started. */
+    private long getExpansionFileUploadCount() {
+        return transport.getRemoteCalls().stream()
+                .filter(it -> it.url.contains("/expansionFiles/") && it.url.contains("uploadType=resumable"))
+                .count();
+    }
+
+    /** @return A publisher which uploads every APK found, for any application, to internal app sharing. */
+    private static ApkPublisher createInternalAppSharingPublisher() {
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*.apk");
+        publisher.setTrackName("internal-app-sharing");
+        publisher.setAllowMultipleInternalAppSharingFiles(true);
+        publisher.setAllowMultipleApplicationIds(true);
+        return publisher;
+    }
+
+    private static ApkPublisher createDeferredDeobfuscationPublisher() {
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*.apk");
+        publisher.setDeobfuscationFilesPattern("**/mapping.txt");
+        publisher.setDeferDeobfuscationFileUploads(true);
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        return publisher;
+    }
+
+    /** @return The index of the first URL containing the given text, or {@code -1} if there is none. */
+    private static int indexOfFirst(List<String> urls, String text) {
+        for (int i = 0; i < urls.size(); i++) {
+            if (urls.get(i).contains(text)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Places a dummy ProGuard mapping file into the job's workspace under the Gradle output path: build/outputs/ */
+    private void setUpMappingFile(FreeStyleProject p) throws Exception {
+        FilePath dir = j.jenkins.getWorkspaceFor(p).child("build/outputs/mapping");
+        dir.mkdirs();
+        dir.child("mapping.txt").write("mapping", "UTF-8");
+    }
+
     /** Places a dummy APK file into the jobs' workspace under the typical Gradle output path: build/outputs/apk/ */
     private void setUpApkFileOnSlave(FreeStyleProject p, Slave agent) throws Exception {
         FilePath workspace = agent.getWorkspaceFor(p);
@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CommitModeRecordTest {
+
+    private final CommitModeRecord record = CommitModeRecord.get();
+
+    @Before
+    public void setUp() {
+        record.clear();
+    }
+
+    @Test
+    public void unknownApplications_areSentForReview() {
+        assertFalse(record.createRecorder("com.example.app", null).isChangesNotSentForReviewPredicted());
+    }
+
+    @Test
+    public void manualReview_isOnlyPredictedAfterConsecutiveCommitsNeedingIt() {
+        CommitModeRecord.Recorder recorder = record.createRecorder("com.example.app", null);
+        for (int i = 0; i < CommitModeRecord.MIN_CONSECUTIVE_MANUAL_REVIEWS; i++) {
+            assertFalse(recorder.isChangesNotSentForReviewPredicted());
+            recorder.recordCommit(true, false);
+        }
+        assertTrue(recorder.isChangesNotSentForReviewPredicted());
+
+        // Other applications are unaffected
+        assertFalse(record.createRecorder("com.example.other", null).isChangesNotSentForReviewPredicted());
+
+        // Once a commit is sent for review again, we start counting from scratch
+        recorder.recordCommit(false, false);
+        assertFalse(recorder.isChangesNotSentForReviewPredicted());
+        recorder.recordCommit(true, false);
+        assertFalse(recorder.isChangesNotSentForReviewPredicted());
+    }
+
+    @Test
+    public void sendingForReview_isPeriodicallyRetried() {
+        CommitModeRecord.Recorder recorder = record.createRecorder("com.example.app", null);
+        for (int i = 1; i < CommitModeRecord.RECHECK_INTERVAL; i++) {
+            recorder.recordCommit(true, true);
+        }
+        assertTrue(recorder.isChangesNotSentForReviewPredicted());
+
+        // Every so often, we check whether the changes can be sent for review again
+        recorder.recordCommit(true, true);
+        assertFalse(recorder.isChangesNotSentForReviewPredicted());
+
+        // If not, we go back to predicting that they can't
+        recorder.recordCommit(true, false);
+        assertTrue(recorder.isChangesNotSentForReviewPredicted());
+    }
+
+    @Test
+    public void predictionsForRecentCommits_areReported() {
+        CommitModeRecord.Recorder recorder = record.createRecorder("com.example.app", null);
+        assertEquals("Commit mode was predicted correctly for 0 of the last 1 commits of this application",
+                recorder.recordCommit(true, false));
+        assertEquals("Commit mode was predicted correctly for 1 of the last 2 commits of this application",
+                recorder.recordCommit(false, true));
+        for (int i = 0; i < 9; i++) {
+            recorder.recordCommit(false, true);
+        }
+
+        // Once enough further commits have been made, the commit which was mispredicted is forgotten
+        assertEquals("Commit mode was predicted correctly for 10 of the last 10 commits of this application",
+                recorder.recordCommit(false, true));
+    }
+
+}
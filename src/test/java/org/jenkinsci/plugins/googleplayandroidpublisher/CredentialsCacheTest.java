@@ -0,0 +1,81 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.model.Item;
+import org.acegisecurity.Authentication;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CredentialsCacheTest {
+
+    private final Item item = mock(Item.class);
+    private final Authentication auth = mock(Authentication.class);
+    private final GoogleRobotCredentials credentials = mock(GoogleRobotCredentials.class);
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        CredentialsCache.invalidate();
+        when(item.getFullName()).thenReturn("folder/job");
+        when(auth.getName()).thenReturn("SYSTEM");
+    }
+
+    @Test
+    public void repeatedLookup_isCached() {
+        long hits = CredentialsCache.getStatistics().get("hits");
+
+        assertSame(credentials, get("creds"));
+        assertSame(credentials, get("creds"));
+
+        assertEquals(1, lookups.get());
+        assertEquals(hits + 1, (long) CredentialsCache.getStatistics().get("hits"));
+    }
+
+    @Test
+    public void differentIdOrItem_isLookedUpSeparately() {
+        get("creds");
+        get("other-creds");
+        when(item.getFullName()).thenReturn("other-folder/job");
+        get("creds");
+
+        assertEquals(3, lookups.get());
+    }
+
+    @Test
+    public void missingCredentials_areNotCached() {
+        assertNull(CredentialsCache.get("missing", item, auth, this::countLookup));
+        assertNull(CredentialsCache.get("missing", item, auth, this::countLookup));
+
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void invalidate_clearsCache() {
+        get("creds");
+        CredentialsCache.invalidate();
+        get("creds");
+
+        assertEquals(2, lookups.get());
+    }
+
+    private GoogleRobotCredentials get(String id) {
+        return CredentialsCache.get(id, item, auth, () -> {
+            countLookup();
+            return credentials;
+        });
+    }
+
+    private GoogleRobotCredentials countLookup() {
+        lookups.incrementAndGet();
+        return null;
+    }
+
+}
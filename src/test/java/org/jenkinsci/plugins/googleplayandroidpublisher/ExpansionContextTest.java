@@ -0,0 +1,87 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.common.collect.ListMultimap;
+import hudson.model.AbstractBuild;
+import hudson.model.FreeStyleBuild;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.tokenmacro.TokenMacro;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+public class ExpansionContextTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final TaskListener listener = mock(TaskListener.class);
+
+    @Test
+    public void literalValues_areTrimmedWithoutEvaluatingTheBuildEnvironment() throws Exception {
+        AbstractBuild<?, ?> build = mock(AbstractBuild.class);
+        ExpansionContext context = new ExpansionContext(build, listener);
+
+        context.expandAll("  beta ", "", null);
+
+        assertEquals("beta", context.expand("  beta "));
+        assertNull(context.expand(""));
+        assertNull(context.expand(null));
+        verifyNoInteractions(build, listener);
+    }
+
+    @Test
+    public void pipelineValues_areReturnedAsIs() throws Exception {
+        Run<?, ?> run = mock(Run.class);
+        ExpansionContext context = new ExpansionContext(run, listener);
+
+        assertEquals("${TRACK} ", context.expand("${TRACK} "));
+        verifyNoInteractions(run, listener);
+    }
+
+    @Test
+    public void valuesWithMacros_areOnlyExpandedOnce() throws Exception {
+        FreeStyleBuild build = j.buildAndAssertSuccess(j.createFreeStyleProject());
+        ExpansionContext context = new ExpansionContext(build, TaskListener.NULL);
+        CountingMacro.evaluations.set(0);
+
+        // Expanding the same value up front, and then several times afterwards, should only evaluate the macro once
+        context.expandAll("${COUNTED_TRACK}", "${COUNTED_TRACK}");
+        assertEquals("beta", context.expand("${COUNTED_TRACK}"));
+        assertEquals("beta", context.expand("${COUNTED_TRACK}"));
+        assertEquals(1, CountingMacro.evaluations.get());
+
+        // Whereas a different value is expanded separately
+        assertEquals("beta-2", context.expand("${COUNTED_TRACK}-2"));
+        assertEquals(2, CountingMacro.evaluations.get());
+    }
+
+    @TestExtension("valuesWithMacros_areOnlyExpandedOnce")
+    public static class CountingMacro extends TokenMacro {
+
+        static final AtomicInteger evaluations = new AtomicInteger();
+
+        @Override
+        public boolean acceptsMacroName(String macroName) {
+            return "COUNTED_TRACK".equals(macroName);
+        }
+
+        @Override
+        public String evaluate(AbstractBuild<?, ?> context, TaskListener listener, String macroName,
+                               Map<String, String> arguments, ListMultimap<String, String> argumentMultimap) {
+            evaluations.incrementAndGet();
+            return "beta";
+        }
+
+    }
+
+}
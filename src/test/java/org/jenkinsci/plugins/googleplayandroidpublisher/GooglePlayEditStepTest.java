@@ -0,0 +1,284 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import hudson.Launcher;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.JenkinsUtil;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestHttpTransport;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestUtilImpl;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeAssignTrackResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeCommitResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeHttpResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListApksResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListBundlesResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListTracksResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakePostEditsResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakePutApkResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeUploadResponse;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Collections;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.assertResultWithLogLines;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.createAndroidPublisher;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.setUpCredentials;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.track;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+public class GooglePlayEditStepTest {
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final TestHttpTransport transport = new TestHttpTransport();
+
+    @Before
+    public void setUp() {
+        Util.setAndroidUtil(new TestUtilImpl());
+
+        // Create fake AndroidPublisher client
+        JenkinsUtil jenkinsUtil = spy(TestUtilImpl.class);
+        AndroidPublisher androidClient = createAndroidPublisher(transport);
+        when(jenkinsUtil.createPublisherClient(any(), anyString())).thenReturn(androidClient);
+        Util.setJenkinsUtil(jenkinsUtil);
+
+        setUpCredentials("test-credentials");
+        setUpCredentials("other-credentials");
+        setUpTransport();
+    }
+
+    @After
+    public void tearDown() {
+        transport.dumpRequests();
+        Util.setAndroidUtil(null);
+        Util.setJenkinsUtil(null);
+    }
+
+    @Test
+    public void changesWithinBlockAreAppliedInOneEdit() throws Exception {
+        // Given a Pipeline which uploads an APK within a withGooglePlayEdit block
+        WorkflowJob p = createPipeline("" +
+            "withGooglePlayEdit(googleCredentialsId: 'test-credentials', applicationId: 'org.jenkins.appId') {\n" +
+            "  node {\n" +
+            "    " + UPLOAD_APK + "\n" +
+            "  }\n" +
+            "}"
+        );
+
+        // When a build occurs, then the upload should use the block's edit, which is committed once it completes
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+            "Opening an edit on Google Play...",
+            "Changes made to this application within the withGooglePlayEdit block will be applied once the block " +
+                    "completes",
+            "- Using the edit opened by the enclosing withGooglePlayEdit block",
+            "Changes will be applied to Google Play at the end of the withGooglePlayEdit block",
+            "The withGooglePlayEdit block for 'org.jenkins.appId' has completed",
+            "Changes were successfully applied to Google Play"
+        );
+
+        // And the upload step should neither have opened, committed nor discarded an edit of its own
+        assertEquals(1, countRemoteCalls("POST", "/edits"));
+        assertEquals(1, countCommits());
+        assertEquals(0, countRemoteCalls("DELETE", "/edits/the-edit-id"));
+    }
+
+    @Test
+    public void changesWithinFailedBlockAreDiscarded() throws Exception {
+        // Given a Pipeline which uploads an APK within a withGooglePlayEdit block, which then fails
+        WorkflowJob p = createPipeline("" +
+            "withGooglePlayEdit(googleCredentialsId: 'test-credentials', applicationId: 'org.jenkins.appId') {\n" +
+            "  node {\n" +
+            "    " + UPLOAD_APK + "\n" +
+            "    error 'Something went wrong'\n" +
+            "  }\n" +
+            "}"
+        );
+
+        // When a build occurs, then the edit should be discarded
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Changes will be applied to Google Play at the end of the withGooglePlayEdit block",
+            "The withGooglePlayEdit block for 'org.jenkins.appId' failed; discarding its changes",
+            "No changes have been applied to the Google Play account"
+        );
+
+        // And nothing should have been committed
+        assertEquals(0, countCommits());
+        assertEquals(1, countRemoteCalls("DELETE", "/edits/the-edit-id"));
+    }
+
+    @Test
+    public void blocksForTheSameApplicationCannotBeNested() throws Exception {
+        // Given a Pipeline with nested withGooglePlayEdit blocks for the same application
+        WorkflowJob p = createPipeline("" +
+            "withGooglePlayEdit(googleCredentialsId: 'test-credentials', applicationId: 'org.jenkins.appId') {\n" +
+            "  withGooglePlayEdit(googleCredentialsId: 'test-credentials', applicationId: 'org.jenkins.appId') {\n" +
+            "    echo 'Inside the nested block'\n" +
+            "  }\n" +
+            "}"
+        );
+
+        // When a build occurs, then the inner block should fail, and the outer block's edit should be discarded
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "An edit is already open for 'org.jenkins.appId'; withGooglePlayEdit blocks for the same application " +
+                    "cannot be nested",
+            "The withGooglePlayEdit block for 'org.jenkins.appId' failed; discarding its changes"
+        );
+        assertEquals(1, countRemoteCalls("POST", "/edits"));
+        assertEquals(0, countCommits());
+        assertEquals(1, countRemoteCalls("DELETE", "/edits/the-edit-id"));
+    }
+
+    @Test
+    public void stepsWithinBlockMustUseTheSameCredential() throws Exception {
+        // Given a Pipeline which uploads an APK within a withGooglePlayEdit block, using a different credential
+        WorkflowJob p = createPipeline("" +
+            "withGooglePlayEdit(googleCredentialsId: 'test-credentials', applicationId: 'org.jenkins.appId') {\n" +
+            "  node {\n" +
+            "    " + UPLOAD_APK.replace("'test-credentials'", "'other-credentials'") + "\n" +
+            "  }\n" +
+            "}"
+        );
+
+        // When a build occurs, then the upload should be refused, and the edit discarded
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "The edit for 'org.jenkins.appId' was opened by withGooglePlayEdit using the credential " +
+                    "'test-credentials'; steps within that block must use the same credential",
+            "The withGooglePlayEdit block for 'org.jenkins.appId' failed; discarding its changes"
+        );
+        assertEquals(0, countRemoteCalls("PUT", "google.local/uploading/foo"));
+        assertEquals(0, countCommits());
+    }
+
+    @Test
+    public void blockWithoutApplicationIdFails() throws Exception {
+        // Given a Pipeline with a withGooglePlayEdit block that has no application ID
+        WorkflowJob p = createPipeline("" +
+            "withGooglePlayEdit(googleCredentialsId: 'test-credentials', applicationId: ' ') {\n" +
+            "  echo 'Inside the block'\n" +
+            "}"
+        );
+
+        // When a build occurs, then it should fail without contacting Google Play
+        assertResultWithLogLines(j, p, Result.FAILURE, "An application ID is required");
+        assertTrue(transport.getRemoteCalls().isEmpty());
+    }
+
+    @Test
+    public void stepsOutsideBlockUseTheirOwnEdit() throws Exception {
+        // Given a Pipeline which uploads an APK in one branch, while another is within a withGooglePlayEdit block
+        WorkflowJob p = createPipeline("" +
+            "def opened = false\n" +
+            "def uploaded = false\n" +
+            "parallel(\n" +
+            "  block: {\n" +
+            "    withGooglePlayEdit(googleCredentialsId: 'test-credentials', applicationId: 'org.jenkins.appId') {\n" +
+            "      opened = true\n" +
+            "      waitUntil { uploaded }\n" +
+            "    }\n" +
+            "  },\n" +
+            "  upload: {\n" +
+            "    waitUntil { opened }\n" +
+            "    node {\n" +
+            "      " + UPLOAD_APK + "\n" +
+            "    }\n" +
+            "    uploaded = true\n" +
+            "  }\n" +
+            ")"
+        );
+
+        // When a build occurs
+        WorkflowRun run = j.buildAndAssertSuccess(p);
+
+        // Then the upload should have opened and committed its own edit, rather than using the block's edit
+        j.assertLogNotContains("- Using the edit opened by the enclosing withGooglePlayEdit block", run);
+        assertEquals(2, countRemoteCalls("POST", "/edits"));
+        assertEquals(2, countCommits());
+    }
+
+    @Test
+    public void sharedEditIsOnlyUsedWithTheSameCredential() throws Exception {
+        // Given a launcher for the steps within a block which opened an edit
+        SharedEditContext edits = new SharedEditContext()
+                .with("org.jenkins.appId", "test-credentials", "the-edit-id");
+        Launcher launcher = edits.createLauncherDecorator()
+                .decorate(new Launcher.LocalLauncher(TaskListener.NULL), j.jenkins);
+
+        // Then steps for the same application use the edit, even if the launcher was decorated further
+        assertEquals("the-edit-id", SharedEditContext.getEditId(launcher, "org.jenkins.appId", "test-credentials"));
+        assertEquals("the-edit-id", SharedEditContext.getEditId(new Launcher.DecoratedLauncher(launcher),
+                "org.jenkins.appId", "test-credentials"));
+
+        // And other applications don't use the edit
+        assertNull(SharedEditContext.getEditId(launcher, "org.jenkins.otherAppId", "test-credentials"));
+
+        // And steps using a different credential are refused
+        try {
+            SharedEditContext.getEditId(launcher, "org.jenkins.appId", "other-credentials");
+            fail("Expected a different credential to be refused");
+        } catch (CredentialsException expected) {
+            assertTrue(expected.getMessage().contains("must use the same credential"));
+        }
+
+        // And steps run outside of the block don't use the edit
+        assertNull(SharedEditContext.getEditId(new Launcher.LocalLauncher(TaskListener.NULL), "org.jenkins.appId",
+                "test-credentials"));
+    }
+
+    private static final String UPLOAD_APK = "" +
+        "writeFile text: 'this-is-a-dummy-apk', file: 'build/outputs/apk/app.apk'\n" +
+        "    androidApkUpload googleCredentialsId: 'test-credentials', trackName: 'production'";
+
+    private WorkflowJob createPipeline(String script) throws Exception {
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition(script, true));
+        return p;
+    }
+
+    private long countRemoteCalls(String method, String urlSuffix) {
+        return transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals(method) && it.url.endsWith(urlSuffix))
+                .count();
+    }
+
+    private long countCommits() {
+        return transport.getRemoteCalls().stream().filter(it -> it.url.contains(":commit?")).count();
+    }
+
+    private void setUpTransport() {
+        transport
+                .withResponse("/edits",
+                        new FakePostEditsResponse().setEditId("the-edit-id"))
+                .withResponse("/edits/the-edit-id/apks",
+                        new FakeListApksResponse().setEmptyApks())
+                .withResponse("/edits/the-edit-id/bundles",
+                        new FakeListBundlesResponse().setEmptyBundles())
+                .withResponse("/edits/the-edit-id/tracks",
+                        new FakeListTracksResponse().setTracks(Collections.singletonList(track("production"))))
+                .withResponse("/edits/the-edit-id/apks?uploadType=resumable",
+                        new FakeUploadResponse().willContinue())
+                .withResponse("google.local/uploading/foo",
+                        new FakePutApkResponse().success(42, "the:sha"))
+                .withResponse("/edits/the-edit-id/tracks/production",
+                        new FakeAssignTrackResponse().success("production", 42))
+                .withResponse("/edits/the-edit-id:commit?changesNotSentForReview=false",
+                        new FakeCommitResponse().success())
+                .withResponse("/org.jenkins.appId/edits/the-edit-id",
+                        new FakeHttpResponse().setResponseData(204, null))
+        ;
+    }
+
+}
@@ -0,0 +1,100 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestHttpTransport;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeUploadResponse;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.createAndroidPublisher;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MonitoredUploadTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** Releases the requests which are stuck on a connection. */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /** The names of the threads on which each attempt to send the file was made. */
+    private final List<String> uploadThreads = new CopyOnWriteArrayList<>();
+
+    @After
+    public void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    public void stalledUploadIsRestartedOnItsOwnThreadAndEventuallyFails() throws Exception {
+        // Given an upload whose connection hangs, without sending any data, and ignoring interrupts
+        TestHttpTransport transport = new StallingTransport();
+        transport.withResponse("/edits/the-edit-id/apks?uploadType=resumable", new FakeUploadResponse().willContinue());
+        AndroidPublisher.Edits edits = createAndroidPublisher(transport).edits();
+        File file = tmp.newFile("app.apk");
+        Files.write(file.toPath(), new byte[1024]);
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+        // When the file is uploaded
+        try {
+            MonitoredUpload.execute(new PrintStream(log, true), file, 100, content ->
+                    edits.apks().upload("org.jenkins.appId", "the-edit-id", content));
+            fail("Expected the stalled upload to fail");
+        } catch (IOException e) {
+            // Then it should have been restarted until giving up
+            assertEquals("Upload of app.apk made no progress for 0 seconds, and was aborted after 3 attempts",
+                    e.getMessage());
+        }
+        String output = log.toString();
+        assertTrue(output, output.contains("Upload made no progress for 0 seconds; restarting it (attempt 2 of 3)"));
+        assertTrue(output, output.contains("Upload made no progress for 0 seconds; restarting it (attempt 3 of 3)"));
+
+        // And each attempt should have been made on the upload pool, as the abandoned ones are still stuck
+        assertEquals(MonitoredUpload.MAX_STALL_RETRIES + 1, uploadThreads.size());
+        for (String name : uploadThreads) {
+            assertTrue(name, name.startsWith("GooglePlayPublisher.AsyncPublisherClient.upload"));
+        }
+    }
+
+    /** Simulates a connection which stops responding once the file data is about to be sent. */
+    private final class StallingTransport extends TestHttpTransport {
+        @Override
+        public LowLevelHttpRequest buildRequest(String method, String url) {
+            if (!url.endsWith("google.local/uploading/foo")) {
+                return super.buildRequest(method, url);
+            }
+            uploadThreads.add(Thread.currentThread().getName());
+            return new MockLowLevelHttpRequest(url) {
+                @Override
+                public LowLevelHttpResponse execute() throws IOException {
+                    // Like a socket blocked on a dead connection, this doesn't respond to being interrupted
+                    while (release.getCount() > 0) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException ignored) {
+                            // Keep waiting
+                        }
+                    }
+                    throw new IOException("Connection reset");
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReadReleaseNotesTaskTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsNotesForEachVersionCode_fallingBackToDefault() throws IOException {
+        write("metadata/en-US/changelogs/101.txt", "  Bug fixes\n");
+        write("metadata/en-US/changelogs/default.txt", "Improvements");
+        write("metadata/de-DE/changelogs/102.txt", "Fehlerbehebungen");
+        write("metadata/fr-FR/title.txt", "Mon app");
+
+        Map<Long, Map<String, String>> notes = read("metadata", 101L, 102L);
+
+        assertEquals(Collections.singletonMap("en-US", "Bug fixes"), notes.get(101L));
+        assertEquals("Improvements", notes.get(102L).get("en-US"));
+        assertEquals("Fehlerbehebungen", notes.get(102L).get("de-DE"));
+        assertEquals(2, notes.get(102L).size());
+    }
+
+    @Test
+    public void versionCodesWithoutNotes_haveNoLanguages() throws IOException {
+        write("metadata/en-US/changelogs/101.txt", "Bug fixes");
+
+        assertTrue(read("metadata", 102L).get(102L).isEmpty());
+    }
+
+    @Test
+    public void missingDirectory_returnsNull() throws IOException {
+        assertNull(read("metadata", 101L));
+    }
+
+    private Map<Long, Map<String, String>> read(String directory, Long... versionCodes) throws IOException {
+        return new ReadReleaseNotesTask(directory, Arrays.asList(versionCodes)).invoke(folder.getRoot(), null);
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(folder.getRoot(), path);
+        assertTrue(file.getParentFile().mkdirs() || file.getParentFile().isDirectory());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
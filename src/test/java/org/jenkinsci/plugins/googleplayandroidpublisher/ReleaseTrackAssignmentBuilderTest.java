@@ -15,6 +15,7 @@ import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestHttpTranspo
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestUtilImpl;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeAssignTrackResponse;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeCommitResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeHttpResponse;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListApksResponse;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListBundlesResponse;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListTracksResponse;
@@ -30,6 +31,7 @@ import org.jvnet.hudson.test.JenkinsRule;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -41,6 +43,7 @@ import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHel
 import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.setUpCredentials;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.track;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.any;
@@ -106,6 +109,28 @@ public class ReleaseTrackAssignmentBuilderTest {
         j.assertEqualDataBoundBeans(builder, project.getBuildersList().get(0));
     }
 
+    @Test
+    public void configRoundtripWithPromotionWorks() throws Exception {
+        // Given a job configured to promote releases for multiple applications
+        setUpCredentials("test-credentials");
+        FreeStyleProject project = j.createFreeStyleProject();
+        ReleaseTrackAssignmentBuilder builder = createPromotionBuilder("com.example.one, com.example.two");
+        builder.setFromVersionCode(false);
+        builder.setApplicationId("org.jenkins.appId");
+        builder.setVersionCodes("42");
+        builder.setFilesPattern("**/*.apk");
+        builder.setReleaseName("1.2.3");
+        builder.setMaxParallelApplications("8");
+        builder.setRequireAllApplicationsSucceed(true);
+        project.getBuildersList().add(builder);
+
+        // When we open and save the configuration page for this job
+        project = j.configRoundtrip(project);
+
+        // Then the promotion options should have been retained
+        j.assertEqualDataBoundBeans(builder, project.getBuildersList().get(0));
+    }
+
     @Test
     public void movingApkTrackWithoutTrackNameFails() throws Exception {
         // Given a job where the track name is not provided
@@ -351,6 +376,110 @@ public class ReleaseTrackAssignmentBuilderTest {
         assertResultWithLogLines(j, p, Result.FAILURE, "Release track 'non-existent-track' could not be found");
     }
 
+    @Test
+    public void promotingReleaseFromAnotherTrackSucceeds() throws Exception {
+        // Given a job which promotes the current beta release of an application to production
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildersList().add(createPromotionBuilder("org.jenkins.appId"));
+
+        // And the beta track has a release which is currently active
+        setUpTransportForPromotion("org.jenkins.appId", true);
+
+        // When a build occurs, then that release should be assigned to the production track
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+            "Promoting the current release from the 'beta' track",
+            "Updating release track 'production':",
+            "- Application ID:  org.jenkins.appId",
+            "- Version codes:   42",
+            "- Staged rollout:  5%",
+            "- Release name:    beta-release",
+            "- Release notes:   en-GB",
+            "Changes were successfully applied to Google Play"
+        );
+
+        // And the release details should have been carried over from the beta release
+        Track track = getRequestBodyForUrl(
+            transport, "/org.jenkins.appId/edits/the-edit-id/tracks/production", Track.class
+        );
+        TrackRelease release = track.getReleases().get(0);
+        assertEquals(Collections.singletonList(42L), release.getVersionCodes());
+        assertEquals("beta-release", release.getName());
+        assertEquals("Notes: en-GB", release.getReleaseNotes().get(0).getText());
+    }
+
+    @Test
+    public void promotingFromTrackWithoutActiveReleaseFails() throws Exception {
+        // Given a job which promotes the current beta release of an application to production
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildersList().add(createPromotionBuilder("org.jenkins.appId"));
+
+        // But the beta track only has a draft release
+        setUpTransportForPromotion("org.jenkins.appId", false);
+
+        // When a build occurs, then it should fail without changing anything
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Release track 'beta' does not have an active release which could be promoted"
+        );
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.contains(":commit")));
+    }
+
+    @Test
+    public void promotingWithInvalidMaxParallelApplicationsFails() throws Exception {
+        // Given a job which promotes releases for several applications, but with an invalid degree of parallelism
+        FreeStyleProject p = j.createFreeStyleProject();
+        ReleaseTrackAssignmentBuilder builder = createPromotionBuilder("com.example.one, com.example.two");
+        builder.setMaxParallelApplications("lots");
+        p.getBuildersList().add(builder);
+
+        // When a build occurs, then it should fail due to the invalid configuration
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "'lots' is not a valid number of applications to process in parallel"
+        );
+    }
+
+    @Test
+    public void promotingReleasesForMultipleApplicationsWhereOneFailsIsUnstable() throws Exception {
+        // Given a job which promotes releases for two applications
+        FreeStyleProject p = j.createFreeStyleProject();
+        ReleaseTrackAssignmentBuilder builder = createPromotionBuilder("com.example.one, com.example.two");
+        builder.setMaxParallelApplications("1");
+        p.getBuildersList().add(builder);
+
+        // But only the first application has a release which can be promoted
+        setUpTransportForPromotion("com.example.one", true);
+        setUpTransportForPromotion("com.example.two", false);
+
+        // When a build occurs, then only the first application should be updated
+        assertResultWithLogLines(j, p, Result.UNSTABLE,
+            "- Application IDs: com.example.one, com.example.two",
+            "COMMITTED  com.example.one  42",
+            "FAILED     com.example.two",
+            "Changes were applied to Google Play for only 1 of 2 applications"
+        );
+    }
+
+    @Test
+    public void promotingReleasesForMultipleApplicationsWhereOneFailsAndAllAreRequiredFails() throws Exception {
+        // Given a job which only promotes releases if it can do so for every application
+        FreeStyleProject p = j.createFreeStyleProject();
+        ReleaseTrackAssignmentBuilder builder = createPromotionBuilder("com.example.one, com.example.two");
+        builder.setRequireAllApplicationsSucceed(true);
+        p.getBuildersList().add(builder);
+
+        // But only the first application has a release which can be promoted
+        setUpTransportForPromotion("com.example.one", true);
+        setUpTransportForPromotion("com.example.two", false);
+
+        // When a build occurs, then neither application should be updated
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Not every application could be prepared for release, so no changes will be applied",
+            "DISCARDED  com.example.one  42",
+            "FAILED     com.example.two",
+            "No changes have been applied to the Google Play account"
+        );
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.contains(":commit")));
+    }
+
     @Test
     public void movingApkTrackWithPipelineWithoutTrackNameFails() throws Exception {
         // Given a Pipeline where the track name is not provided
@@ -670,6 +799,42 @@ public class ReleaseTrackAssignmentBuilderTest {
         ;
     }
 
+    /**
+     * Sets up the responses for a single edit of the given application, whose beta track has a release.
+     *
+     * @param isBetaReleaseActive Whether that release is being rolled out, meaning that it can be promoted.
+     */
+    private void setUpTransportForPromotion(String applicationId, boolean isBetaReleaseActive) {
+        final String edit = "/" + applicationId + "/edits/the-edit-id";
+        final TrackRelease betaRelease = release(42, "en-GB")
+                .setName("beta-release")
+                .setStatus(isBetaReleaseActive ? "completed" : "draft");
+        transport
+            .withResponse("/" + applicationId + "/edits",
+                    new FakePostEditsResponse().setEditId("the-edit-id"))
+            .withResponse(edit + "/tracks",
+                    new FakeListTracksResponse().setTracks(Arrays.asList(track("production"),
+                            track("beta", betaRelease))))
+            .withResponse(edit + "/tracks/production",
+                    new FakeAssignTrackResponse().success("production", 42))
+            .withResponse(edit + ":commit?changesNotSentForReview=false",
+                    new FakeCommitResponse().success())
+            .withResponse(edit,
+                    new FakeHttpResponse().setResponseData(204, null))
+        ;
+    }
+
+    private ReleaseTrackAssignmentBuilder createPromotionBuilder(String applicationIds) {
+        ReleaseTrackAssignmentBuilder builder = new ReleaseTrackAssignmentBuilder();
+        setUpCredentials("test-credentials");
+        builder.setGoogleCredentialsId("test-credentials");
+        builder.setSourceTrackName("beta");
+        builder.setApplicationIds(applicationIds);
+        builder.setRolloutPercentage("5%");
+        builder.setTrackName("production");
+        return builder;
+    }
+
     private ReleaseTrackAssignmentBuilder createBuilder() throws Exception {
         ReleaseTrackAssignmentBuilder builder = new ReleaseTrackAssignmentBuilder();
         setUpCredentials("test-credentials");
@@ -0,0 +1,440 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import hudson.XmlFile;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.JenkinsUtil;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestHttpTransport;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestUtilImpl;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeAssignTrackResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeCommitResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeHttpResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakePostEditsResponse;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.assertResultWithLogLines;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.createAndroidPublisher;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.setUpCredentials;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+public class RolloutUpdateBuilderTest {
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final JenkinsUtil jenkinsUtil = spy(TestUtilImpl.class);
+
+    private final TestHttpTransport transport = new TestHttpTransport();
+
+    @Before
+    public void setUp() {
+        // Create fake AndroidPublisher client
+        AndroidPublisher androidClient = createAndroidPublisher(transport);
+        when(jenkinsUtil.createPublisherClient(any(), anyString())).thenReturn(androidClient);
+        Util.setJenkinsUtil(jenkinsUtil);
+    }
+
+    @After
+    public void tearDown() {
+        // Scheduled rollouts would otherwise carry on in the background
+        StagedRolloutScheduler.get().cancel("org.jenkins.appId", "production");
+        transport.dumpRequests();
+        Util.setJenkinsUtil(null);
+    }
+
+    @Test
+    public void configRoundtripWorks() throws Exception {
+        // Given a job configured with the builder, which includes all possible configuration options
+        setUpCredentials("credential-a");
+        setUpCredentials("credential-b");
+        FreeStyleProject project = j.createFreeStyleProject();
+        RolloutUpdateBuilder builder = new RolloutUpdateBuilder();
+        builder.setGoogleCredentialsId("credential-b");
+        builder.setApplicationId("org.jenkins.appId");
+        builder.setTrackName("production");
+        builder.setRolloutAction("halt");
+        builder.setRolloutPercentage("20");
+        builder.setRolloutSchedule("50, 100");
+        builder.setScheduleIntervalHours("12");
+        project.getBuildersList().add(builder);
+
+        // When we open and save the configuration page for this job
+        project = j.configRoundtrip(project);
+
+        // Then the builder should have been serialised and deserialised, without any changes
+        j.assertEqualDataBoundBeans(builder, project.getBuildersList().get(0));
+    }
+
+    @Test
+    public void updatingRolloutWithoutPercentageFails() throws Exception {
+        // Given a job which updates the rollout, but without saying to what percentage
+        FreeStyleProject p = j.createFreeStyleProject();
+        RolloutUpdateBuilder builder = createBuilder();
+        builder.setRolloutPercentage(null);
+        p.getBuildersList().add(builder);
+
+        // When a build occurs, then it should fail without contacting Google Play
+        assertResultWithLogLines(j, p, Result.FAILURE, "Rollout percentage was not specified");
+        assertTrue(transport.getRemoteCalls().isEmpty());
+    }
+
+    @Test
+    public void updatingRolloutWithInvalidConfigurationFails() throws Exception {
+        // Given a job with an unknown action, and a schedule which can't be used with it
+        FreeStyleProject p = j.createFreeStyleProject();
+        RolloutUpdateBuilder builder = createBuilder();
+        builder.setRolloutAction("sideways");
+        builder.setRolloutSchedule("50");
+        builder.setScheduleIntervalHours("never");
+        p.getBuildersList().add(builder);
+
+        // When a build occurs, then each of the problems should be reported
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "'sideways' is not a valid rollout action; expected one of: update, halt, resume, complete",
+            "A rollout schedule can only be used when updating the rollout percentage",
+            "'never' is not a valid number of hours between rollout steps"
+        );
+        assertTrue(transport.getRemoteCalls().isEmpty());
+    }
+
+    @Test
+    public void updatingRolloutWithDecreasingScheduleFails() throws Exception {
+        // Given a job whose schedule would reduce the rollout percentage
+        FreeStyleProject p = j.createFreeStyleProject();
+        RolloutUpdateBuilder builder = createBuilder();
+        builder.setRolloutSchedule("50, 10");
+        p.getBuildersList().add(builder);
+
+        // When a build occurs, then it should fail
+        assertResultWithLogLines(j, p, Result.FAILURE, "Rollout schedule percentages must increase with each step");
+    }
+
+    @Test
+    public void updatingRolloutSucceeds() throws Exception {
+        // Given a job which increases the rollout to 20%
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildersList().add(createBuilder());
+
+        // And the production track has a release being rolled out to 10% of users
+        setUpTransport(stagedRelease(0.1));
+
+        // When a build occurs, then only the user fraction of the release should have changed
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+            "Updating staged rollout on release track 'production':",
+            "- Version codes:  42",
+            "- Status:         inProgress → inProgress",
+            "- Staged rollout: 10% → 20%",
+            "Changes were successfully applied to Google Play"
+        );
+        TrackRelease release = getUpdatedTrack(0).getReleases().get(0);
+        assertEquals("inProgress", release.getStatus());
+        assertEquals(0.2, release.getUserFraction(), 0.0001);
+    }
+
+    @Test
+    public void completingRolloutSucceeds() throws Exception {
+        // Given a job which completes the rollout
+        FreeStyleProject p = j.createFreeStyleProject();
+        RolloutUpdateBuilder builder = createBuilder();
+        builder.setRolloutAction("complete");
+        builder.setRolloutPercentage(null);
+        p.getBuildersList().add(builder);
+
+        // And the production track has a previous, completed release, plus a release being rolled out
+        TrackRelease previous = new TrackRelease().setVersionCodes(Collections.singletonList(41L))
+                .setStatus("completed");
+        setUpTransport(previous, stagedRelease(0.5));
+
+        // When a build occurs, then the staged release should be completed
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+            "- Status:         inProgress → completed",
+            "- Staged rollout: 50% → (none)",
+            "Changes were successfully applied to Google Play"
+        );
+
+        // And the previous completed release should have been replaced
+        List<TrackRelease> releases = getUpdatedTrack(0).getReleases();
+        assertEquals(1, releases.size());
+        assertEquals(Collections.singletonList(42L), releases.get(0).getVersionCodes());
+        assertEquals("completed", releases.get(0).getStatus());
+        assertNull(releases.get(0).getUserFraction());
+    }
+
+    @Test
+    public void updatingRolloutWithoutStagedReleaseFails() throws Exception {
+        // Given a job which increases the rollout
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildersList().add(createBuilder());
+
+        // But the production track only has a completed release
+        setUpTransport(new TrackRelease().setVersionCodes(Collections.singletonList(42L)).setStatus("completed"));
+
+        // When a build occurs, then it should fail without changing anything
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Release track 'production' has no staged release whose rollout could be changed",
+            "No changes have been applied to the Google Play account"
+        );
+        assertTrue(getUpdatedTracks().isEmpty());
+    }
+
+    @Test
+    public void rolloutScheduleIsPersisted() throws Exception {
+        // Given a job which schedules further increases to the rollout
+        FreeStyleProject p = j.createFreeStyleProject();
+        RolloutUpdateBuilder builder = createBuilder();
+        builder.setRolloutSchedule("50, 100");
+        p.getBuildersList().add(builder);
+        setUpTransport(stagedRelease(0.1));
+
+        // When a build occurs, then the schedule should be logged
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+            "Scheduled the rollout to be increased to 50%, 100%, with the first step at "
+        );
+
+        // And it should have been saved to disk, so that it survives a restart
+        String saved = getScheduleFile().asString();
+        assertTrue(saved, saved.contains("<applicationId>org.jenkins.appId</applicationId>"));
+        assertTrue(saved, saved.contains("<trackName>production</trackName>"));
+        assertTrue(saved, saved.contains("<intervalMillis>86400000</intervalMillis>"));
+
+        // And running the step again without a schedule should cancel it
+        builder.setRolloutSchedule(null);
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+            "Cancelled the previously-scheduled rollout steps for track 'production'"
+        );
+        assertFalse(getScheduleFile().asString().contains("org.jenkins.appId"));
+    }
+
+    @Test
+    public void rolloutScheduleIsAppliedInTheBackground() throws Exception {
+        // Given a job which schedules further increases to the rollout, about a second apart
+        FreeStyleProject p = j.createFreeStyleProject();
+        RolloutUpdateBuilder builder = createBuilder();
+        builder.setRolloutSchedule("50, 100");
+        builder.setScheduleIntervalHours("0.0003");
+        p.getBuildersList().add(builder);
+        setUpTransport(stagedRelease(0.1));
+
+        // When a build occurs
+        assertResultWithLogLines(j, p, Result.SUCCESS, "Scheduled the rollout to be increased to 50%, 100%");
+
+        // Then each step of the schedule should be applied after the build has finished
+        waitUntil(() -> getUpdatedTracks().size() == 3);
+        assertEquals(0.5, getUpdatedTrack(1).getReleases().get(0).getUserFraction(), 0.0001);
+        assertEquals("completed", getUpdatedTrack(2).getReleases().get(0).getStatus());
+
+        // And once the rollout has been completed, the schedule should be removed
+        waitUntil(() -> !getScheduleFile().asString().contains("org.jenkins.appId"));
+    }
+
+    @Test
+    public void rolloutScheduleIsDroppedAfterRepeatedFailures() throws Exception {
+        // Given a job which schedules further increases to the rollout, about a second apart
+        FreeStyleProject p = j.createFreeStyleProject();
+        RolloutUpdateBuilder builder = createBuilder();
+        builder.setRolloutSchedule("50, 100");
+        builder.setScheduleIntervalHours("0.0003");
+        p.getBuildersList().add(builder);
+        setUpTransport(stagedRelease(0.1));
+
+        // When a build occurs
+        assertResultWithLogLines(j, p, Result.SUCCESS, "Scheduled the rollout to be increased to 50%, 100%");
+
+        // But Google Play rejects each subsequent change
+        transport.withResponse("/edits/the-edit-id:commit?changesNotSentForReview=false",
+                FakeHttpResponse.forError(500, "Internal error encountered"));
+
+        // Then the schedule should be removed after several attempts
+        waitUntil(() -> !getScheduleFile().asString().contains("org.jenkins.appId"));
+        long commitCount = transport.getRemoteCalls().stream().filter(it -> it.url.contains(":commit")).count();
+        assertEquals(4, commitCount);
+    }
+
+    @Test
+    public void failedUpdateKeepsTheExistingSchedule() throws Exception {
+        // Given a job which has scheduled further increases to the rollout
+        FreeStyleProject p = j.createFreeStyleProject();
+        RolloutUpdateBuilder builder = createBuilder();
+        builder.setRolloutSchedule("50, 100");
+        p.getBuildersList().add(builder);
+        setUpTransport(stagedRelease(0.1));
+        j.assertBuildStatusSuccess(p.scheduleBuild2(0));
+
+        // When the next rollout update fails
+        builder.setRolloutSchedule(null);
+        transport.withResponse("/edits/the-edit-id:commit?changesNotSentForReview=false",
+                FakeHttpResponse.forError(400, "The edit could not be committed"));
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "No changes have been applied to the Google Play account"
+        );
+
+        // Then the existing schedule should remain in place
+        assertTrue(getScheduleFile().asString().contains("<trackName>production</trackName>"));
+    }
+
+    @Test
+    public void rolloutScheduleWithinEditIsOnlyAppliedOnceCommitted() throws Exception {
+        // Given a Pipeline which schedules rollout steps within a withGooglePlayEdit block
+        WorkflowJob p = createPipelineWithinEdit("");
+        setUpTransport(stagedRelease(0.1));
+
+        // When a build occurs, then the schedule should only be set up after the changes have been applied
+        WorkflowRunLog log = runPipeline(p, Result.SUCCESS);
+        log.assertInOrder(
+            "The rollout schedule will be set up once the withGooglePlayEdit block's changes have been applied",
+            "Changes were successfully applied to Google Play",
+            "Scheduled the rollout to be increased to 50%, 100%"
+        );
+        assertTrue(getScheduleFile().asString().contains("org.jenkins.appId"));
+    }
+
+    @Test
+    public void rolloutScheduleWithinFailedEditIsNotApplied() throws Exception {
+        // Given a Pipeline which schedules rollout steps within a withGooglePlayEdit block, which then fails
+        WorkflowJob p = createPipelineWithinEdit("error 'Something went wrong'");
+        setUpTransport(stagedRelease(0.1));
+
+        // When a build occurs, then the edit should be discarded, and nothing should be scheduled
+        WorkflowRunLog log = runPipeline(p, Result.FAILURE);
+        log.assertInOrder(
+            "The rollout schedule will be set up once the withGooglePlayEdit block's changes have been applied",
+            "The withGooglePlayEdit block for 'org.jenkins.appId' failed; discarding its changes"
+        );
+        log.assertNotContains("Scheduled the rollout");
+        assertFalse(getScheduleFile().exists() && getScheduleFile().asString().contains("org.jenkins.appId"));
+    }
+
+    private WorkflowJob createPipelineWithinEdit(String afterUpdate) throws IOException {
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "withGooglePlayEdit(googleCredentialsId: 'test-credentials', applicationId: 'org.jenkins.appId') {\n" +
+            "  node {\n" +
+            "    androidRolloutUpdate googleCredentialsId: 'test-credentials',\n" +
+            "      applicationId: 'org.jenkins.appId',\n" +
+            "      trackName: 'production',\n" +
+            "      rolloutPercentage: '20',\n" +
+            "      rolloutSchedule: '50, 100'\n" +
+            "    " + afterUpdate + "\n" +
+            "  }\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+        return p;
+    }
+
+    private WorkflowRunLog runPipeline(WorkflowJob p, Result expectedResult) throws Exception {
+        return new WorkflowRunLog(j.assertBuildStatus(expectedResult, p.scheduleBuild2(0)).getLog());
+    }
+
+    /** Allows checking the order in which lines were written to a build log. */
+    private static final class WorkflowRunLog {
+        private final String log;
+
+        WorkflowRunLog(String log) {
+            this.log = log;
+        }
+
+        void assertInOrder(String... lines) {
+            int index = 0;
+            for (String line : lines) {
+                index = log.indexOf(line, index);
+                assertTrue(String.format("Expected '%s' in order within:%n%s", line, log), index >= 0);
+            }
+        }
+
+        void assertNotContains(String text) {
+            assertFalse(log, log.contains(text));
+        }
+    }
+
+    private static TrackRelease stagedRelease(double userFraction) {
+        return new TrackRelease().setVersionCodes(Collections.singletonList(42L)).setStatus("inProgress")
+                .setUserFraction(userFraction);
+    }
+
+    /**
+     * Sets up Google Play to return a production track with the given releases; the same track is returned for
+     * every request, as the track is fetched and updated via the same URL.
+     */
+    private void setUpTransport(TrackRelease... releases) {
+        transport
+            .withResponse("/edits",
+                    new FakePostEditsResponse().setEditId("the-edit-id"))
+            .withResponse("/edits/the-edit-id/tracks/production",
+                    new FakeAssignTrackResponse().success("production", Arrays.asList(releases)))
+            .withResponse("/edits/the-edit-id:commit?changesNotSentForReview=false",
+                    new FakeCommitResponse().success())
+            .withResponse("/org.jenkins.appId/edits/the-edit-id",
+                    new FakeHttpResponse().setResponseData(204, null))
+        ;
+    }
+
+    /** @return The bodies of the requests which updated the production track, in the order they were made. */
+    private List<Track> getUpdatedTracks() {
+        return transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("PUT") && it.url.endsWith("/edits/the-edit-id/tracks/production"))
+                .map(it -> {
+                    try {
+                        return JacksonFactory.getDefaultInstance().createJsonParser(it.request.getContentAsString())
+                                .parse(Track.class);
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                })
+                .collect(Collectors.toList());
+    }
+
+    private Track getUpdatedTrack(int index) {
+        return getUpdatedTracks().get(index);
+    }
+
+    private XmlFile getScheduleFile() {
+        return new XmlFile(new File(j.jenkins.getRootDir(), StagedRolloutScheduler.class.getName() + ".xml"));
+    }
+
+    private static void waitUntil(Callable<Boolean> condition) throws Exception {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (!condition.call()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for the scheduled rollout");
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private RolloutUpdateBuilder createBuilder() {
+        RolloutUpdateBuilder builder = new RolloutUpdateBuilder();
+        setUpCredentials("test-credentials");
+        builder.setGoogleCredentialsId("test-credentials");
+        builder.setApplicationId("org.jenkins.appId");
+        builder.setTrackName("production");
+        builder.setRolloutPercentage("20");
+        return builder;
+    }
+}
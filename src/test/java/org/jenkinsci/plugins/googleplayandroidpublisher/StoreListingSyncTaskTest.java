@@ -0,0 +1,54 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StoreListingSyncTaskTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readLocalListings_readsTextAndHashesImages() throws IOException {
+        write("en-US/title.txt", "My App\n");
+        write("en-US/full_description.txt", "A great app");
+        write("en-US/images/icon.png", "icon");
+        write("en-US/images/phoneScreenshots/2.png", "second");
+        write("en-US/images/phoneScreenshots/1.png", "first");
+        write("en-US/images/phoneScreenshots/notes.txt", "not an image");
+        write("de-DE/title.txt", "Meine App");
+        write("screenshots/1.png", "not a language");
+
+        List<StoreListingSyncTask.LocalListing> listings = StoreListingSyncTask.readLocalListings(folder.getRoot());
+
+        assertEquals(2, listings.size());
+        assertEquals("de-DE", listings.get(0).language);
+        assertTrue(listings.get(0).images.isEmpty());
+
+        StoreListingSyncTask.LocalListing english = listings.get(1);
+        assertEquals("My App", english.text.get("title"));
+        assertEquals("A great app", english.text.get("fullDescription"));
+        assertEquals(DigestUtils.sha1Hex("icon"), english.images.get("icon").keySet().iterator().next());
+        assertEquals(Arrays.asList(DigestUtils.sha1Hex("first"), DigestUtils.sha1Hex("second")),
+                Arrays.asList(english.images.get("phoneScreenshots").keySet().toArray()));
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(folder.getRoot(), path);
+        assertTrue(file.getParentFile().mkdirs() || file.getParentFile().isDirectory());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
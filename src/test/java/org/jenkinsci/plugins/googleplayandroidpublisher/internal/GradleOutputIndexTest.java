@@ -0,0 +1,97 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class GradleOutputIndexTest {
+
+    @Test
+    public void getVariantKey_joinsVariantDirectories() {
+        assertEquals("app/:flavorrelease",
+                GradleOutputIndex.getVariantKey("app/build/outputs/apk/flavor/release/app-flavor-release.apk"));
+        assertEquals("app/:flavorrelease",
+                GradleOutputIndex.getVariantKey("app/build/outputs/bundle/flavorRelease/app-flavor-release.aab"));
+        assertEquals("app/:flavorrelease",
+                GradleOutputIndex.getVariantKey("app/build/outputs/mapping/flavorRelease/mapping.txt"));
+        assertEquals("app/:flavorrelease", GradleOutputIndex.getVariantKey(
+                "app/build/outputs/native-debug-symbols/flavorRelease/native-debug-symbols.zip"));
+    }
+
+    @Test
+    public void getVariantKey_withWindowsPath() {
+        assertEquals("app/:release",
+                GradleOutputIndex.getVariantKey("app\\build\\outputs\\mapping\\release\\mapping.txt"));
+    }
+
+    @Test
+    public void getVariantKey_withUnknownPath_returnsNull() {
+        assertNull(GradleOutputIndex.getVariantKey("release/mapping.txt"));
+        assertNull(GradleOutputIndex.getVariantKey("app/build/outputs/mapping/mapping.txt"));
+        assertNull(GradleOutputIndex.getVariantKey("app/build/outputs/logs/release/manifest-merger.txt"));
+    }
+
+    @Test
+    public void getVariantName_joinsVariantDirectoriesInCamelCase() {
+        assertEquals("flavorRelease",
+                GradleOutputIndex.getVariantName("app/build/outputs/apk/flavor/release/app-flavor-release.apk"));
+        assertEquals("flavorRelease",
+                GradleOutputIndex.getVariantName("app/build/outputs/bundle/flavorRelease/app-flavor-release.aab"));
+        assertEquals("release", GradleOutputIndex.getVariantName("app\\build\\outputs\\apk\\release\\app.apk"));
+        assertNull(GradleOutputIndex.getVariantName("app/build/outputs/apk/app.apk"));
+    }
+
+    @Test
+    public void findMatch_matchesByModuleAndVariant_regardlessOfOrder() {
+        GradleOutputIndex index = new GradleOutputIndex(Arrays.asList(
+                "lite/build/outputs/mapping/release/mapping.txt",
+                "app/build/outputs/mapping/two_release/mapping.txt",
+                "app/build/outputs/mapping/oneRelease/mapping.txt"
+        ));
+
+        assertTrue(index.isComplete());
+        assertEquals("app/build/outputs/mapping/oneRelease/mapping.txt",
+                index.findMatch("app/build/outputs/apk/one/release/app-one-release.apk"));
+        assertEquals("app/build/outputs/mapping/two_release/mapping.txt",
+                index.findMatch("app/build/outputs/apk/two_/release/app-two_-release.apk"));
+        assertNull(index.findMatch("app/build/outputs/apk/three/release/app-three-release.apk"));
+        assertThat(index.getUnmatchedPaths(), contains("lite/build/outputs/mapping/release/mapping.txt"));
+    }
+
+    @Test
+    public void index_reportsUnindexedAndAmbiguousPaths() {
+        GradleOutputIndex index = new GradleOutputIndex(Arrays.asList(
+                "app/build/outputs/mapping/flavor/release/mapping.txt",
+                "app/build/outputs/mapping/flavorRelease/mapping.txt",
+                "mappings/mapping.txt"
+        ));
+
+        assertFalse(index.isComplete());
+        assertThat(index.getUnindexedPaths(), contains("mappings/mapping.txt"));
+        assertThat(index.getAmbiguousPaths(), contains(
+                "app/build/outputs/mapping/flavor/release/mapping.txt",
+                "app/build/outputs/mapping/flavorRelease/mapping.txt"
+        ));
+        assertNull(index.findMatch("app/build/outputs/bundle/flavorRelease/app.aab"));
+        assertThat(index.getUnmatchedPaths(), empty());
+    }
+
+    @Test
+    public void index_withNoPaths() {
+        GradleOutputIndex index = new GradleOutputIndex(Collections.emptyList());
+
+        assertTrue(index.isComplete());
+        assertNull(index.findMatch("app/build/outputs/bundle/release/app.aab"));
+        assertThat(index.getUnmatchedPaths(), empty());
+    }
+
+}
@@ -0,0 +1,97 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GradleOutputMetadataTest {
+
+    private static final String APK_METADATA = "{\n" +
+            "  \"version\": 3,\n" +
+            "  \"artifactType\": { \"type\": \"APK\", \"kind\": \"Directory\" },\n" +
+            "  \"applicationId\": \"com.example.app\",\n" +
+            "  \"variantName\": \"release\",\n" +
+            "  \"elements\": [\n" +
+            "    { \"type\": \"ONE_OF_MANY\", \"filters\": [{ \"filterType\": \"ABI\", \"value\": \"x86\" }],\n" +
+            "      \"versionCode\": 1001, \"versionName\": \"1.0\", \"outputFile\": \"app-x86-release.apk\" },\n" +
+            "    { \"type\": \"ONE_OF_MANY\", \"filters\": [{ \"filterType\": \"ABI\", \"value\": \"arm64-v8a\" }],\n" +
+            "      \"versionCode\": 1002, \"versionName\": \"1.0\", \"outputFile\": \"app-arm64-v8a-release.apk\",\n" +
+            "      \"minSdkVersionForDexing\": 21 }\n" +
+            "  ],\n" +
+            "  \"elementType\": \"File\"\n" +
+            "}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parse_readsEachElement() throws IOException {
+        Map<String, AppFileMetadata> metadata = parse(APK_METADATA);
+
+        assertEquals(2, metadata.size());
+        AppFileMetadata x86 = metadata.get("app-x86-release.apk");
+        assertTrue(x86 instanceof ApkFileMetadata);
+        assertEquals("com.example.app", x86.getApplicationId());
+        assertEquals(1001, x86.getVersionCode());
+        assertEquals("1.0", x86.getVersionName());
+        assertNull(x86.getMinSdkVersion());
+        assertEquals(1002, metadata.get("app-arm64-v8a-release.apk").getVersionCode());
+        assertEquals("21", metadata.get("app-arm64-v8a-release.apk").getMinSdkVersion());
+    }
+
+    @Test
+    public void parse_ignoresOtherArtifactTypes() throws IOException {
+        assertTrue(parse(APK_METADATA.replace("\"APK\"", "\"BUNDLE\"")).isEmpty());
+    }
+
+    @Test
+    public void parse_ignoresElementsWithoutVersionCode() throws IOException {
+        Map<String, AppFileMetadata> metadata = parse(APK_METADATA.replace("\"versionCode\": 1001, ", ""));
+
+        assertEquals(Collections.singleton("app-arm64-v8a-release.apk"), metadata.keySet());
+    }
+
+    @Test
+    public void readTask_onlyUsesMetadataForUnmodifiedListedFiles() throws IOException {
+        File dir = folder.newFolder("app", "build", "outputs", "apk", "release");
+        File x86 = write(new File(dir, "app-x86-release.apk"), "apk");
+        File arm = write(new File(dir, "app-arm64-v8a-release.apk"), "apk");
+        write(new File(dir, "unlisted.apk"), "apk");
+        File metadataFile = write(new File(dir, GradleOutputMetadata.FILE_NAME), APK_METADATA);
+
+        // The arm64 APK was e.g. re-signed after Gradle had written the metadata
+        long writtenAt = metadataFile.lastModified();
+        assertTrue(x86.setLastModified(writtenAt - 1000));
+        assertTrue(arm.setLastModified(writtenAt + 1000));
+
+        String prefix = "app/build/outputs/apk/release/";
+        Map<String, AppFileMetadata> result = new GradleOutputMetadata.ReadTask(Arrays.asList(
+                prefix + "app-x86-release.apk", prefix + "app-arm64-v8a-release.apk", prefix + "unlisted.apk"))
+                .invoke(folder.getRoot(), null);
+
+        assertEquals(Collections.singleton(prefix + "app-x86-release.apk"), result.keySet());
+    }
+
+    private static Map<String, AppFileMetadata> parse(String json) throws IOException {
+        return GradleOutputMetadata.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static File write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+}
@@ -6,10 +6,13 @@ import com.google.api.client.testing.http.MockHttpTransport;
 import com.google.api.client.testing.http.MockLowLevelHttpRequest;
 import com.google.api.client.testing.http.MockLowLevelHttpResponse;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import javax.annotation.Nullable;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeHttpResponse;
 
@@ -17,17 +20,23 @@ public class TestHttpTransport extends MockHttpTransport implements Serializable
     private static final boolean DEBUG = TestUtilImpl.DEBUG;
 
     public final Map<String, SimpleResponse> responses = new HashMap<>();
-    private List<RemoteCall> remoteCalls = new ArrayList<>();
+    private List<RemoteCall> remoteCalls = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, Queue<SimpleResponse>> followingResponses = new HashMap<>();
 
     @Override
-    public LowLevelHttpRequest buildRequest(String method, String url) {
+    public synchronized LowLevelHttpRequest buildRequest(String method, String url) {
         if (DEBUG) System.out.println("Building request: " + method + " " + url + " on " + this);
 
+        // Partial response field masks don't affect which response should be returned, so ignore them
+        final String urlToMatch = url.replaceAll("([?&])fields=[^&]*&?", "$1").replaceAll("[?&]$", "");
+
         // Iterate through the configured responses, until we find a matching URL
         LowLevelHttpResponse response = null;
+        String matchedUrl = null;
         for (Map.Entry<String, SimpleResponse> mockedEntry : responses.entrySet()) {
-            if (url.endsWith(mockedEntry.getKey())) {
+            if (urlToMatch.endsWith(mockedEntry.getKey())) {
                 response = createResponse(mockedEntry.getValue());
+                matchedUrl = mockedEntry.getKey();
             }
         }
 
@@ -35,6 +44,12 @@ public class TestHttpTransport extends MockHttpTransport implements Serializable
             throw new RuntimeException("Could not find a mocked response for " + method + " to " + url);
         }
 
+        // If there are further responses for this URL, the next request should receive the next one
+        final Queue<SimpleResponse> following = followingResponses.get(matchedUrl);
+        if (following != null && !following.isEmpty()) {
+            responses.put(matchedUrl, following.remove());
+        }
+
         MockLowLevelHttpRequest request = new FakeHttpRequest(response);
         remoteCalls.add(new RemoteCall(method, url, request, response));
         return request;
@@ -55,12 +70,31 @@ public class TestHttpTransport extends MockHttpTransport implements Serializable
      * @param response The {@link FakeHttpResponse} that will be returned
      * @return {@code this} to enable method call chaining.
      */
-    public TestHttpTransport withResponse(String url, FakeHttpResponse response) {
+    public synchronized TestHttpTransport withResponse(String url, FakeHttpResponse response) {
         if (DEBUG) {
             System.out.println("Adding response: " + url + " => " + response);
         }
 
         responses.put(url, new SimpleResponse(response));
+        followingResponses.remove(url);
+        return this;
+    }
+
+    /**
+     * Register several {@code responses} to handle consecutive requests to the {@code url}, e.g. for uploads which
+     * should each return a different result. Once all have been used, the last response is repeated.
+     *
+     * @param url A substring that should match the <b>end</b> of the remote URL endpoint
+     * @param responses The {@link FakeHttpResponse}s that will be returned, in order
+     * @return {@code this} to enable method call chaining.
+     */
+    public synchronized TestHttpTransport withResponses(String url, FakeHttpResponse... responses) {
+        withResponse(url, responses[0]);
+        final Queue<SimpleResponse> following = new ArrayDeque<>();
+        for (int i = 1; i < responses.length; i++) {
+            following.add(new SimpleResponse(responses[i]));
+        }
+        followingResponses.put(url, following);
         return this;
     }
 
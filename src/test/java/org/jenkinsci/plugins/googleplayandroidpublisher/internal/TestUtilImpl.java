@@ -5,6 +5,8 @@ import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
 import org.mockito.stubbing.Answer;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestConstants.DEFAULT_APK_APP_ID;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestConstants.DEFAULT_APK_MIN_SDK_VERSION;
@@ -21,6 +23,8 @@ public class TestUtilImpl implements JenkinsUtil, AndroidUtil {
 
     private String apkAppId = DEFAULT_APK_APP_ID;
     private String bundleAppId = DEFAULT_BUNDLE_APP_ID;
+    private final Map<String, String> appIdsByFileName = new HashMap<>();
+    private final Map<String, Integer> versionCodesByFileName = new HashMap<>();
 
     @Override
     public String getPluginVersion() {
@@ -42,11 +46,13 @@ public class TestUtilImpl implements JenkinsUtil, AndroidUtil {
     public AppFileMetadata getAppFileMetadata(File file) {
         if (file.getName().endsWith(".aab")) {
             return new BundleFileMetadata(
-                bundleAppId, DEFAULT_BUNDLE_VERSION_CODE, DEFAULT_BUNDLE_VERSION_NAME, DEFAULT_BUNDLE_MIN_SDK_VERSION
+                appIdsByFileName.getOrDefault(file.getName(), bundleAppId), DEFAULT_BUNDLE_VERSION_CODE, DEFAULT_BUNDLE_VERSION_NAME, DEFAULT_BUNDLE_MIN_SDK_VERSION
             );
         }
         return new ApkFileMetadata(
-            apkAppId, DEFAULT_APK_VERSION_CODE, DEFAULT_APK_VERSION_NAME, DEFAULT_APK_MIN_SDK_VERSION
+            appIdsByFileName.getOrDefault(file.getName(), apkAppId),
+            versionCodesByFileName.getOrDefault(file.getName(), DEFAULT_APK_VERSION_CODE), DEFAULT_APK_VERSION_NAME,
+            DEFAULT_APK_MIN_SDK_VERSION
         );
     }
 
@@ -58,4 +64,14 @@ public class TestUtilImpl implements JenkinsUtil, AndroidUtil {
         this.bundleAppId = bundleAppId;
     }
 
+    /** Overrides the application ID for files with the given name, e.g. to simulate multiple applications. */
+    public void setAppIdForFileName(String fileName, String appId) {
+        appIdsByFileName.put(fileName, appId);
+    }
+
+    /** Overrides the version code for APK files with the given name, e.g. to simulate multiple APKs in one release. */
+    public void setVersionCodeForFileName(String fileName, int versionCode) {
+        versionCodesByFileName.put(fileName, versionCode);
+    }
+
 }